@@ -0,0 +1,94 @@
+/*   
+  	This file is part of JSON Web Framework.
+
+    JSON Web Framework is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    JSON Web Framework is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with JSON Web Framework.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package client;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import structures.ClientEvent;
+
+/**
+ * @author Yiqi (Eric) Hou
+ *
+ * <p>
+ * Cost of adding events to one EventScheduler from several producers at once. In 
+ * addAndStart the future of each event completes right away, so the event is started and
+ * released; in addPastLimit it never completes, so past the limit every new event makes the
+ * overload policy shed a held one. Events run on the completing thread.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class EventSchedulerBenchmark {
+	@Param({"SHED_LOWEST", "SHED_OLDEST"})
+	public OverloadOptions.Policy policy;
+	
+	private EventScheduler scheduler;
+	
+	@Setup
+	public void setUp(){
+		scheduler = new EventScheduler(1000, 10, EventExecutor.callerRuns());
+		scheduler.setOverloadOptions(new OverloadOptions().setPolicy(policy));
+		Thread t = new Thread(scheduler::run, "event-loop");
+		t.setDaemon(true);
+		t.start();
+	}
+	
+	@TearDown
+	public void tearDown(){
+		scheduler.stop();
+	}
+	
+	@Benchmark
+	public void addAndStart(){
+		CompletableFuture<Object> f = new CompletableFuture<Object>();
+		scheduler.add(newEvent(f));
+		f.complete(null);
+	}
+	
+	@Benchmark
+	public void addPastLimit(){
+		scheduler.add(newEvent(new CompletableFuture<Object>()));
+	}
+	
+	private static ClientEvent newEvent(CompletableFuture<Object> f){
+		ClientEvent e = new ClientEvent(f);
+		e.setTimeOutMS(60000);
+		e.setEventPriority(ThreadLocalRandom.current().nextInt(4));
+		return e;
+	}
+}
@@ -0,0 +1,101 @@
+/*   
+  	This file is part of JSON Web Framework.
+
+    JSON Web Framework is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    JSON Web Framework is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with JSON Web Framework.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package client;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import communications.BasicAuthentication;
+import structures.ClientEvent;
+
+/**
+ * @author Yiqi (Eric) Hou
+ *
+ * <p>
+ * Events added and dispatched per second by producers each adding the events of its own
+ * connection, to one event loop or to several shards. Run with -t set to the number of cores
+ * and -p shards=1,&lt;cores&gt; to see how throughput scales with the shards.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class EventShardingBenchmark {
+	private static final int CONNECTIONS = 16;
+	
+	@Param({"1", "4"})
+	public int shards;
+	
+	private JsonClient client;
+	private final AtomicInteger producers = new AtomicInteger();
+	
+	@Setup
+	public void setUp(){
+		client = new JsonClient();
+		for(int i = 0; i < CONNECTIONS; i++){
+			client.addConnection("c" + i, 
+					new Connection("localhost", 8080, "http", new BasicAuthentication("user", "password")));
+		}
+		client.setEventLimit(Integer.MAX_VALUE);
+		client.setEventExecutor(EventExecutor.bounded(shards, 1 << 16));
+		client.setEventLoopShards(shards);
+		client.start();
+	}
+	
+	@TearDown
+	public void tearDown(){
+		client.shutDown();
+	}
+	
+	@State(Scope.Thread)
+	public static class Producer {
+		String connection;
+		
+		@Setup
+		public void setUp(EventShardingBenchmark benchmark){
+			connection = "c" + benchmark.producers.getAndIncrement() % CONNECTIONS;
+		}
+	}
+	
+	@Benchmark
+	public void addEvent(Producer producer){
+		CompletableFuture<Object> f = new CompletableFuture<Object>();
+		ClientEvent e = new ClientEvent(f);
+		e.setTimeOutMS(60000);
+		client.addEvent(producer.connection, e);
+		f.complete(null);
+	}
+}
@@ -0,0 +1,111 @@
+/*   
+  	This file is part of JSON Web Framework.
+
+    JSON Web Framework is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    JSON Web Framework is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with JSON Web Framework.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package client;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpHost;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * @author Yiqi (Eric) Hou
+ *
+ * <p>
+ * Requests per second of each RequestEngine, with many callers sharing one Connection. By
+ * default the requests go to a local HTTP/1.1 server, where the HTTP2 engine falls back to 
+ * HTTP/1.1; to compare HTTP/2 itself, pass a server speaking it with -p host=https://..., 
+ * answering GET /echo with a JSON object. The HTTP2 engine needs Java 11 or later.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(32)
+public class RequestEngineBenchmark {
+	@Param({"BLOCKING", "NIO", "HTTP2"})
+	public ConnectionOptions.Engine engine;
+	
+	@Param({""})
+	public String host;
+	
+	private HttpServer server;
+	private ExecutorService serverThreads;
+	private Connection connection;
+	
+	@Setup
+	public void setUp() throws IOException{
+		HttpHost target;
+		if(host.isEmpty()){
+			final byte[] body = "{\"ok\":true}".getBytes(StandardCharsets.UTF_8);
+			serverThreads = Executors.newFixedThreadPool(8);
+			server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+			server.createContext("/echo", exchange -> {
+				exchange.getResponseHeaders().add("Content-Type", "application/json");
+				exchange.sendResponseHeaders(200, body.length);
+				try(OutputStream out = exchange.getResponseBody()){
+					out.write(body);
+				}
+			});
+			server.setExecutor(serverThreads);
+			server.start();
+			target = new HttpHost("localhost", server.getAddress().getPort(), "http");
+		}else{
+			target = HttpHost.create(host);
+		}
+		connection = new Connection(target);
+		connection.setConnectionOptions(new ConnectionOptions().setEngine(engine));
+		connection.addUriExtension("echo", "echo");
+	}
+	
+	@TearDown
+	public void tearDown(){
+		connection.shutDown();
+		if(server != null){
+			server.stop(0);
+			serverThreads.shutdown();
+		}
+	}
+	
+	@Benchmark
+	public Map<String, Object> get() throws Exception{
+		return connection.httpGetAsync("echo").get();
+	}
+}
@@ -0,0 +1,75 @@
+/*   
+  	This file is part of JSON Web Framework.
+
+    JSON Web Framework is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    JSON Web Framework is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with JSON Web Framework.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package client;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpHost;
+import org.apache.http.client.methods.HttpGet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import communications.BasicAuthentication;
+
+/**
+ * @author Yiqi (Eric) Hou
+ *
+ * <p>
+ * Cost of building a GET with its headers: from a precompiled RequestTemplate, against
+ * concatenating and parsing the URI and building every header for each call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestTemplateBenchmark {
+	private final HttpHost host = new HttpHost("localhost", 8080, "http");
+	private final String extension = "/api/users/profile";
+	private final BasicAuthentication auth = new BasicAuthentication("user", "password").setPreemptive();
+	private final RequestTemplate template = new RequestTemplate(extension, auth);
+	private final HttpOptions options = new HttpOptions("X-Trace", "1").addHeader("X-Tenant", "a");
+	
+	@Benchmark
+	public HttpGet template(){
+		return template.newGet(true, options);
+	}
+	
+	@Benchmark
+	public HttpGet perCall(){
+		HttpGet get = new HttpGet(host.toURI() + extension);
+		get.setHeader("Content-Type", "application/json");
+		byte[] credentials = (auth.getUser() + ":" + auth.getPass()).getBytes(StandardCharsets.ISO_8859_1);
+		get.setHeader("Authorization", "Basic " + Base64.getEncoder().encodeToString(credentials));
+		for(Map.Entry<String, String> e: options.headers().entrySet()){
+			get.addHeader(e.getKey(), e.getValue());
+		}
+		return get;
+	}
+}
@@ -0,0 +1,120 @@
+/*   
+  	This file is part of JSON Web Framework.
+
+    JSON Web Framework is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    JSON Web Framework is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with JSON Web Framework.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package client;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpHost;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sun.net.httpserver.HttpServer;
+
+import functions.ExecutorFunctions;
+
+/**
+ * @author Yiqi (Eric) Hou
+ *
+ * <p>
+ * Time to send a burst of requests at once through the BLOCKING engine to a server that takes
+ * a while to answer each, with the framework's blocking work on platform worker threads or on
+ * virtual threads. Virtual threads need Java 21 or later; on older JVMs both runs use the 
+ * platform threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VirtualThreadsBenchmark {
+	private static final int BURST = 200;
+	
+	@Param({"false", "true"})
+	public boolean virtualThreads;
+	
+	@Param({"50"})
+	public long serverDelayMS;
+	
+	private HttpServer server;
+	private ExecutorService serverThreads;
+	private Connection connection;
+	
+	@Setup
+	public void setUp() throws IOException{
+		ExecutorFunctions.setVirtualThreads(virtualThreads);
+		final byte[] body = "{\"ok\":true}".getBytes(StandardCharsets.UTF_8);
+		serverThreads = Executors.newCachedThreadPool();
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), BURST);
+		server.createContext("/slow", exchange -> {
+			try{
+				Thread.sleep(serverDelayMS);
+			}catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+			}
+			exchange.getResponseHeaders().add("Content-Type", "application/json");
+			exchange.sendResponseHeaders(200, body.length);
+			try(OutputStream out = exchange.getResponseBody()){
+				out.write(body);
+			}
+		});
+		server.setExecutor(serverThreads);
+		server.start();
+		connection = new Connection(new HttpHost("localhost", server.getAddress().getPort(), "http"));
+		connection.setConnectionOptions(new ConnectionOptions()
+				.setMaxConnectionsTotal(BURST).setMaxConnectionsPerRoute(BURST));
+		connection.addUriExtension("slow", "slow");
+	}
+	
+	@TearDown
+	public void tearDown(){
+		connection.shutDown();
+		server.stop(0);
+		serverThreads.shutdown();
+		ExecutorFunctions.setVirtualThreads(false);
+	}
+	
+	@Benchmark
+	public int burst() throws Exception{
+		@SuppressWarnings("unchecked")
+		CompletableFuture<Map<String, Object>>[] requests = new CompletableFuture[BURST];
+		for(int i = 0; i < BURST; i++){
+			requests[i] = connection.httpGetAsync("slow");
+		}
+		CompletableFuture.allOf(requests).get();
+		return requests.length;
+	}
+}
@@ -0,0 +1,116 @@
+/*   
+  	This file is part of JSON Web Framework.
+
+    JSON Web Framework is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    JSON Web Framework is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with JSON Web Framework.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package functions;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * @author Yiqi (Eric) Hou
+ *
+ * <p>
+ * Cost of turning an object into its JSON Map and back: through the MethodHandles of 
+ * ClassCodec, against reading and writing the same fields with Field.get and Field.set. Both
+ * resolve the fields of the class once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClassCodecBenchmark {
+	private final Reading reading = new Reading();
+	//Parsed from text, so numbers are Doubles as in a received request
+	private final Map<String, Object> json = 
+			JsonFunctions.jsonToObject(JsonFunctions.objectToJson(JsonBuilder.build(reading)));
+	private final Field[] fields = reflectiveFields(Reading.class);
+	
+	@Benchmark
+	public Map<String, Object> buildHandles(){
+		return JsonBuilder.build(reading);
+	}
+	
+	@Benchmark
+	public Map<String, Object> buildReflection() throws IllegalAccessException{
+		Map<String, Object> jsonMap = new HashMap<String, Object>(fields.length * 4 / 3 + 1);
+		for(Field f: fields){
+			jsonMap.put(f.getName(), f.get(reading));
+		}
+		return jsonMap;
+	}
+	
+	@Benchmark
+	public Object decodeHandles(){
+		return JsonInterpreter.decode(Reading.class, json);
+	}
+	
+	@Benchmark
+	public Object decodeReflection() throws IllegalAccessException{
+		Reading r = new Reading();
+		for(Field f: fields){
+			Object value = json.get(f.getName());
+			Class<?> type = f.getType();
+			if(type == int.class){
+				f.setInt(r, (int) Math.round((double) value));
+			}else if(type == long.class){
+				f.setLong(r, (long)(double) value);
+			}else{
+				f.set(r, value);
+			}
+		}
+		return r;
+	}
+	
+	private static Field[] reflectiveFields(Class<?> c){
+		List<Field> result = new ArrayList<Field>();
+		for(Field f: c.getDeclaredFields()){
+			if(!Modifier.isStatic(f.getModifiers())){
+				f.setAccessible(true);
+				result.add(f);
+			}
+		}
+		return result.toArray(new Field[0]);
+	}
+	
+	public static class Reading {
+		private int id = 42;
+		private long time = 1500000000000L;
+		private double value = 21.5;
+		private boolean valid = true;
+		private String sensor = "kitchen";
+		
+		public Reading(){
+		}
+	}
+}
@@ -0,0 +1,73 @@
+/*   
+  	This file is part of JSON Web Framework.
+
+    JSON Web Framework is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    JSON Web Framework is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with JSON Web Framework.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package client;
+
+/**
+ * @author Yiqi (Eric) Hou
+ *
+ * <p>
+ * Settings for coalescing many small calls to one URI extension into a single batch request.
+ * A batch is sent when its window elapses after the first call was added, or as soon as it
+ * holds the maximum number of calls or bytes, whichever comes first.
+ */
+public class BatchOptions {
+	private long windowMS = 5;
+	private int maxCalls = 64;
+	private int maxBytes = 256 * 1024;
+	
+	public BatchOptions(){
+	}
+	
+	/**
+	 * @param ms	Time a batch waits for more calls after its first call was added.
+	 * @return		Returns current instance of options.
+	 */
+	public BatchOptions setWindowMS(long ms){
+		windowMS = ms;
+		return this;
+	}
+	public long getWindowMS(){
+		return windowMS;
+	}
+	
+	/**
+	 * @param max	Number of calls after which a batch is sent without waiting for its window.
+	 * @return		Returns current instance of options.
+	 */
+	public BatchOptions setMaxCalls(int max){
+		maxCalls = max;
+		return this;
+	}
+	public int getMaxCalls(){
+		return maxCalls;
+	}
+	
+	/**
+	 * @param max	Size of the call bodies, in characters, after which a batch is sent without
+	 * 					waiting for its window.
+	 * @return		Returns current instance of options.
+	 */
+	public BatchOptions setMaxBytes(int max){
+		maxBytes = max;
+		return this;
+	}
+	public int getMaxBytes(){
+		return maxBytes;
+	}
+}
@@ -0,0 +1,125 @@
+/*   
+  	This file is part of JSON Web Framework.
+
+    JSON Web Framework is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    JSON Web Framework is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with JSON Web Framework.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package client;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpHost;
+import org.apache.http.client.CredentialsProvider;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+
+import functions.ExecutorFunctions;
+
+/**
+ * @author Yiqi (Eric) Hou
+ *
+ * <p>
+ * A RequestEngine running each request on a pooled, blocking HttpClient. The blocking calls are
+ * made on a bounded pool of worker threads owned by the engine, or on a virtual thread each
+ * when virtual threads are switched on, so the caller only receives the future.
+ */
+class BlockingRequestEngine implements RequestEngine {
+	private final PoolingHttpClientConnectionManager connectionManager;
+	private final CloseableHttpClient httpClient;
+	private final ExecutorService workerExecutor;
+	
+	BlockingRequestEngine(ConnectionOptions options, CredentialsProvider credentialsProvider){
+		//Creates the pool shared by every request made to this connection's host. The
+		//credentials provider is always attached so that authentication can be set or
+		//removed later without rebuilding the client.
+		connectionManager = new PoolingHttpClientConnectionManager();
+		connectionManager.setMaxTotal(options.getMaxConnectionsTotal());
+		connectionManager.setDefaultMaxPerRoute(options.getMaxConnectionsPerRoute());
+		connectionManager.setValidateAfterInactivity(options.getValidateAfterInactivityMS());
+		HttpClientBuilder builder = HttpClientBuilder.create()
+				.setConnectionManager(connectionManager)
+				.setDefaultRequestConfig(createRequestConfig(options))
+				.setDefaultCredentialsProvider(credentialsProvider);
+		if(options.getMaxIdleTimeMS() > 0){
+			builder.evictExpiredConnections()
+					.evictIdleConnections(options.getMaxIdleTimeMS(), TimeUnit.MILLISECONDS);
+		}
+		httpClient = builder.build();
+		workerExecutor = ExecutorFunctions.newBlockingPool("connection-worker", options.getWorkerThreads());
+	}
+	
+	static RequestConfig createRequestConfig(ConnectionOptions options){
+		return RequestConfig.custom()
+				.setConnectTimeout(options.getConnectTimeoutMS())
+				.setSocketTimeout(options.getSocketTimeoutMS())
+				.setConnectionRequestTimeout(options.getConnectionRequestTimeoutMS())
+				.build();
+	}
+	
+	@Override
+	public <T> CompletableFuture<T> execute(final HttpHost target, final HttpRequestBase request, 
+			final HttpClientContext context, final ResponseDecoder<T> decoder){
+		final CompletableFuture<T> result = new CompletableFuture<T>();
+		try{
+			workerExecutor.execute(() -> {
+				if(result.isDone()){
+					return;
+				}
+				try(CloseableHttpResponse response = httpClient.execute(target, request, context)){
+					result.complete(decoder.decode(response));
+				}catch(Exception e){
+					result.completeExceptionally(e);
+				}
+			});
+		}catch(RejectedExecutionException e){
+			result.completeExceptionally(e);
+		}
+		result.whenComplete((r, e) -> {
+			if(result.isCancelled()){
+				request.abort();
+			}
+		});
+		return result;
+	}
+	
+	CloseableHttpClient getHttpClient(){
+		return httpClient;
+	}
+	
+	@Override
+	public PoolStats getPoolStats(){
+		return connectionManager.getTotalStats();
+	}
+	
+	@Override
+	public void shutDown(){
+		workerExecutor.shutdown();
+		try{
+			httpClient.close();
+		}catch(IOException e){
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,91 @@
+/*   
+  	This file is part of JSON Web Framework.
+
+    JSON Web Framework is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    JSON Web Framework is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with JSON Web Framework.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package client;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Yiqi (Eric) Hou
+ *
+ * <p>
+ * The CoDel control law, deciding from the sojourn time of each event, the time it waited in
+ * the queue of the EventExecutor once its future completed, whether it is dropped. Dropping
+ * starts once sojourn times have stayed above the target for an interval, then drops come
+ * closer together, at the interval divided by the square root of the drops so far, until a
+ * sojourn time falls under the target.
+ */
+class CoDelController {
+	private final long targetNanos;
+	private final long intervalNanos;
+	private long firstAboveNanos = 0;
+	private long dropNextNanos = 0;
+	private int count = 0;
+	private int lastCount = 0;
+	private boolean dropping = false;
+	
+	CoDelController(long targetMS, long intervalMS){
+		targetNanos = TimeUnit.MILLISECONDS.toNanos(targetMS);
+		intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMS);
+	}
+	
+	/**
+	 * @param sojournNanos	Time the event waited for a thread, from the completion of its
+	 * 							future to being picked up.
+	 * @param held			Number of events still waiting for a thread.
+	 * @return				Whether the event is dropped.
+	 */
+	synchronized boolean shouldDrop(long sojournNanos, int held){
+		long now = System.nanoTime();
+		boolean late = false;
+		//An empty queue is never late, whatever the wait of its last event
+		if(sojournNanos < targetNanos || held == 0){
+			firstAboveNanos = 0;
+		}else if(firstAboveNanos == 0){
+			firstAboveNanos = now + intervalNanos;
+		}else if(now - firstAboveNanos >= 0){
+			late = true;
+		}
+		if(dropping){
+			if(!late){
+				dropping = false;
+				return false;
+			}
+			if(now - dropNextNanos >= 0){
+				count++;
+				dropNextNanos = controlLaw(dropNextNanos);
+				return true;
+			}
+			return false;
+		}
+		if(late){
+			dropping = true;
+			//Resumes near the previous drop rate if the last dropping state ended recently
+			int delta = count - lastCount;
+			count = delta > 1 && now - dropNextNanos < 16 * intervalNanos ? delta : 1;
+			lastCount = count;
+			dropNextNanos = controlLaw(now);
+			return true;
+		}
+		return false;
+	}
+	
+	private long controlLaw(long t){
+		return t + (long) (intervalNanos / Math.sqrt(count));
+	}
+}
@@ -17,37 +17,45 @@
 
 package client;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.util.HashMap;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.apache.http.Consts;
 import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
 import org.apache.http.HttpHost;
 import org.apache.http.HttpResponse;
 import org.apache.http.auth.AuthScope;
 import org.apache.http.auth.UsernamePasswordCredentials;
-import org.apache.http.client.AuthCache;
-import org.apache.http.client.HttpClient;
+import org.apache.http.client.CredentialsProvider;
 import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
 import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.client.protocol.HttpClientContext;
-import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.auth.BasicScheme;
-import org.apache.http.impl.client.BasicAuthCache;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.HttpEntityWrapper;
 import org.apache.http.impl.client.BasicCredentialsProvider;
-import org.apache.http.impl.client.HttpClientBuilder;
-import org.springframework.scheduling.annotation.AsyncResult;
+import org.apache.http.pool.PoolStats;
 
-import com.jcabi.aspects.Async;
+import com.google.common.io.CountingInputStream;
+import com.google.gson.JsonObject;
 
 import communications.BasicAuthentication;
+import functions.CompressionFunctions;
 import functions.JsonFunctions;
+import structures.DeadlineExceededException;
 import structures.HostNotValidException;
+import structures.NoHostAvailableException;
 
 
 /**
@@ -58,6 +66,12 @@ import structures.HostNotValidException;
  * accessible through extensions of the host's URI. Handles HTTP basic authentication.
  * 
  * <p>
+ * Each connection owns a long-lived engine with a socket pool, so requests to the host
+ * reuse kept-alive sockets. Every request returns a CompletableFuture; the engine, either
+ * blocking workers or an event-driven NIO client, is chosen through {@link ConnectionOptions}
+ * and is closed by {@link #shutDown()}.
+ * 
+ * <p>
  * <b>Planned:</b>
  * Salting + hashing of password for more secure HTTP basic authentication. This will be handled
  * internally between the Tomcat server and the client, so no need for the user of this API to
@@ -65,11 +79,24 @@ import structures.HostNotValidException;
  */
 public class Connection {
 	private HttpHost connectionHost;
-	private String uriSchemePrefix = "";
 	private BasicAuthentication basicAuth;
-	private Map<String, String> uriExtensions = new HashMap<String, String>();
+	private final Map<String, RequestTemplate> templates = new ConcurrentHashMap<String, RequestTemplate>();
 	private boolean basicAuthNeeded = false;
 	
+	private ConnectionOptions connectionOptions = new ConnectionOptions();
+	private volatile RequestEngine engine;
+	private volatile ResponseCache responseCache;
+	private volatile RetryPolicy retryPolicy;
+	private volatile RequestLimiter limiter;
+	private final Map<String, LatencyWindow> latencyWindows = new ConcurrentHashMap<String, LatencyWindow>();
+	private final Map<String, RequestBatcher> batchers = new ConcurrentHashMap<String, RequestBatcher>();
+	private final BasicCredentialsProvider credentialsProvider = new BasicCredentialsProvider();
+	private final ConnectionMetrics metrics = new ConnectionMetrics();
+	private volatile boolean singleFlight = false;
+	private final Map<String, CompletableFuture<Map<String, Object>>> inFlightGets = 
+			new ConcurrentHashMap<String, CompletableFuture<Map<String, Object>>>();
+	private final AtomicLong collapsedGets = new AtomicLong();
+	
 	/**
 	 * Constructor. Not meant for API use, please utilize constructor with Apache's HttpHost
 	 * instead.
@@ -173,6 +200,7 @@ public class Connection {
 		basicAuth = new BasicAuthentication(username, password);
 		if(preemptive) basicAuth.setPreemptive();
 		basicAuthNeeded = true;
+		updateCredentials();
 	}
 	
 	
@@ -183,8 +211,8 @@ public class Connection {
 	 * 
 	 * @param a BasicAuthentication to be used to access host if needed.
 	 */
-	public void setBasicAuth(BasicAuthentication a){this.basicAuth = a; basicAuthNeeded = true;}
-	public void removeBasicAuth(){basicAuth = null; basicAuthNeeded = false;}
+	public void setBasicAuth(BasicAuthentication a){this.basicAuth = a; basicAuthNeeded = true; updateCredentials();}
+	public void removeBasicAuth(){basicAuth = null; basicAuthNeeded = false; updateCredentials();}
 	
 	
 	/**
@@ -197,7 +225,6 @@ public class Connection {
 	 * @return				Returns this instance of HttpHost.
 	 */
 	public HttpHost setHost(String base, int port, String uriScheme){
-		setUriSchemePrefix(uriScheme);
 		return connectionHost = new HttpHost(base, port, uriScheme);
 	}
 	
@@ -210,46 +237,29 @@ public class Connection {
 	 * @return		Returns this instance of HttpHost.
 	 */
 	public HttpHost setHost(HttpHost host){
-		setUriSchemePrefix(host.getSchemeName());
 		return connectionHost = host;
 	}
 	public HttpHost getHost(){return connectionHost;}
 	
 	
 	/**
-	 * Sets the prefix to be prepended to the URI when an HTTP request is initiated.
-	 * 
-	 * @param uriScheme	The string naming the URI scheme to be used by the connection to this host.
-	 * 						SSL/HTTPS is recommended when using HTTP basic authentication.
-	 */
-	private void setUriSchemePrefix(String uriScheme){
-		String u = uriScheme;
-		switch(u){
-			case "HTTP": uriSchemePrefix = "http://";
-							break;
-			case "HTTPS": uriSchemePrefix = "https://";	
-							break;
-		}
-	}
-	
-	
-	/**
-	 * Adds a URI extension to this host that can thereafter be referred to by the key.
+	 * Adds a URI extension to this host that can thereafter be referred to by the key. The
+	 * extension is compiled once into the request template used by every call to it.
 	 * 
 	 * @param extensionName	Nickname of the extension
 	 * @param extension		URI extension to be appended to the base URI when requesting from this
 	 * 							URI.
 	 */
 	public void addUriExtension(String extensionName, String extension){
-		if(extension.contains(connectionHost.getHostName())){
+		if(connectionHost != null && extension.contains(connectionHost.getHostName())){
 			throw new HostNotValidException();
 		}else{
-			uriExtensions.put(extensionName, extension);
+			templates.put(extensionName, new RequestTemplate(extension, getPreemptiveAuth()));
 		}
 	}
 	
 	public void removeUriExtension(String extensionName){
-		uriExtensions.remove(extensionName);
+		templates.remove(extensionName);
 	}
 	
 //	public Future<JsonMapObject> httpGet(String extensionName) throws InterruptedException, ExecutionException{
@@ -258,68 +268,179 @@ public class Connection {
 	
 	/**
 	 * An asynchronous HTTP GET request that sends a request to the requested resource given
-	 * by the URI extension's nickname. Starts a new thread, please pass this future object
-	 * to a ClientEvent to handle the execution of any object handling after this object is
-	 * returned.
+	 * by the URI extension's nickname. Please pass this future object to a ClientEvent to 
+	 * handle the execution of any object handling after this object is returned.
 	 * 
 	 * @param extensionName	Nickname of the extension.
 	 * @return				Returns a Future object promising a Map representation of the returned
 	 * 							JSON.
 	 */
-	@Async
 	public Future<Map<String, Object>> httpGetRaw(String extensionName){
 		return httpGetRaw(extensionName, null);
 	}
-	@Async
 	public Future<Map<String, Object>> httpGetRaw(String extensionName, HttpOptions httpOptions){
+		return httpGetAsync(extensionName, httpOptions);
+	}
+	
+	/**
+	 * A non-blocking HTTP GET request that sends a request to the requested resource given
+	 * by the URI extension's nickname. The request is carried by the engine set in this
+	 * connection's ConnectionOptions.
+	 * 
+	 * @param extensionName	Nickname of the extension.
+	 * @param httpOptions	Extra headers to be sent with the request. May be null.
+	 * @return				Returns a CompletableFuture promising a Map representation of the 
+	 * 							returned JSON. Completes exceptionally if the request fails.
+	 */
+	public CompletableFuture<Map<String, Object>> httpGetAsync(String extensionName){
+		return httpGetAsync(extensionName, null);
+	}
+	public CompletableFuture<Map<String, Object>> httpGetAsync(String extensionName, HttpOptions httpOptions){
+		if(!singleFlight){
+			return fetchGet(extensionName, httpOptions, null);
+		}
 		if(connectionHost == null){
 			throw new HostNotValidException();
 		}
+		//Identical GETs already in flight share the leader's request and result
+		final String key = ResponseCache.createKey(connectionHost, getTemplate(extensionName).getPath(), httpOptions);
+		final CompletableFuture<Map<String, Object>> shared = new CompletableFuture<Map<String, Object>>();
+		CompletableFuture<Map<String, Object>> leader = inFlightGets.putIfAbsent(key, shared);
+		if(leader != null){
+			collapsedGets.incrementAndGet();
+			return leader.thenApply(Connection::unmodifiable);
+		}
 		try{
-			HttpClient client = initializeHttpClient();
-			//Creates  client context, which includes authentication.
-			HttpClientContext context = HttpClientContext.create();
-			if(basicAuthNeeded && basicAuth.isPreemptive()){
-				configurePreemptiveAuth(connectionHost, context);
-			}
-			//Creates the get context, which describes the actual message to the server
-			HttpGet httpGetContext = new HttpGet(uriSchemePrefix 
-												+ connectionHost.getHostName()
-												+ uriExtensions.get(extensionName));
-			System.out.println(uriSchemePrefix 
-												+ connectionHost.getHostName()
-												+ uriExtensions.get(extensionName));
-			httpGetContext.setHeader("Content-Type", "application/json");
-			HttpEntity responseEntity = null;
-			
-			addHttpOptions(httpGetContext, httpOptions);
-			
-			
-			if(basicAuthNeeded && basicAuth.isPreemptive()){
-				try{
-					HttpResponse response = client.execute(httpGetContext, context);
-					responseEntity = response.getEntity();
-				}catch(Exception e){
-					System.out.println("Error in getting GET HttpResponse and its entity"
-							+ " with preemptive authentication.");
-				}
-			}else{
-				try{
-					HttpResponse response = client.execute(httpGetContext);
-					responseEntity = response.getEntity();
-				}catch(Exception e){
-					System.out.println("Error in getting GET HttpResponse and its entity"
-							+ " without preemptive authentication.");
+			fetchGet(extensionName, httpOptions, key).whenComplete((r, e) -> {
+				inFlightGets.remove(key, shared);
+				if(e != null){
+					shared.completeExceptionally(e);
+				}else{
+					shared.complete(r);
 				}
+			});
+		}catch(RuntimeException e){
+			inFlightGets.remove(key, shared);
+			shared.completeExceptionally(e);
+			throw e;
+		}
+		return shared.thenApply(Connection::unmodifiable);
+	}
+	
+	/**
+	 * Shares one request among concurrent identical GETs: a GET made while another one to the
+	 * same host, extension and headers is in flight does not send a request of its own, but
+	 * completes with the result of the one in flight. Protects the host from a burst of
+	 * identical requests, such as when a popular cache entry expires.
+	 * 
+	 * <p>
+	 * While enabled, the maps returned by {@link #httpGetAsync(String, HttpOptions)} are
+	 * read-only views, since they may be shared by several callers. The JSON objects and arrays
+	 * nested in them are shared as well and must not be modified.
+	 */
+	public void enableSingleFlight(){
+		singleFlight = true;
+	}
+	public void disableSingleFlight(){
+		singleFlight = false;
+	}
+	
+	/**
+	 * @return	The number of GETs that were answered by an identical GET already in flight,
+	 * 				instead of sending a request of their own.
+	 */
+	public long getCollapsedGets(){
+		return collapsedGets.get();
+	}
+	
+	private static Map<String, Object> unmodifiable(Map<String, Object> map){
+		return map == null ? null : Collections.unmodifiableMap(map);
+	}
+	
+	//Sends a GET through the response cache and the batcher when they are enabled. The cache
+	//key is computed here unless the caller already has it.
+	private CompletableFuture<Map<String, Object>> fetchGet(String extensionName, HttpOptions httpOptions, 
+			String key){
+		ResponseCache cache = responseCache;
+		if(cache != null){
+			return cachedGet(cache, extensionName, httpOptions, key);
+		}
+		RequestBatcher batcher = getBatcher(extensionName, httpOptions);
+		if(batcher != null){
+			return batcher.submit("GET", null).thenApply(JsonFunctions::jsonToObject);
+		}
+		return execute(createGet(extensionName, httpOptions), ResponseDecoders.JSON_MAP, extensionName, httpOptions);
+	}
+	
+	/**
+	 * A non-blocking HTTP GET request whose JSON response is built into an object of the given
+	 * type through a JsonInterpreter. The JSON is parsed straight from the response stream.
+	 * 
+	 * @param extensionName	Nickname of the extension.
+	 * @param type			The type that the returned JSON represents.
+	 * @param httpOptions	Extra headers to be sent with the request. May be null.
+	 * @return				Returns a CompletableFuture promising the object represented by the
+	 * 							returned JSON. Completes exceptionally if the request fails.
+	 */
+	public <T> CompletableFuture<T> httpGetObjectAsync(String extensionName, Class<T> type){
+		return httpGetObjectAsync(extensionName, type, null);
+	}
+	public <T> CompletableFuture<T> httpGetObjectAsync(String extensionName, Class<T> type, HttpOptions httpOptions){
+		return execute(createGet(extensionName, httpOptions), ResponseDecoders.forType(type), extensionName, httpOptions);
+	}
+	
+	//Answers from the response cache when the entry is fresh, otherwise requests the resource,
+	//revalidating the stale entry if it has validators.
+	private CompletableFuture<Map<String, Object>> cachedGet(ResponseCache cache, String extensionName, 
+			HttpOptions httpOptions, String key){
+		if(connectionHost == null){
+			throw new HostNotValidException();
+		}
+		if(key == null){
+			key = ResponseCache.createKey(connectionHost, getTemplate(extensionName).getPath(), httpOptions);
+		}
+		ResponseCache.Entry entry = cache.lookUp(key);
+		if(entry != null && entry.isFresh()){
+			return CompletableFuture.completedFuture(entry.value);
+		}
+		HttpGet httpGetContext = createGet(extensionName, httpOptions);
+		if(entry != null && entry.canRevalidate()){
+			if(entry.eTag != null){
+				httpGetContext.setHeader("If-None-Match", entry.eTag);
 			}
-			Map<String, Object> returnMap = JsonFunctions.jsonToObject(consolidateResponse(responseEntity));
-			return new AsyncResult<Map<String, Object>>(returnMap);
-			
-		}catch(Exception e){
-			e.printStackTrace();
-			System.out.println("httpGetRaw Failed");
+			if(entry.lastModified != null){
+				httpGetContext.setHeader("If-Modified-Since", entry.lastModified);
+			}
+		}else{
+			entry = null;
+		}
+		return execute(httpGetContext, ResponseDecoders.caching(cache, key, entry), extensionName, httpOptions);
+	}
+	
+	/**
+	 * Places an in-memory cache in front of the GET requests of this connection. Fresh cached
+	 * responses are answered without a request, and stale ones are revalidated with the host.
+	 * GET requests are not batched while the cache is enabled. See {@link ResponseCache}.
+	 * 
+	 * @param maxBytes	Maximum total size of the cached response bodies.
+	 * @return			The cache, exposing its hit, miss and eviction counters.
+	 */
+	public ResponseCache enableResponseCache(long maxBytes){
+		return responseCache = new ResponseCache(maxBytes);
+	}
+	public void disableResponseCache(){
+		responseCache = null;
+	}
+	public ResponseCache getResponseCache(){
+		return responseCache;
+	}
+	
+	HttpGet createGet(String extensionName, HttpOptions httpOptions){
+		if(connectionHost == null){
+			throw new HostNotValidException();
 		}
-		return null;
+		//Creates the get context, which describes the actual message to the server
+		return getTemplate(extensionName).newGet(isPreemptive(), httpOptions);
 	}
 //	public String httpPost(String extensionName, JsonMapObject message){
 //		return httpPostRaw(extensionName, message.asJson());
@@ -332,64 +453,44 @@ public class Connection {
 	/**
 	 * An asynchronous HTTP POST request that sends a request to the requested resource given
 	 * by the URI extension's nickname. Included with the POST request is a String that
-	 * reflects a JSON object to be posted. Starts a new thread, please pass this future object
-	 * to a ClientEvent to handle the execution of any object handling after this object is
-	 * returned.
+	 * reflects a JSON object to be posted. Please pass this future object to a ClientEvent to
+	 * handle the execution of any object handling after this object is returned.
 	 * 
 	 * @param extensionName	Nickname of the extension.
 	 * @param message		The JSON to be sent as a String.
 	 * @return				Returns a Future object promising a String representing the result of
 	 * 							the POST request.
 	 */
-	@Async
 	public Future<String> httpPostRaw(String extensionName, String message){
 		return httpPostRaw(extensionName, message, null);
 	}
-	@Async
 	public Future<String> httpPostRaw(String extensionName, String message, HttpOptions httpOptions){
+		return httpPostAsync(extensionName, message, httpOptions);
+	}
+	
+	/**
+	 * A non-blocking HTTP POST request. See {@link #httpPostRaw(String, String)}.
+	 * 
+	 * @param extensionName	Nickname of the extension.
+	 * @param message		The JSON to be sent as a String.
+	 * @param httpOptions	Extra headers to be sent with the request. May be null.
+	 * @return				Returns a CompletableFuture promising a String representing the result
+	 * 							of the POST request. Completes exceptionally if the request fails.
+	 */
+	public CompletableFuture<String> httpPostAsync(String extensionName, String message){
+		return httpPostAsync(extensionName, message, null);
+	}
+	public CompletableFuture<String> httpPostAsync(String extensionName, String message, HttpOptions httpOptions){
 		if(connectionHost == null){
 			throw new HostNotValidException();
 		}
-		try{
-			HttpClient client = initializeHttpClient();
-			//Creates  client context, which includes authentication.
-			HttpClientContext context = HttpClientContext.create();
-			if(basicAuthNeeded && basicAuth.isPreemptive()){
-				configurePreemptiveAuth(connectionHost, context);
-			}
-			HttpPost httpPostContext = new HttpPost(uriSchemePrefix 
-					+ connectionHost.getHostName()
-					+ uriExtensions.get(extensionName));
-			StringEntity messageEntity = new StringEntity(message);
-			messageEntity.setContentType("application/json");
-			httpPostContext.setEntity(messageEntity);
-			HttpEntity responseEntity = null;
-			
-			addHttpOptions(httpPostContext, httpOptions);
-				
-			if(basicAuthNeeded && basicAuth.isPreemptive()){
-				try{
-					HttpResponse response = client.execute(httpPostContext, context);
-					responseEntity = response.getEntity();
-				}catch(Exception e){
-					System.out.println("Error in getting POST HttpResponse and its entity"
-							+ " with preemptive authentication.");
-				}
-			}else{
-				try{
-					HttpResponse response = client.execute(httpPostContext);
-					responseEntity = response.getEntity();
-				}catch(Exception e){
-					System.out.println("Error in getting POST HttpResponse and its entity"
-							+ " without preemptive authentication.");
-				}
-			}
-			return new AsyncResult<String>(consolidateResponse(responseEntity));
-		}catch(Exception e){
-			e.printStackTrace();
-			System.out.println("httpPostRaw Failed");
+		RequestBatcher batcher = getBatcher(extensionName, httpOptions);
+		if(batcher != null){
+			return batcher.submit("POST", message);
 		}
-		return null;
+		HttpPost httpPostContext = getTemplate(extensionName).newPost(isPreemptive(), httpOptions);
+		httpPostContext.setEntity(createJsonEntity(message, httpOptions));
+		return execute(httpPostContext, ResponseDecoders.STRING, extensionName, httpOptions);
 	}
 //	public String httpPut(String extensionName, JsonMapObject message){
 //		return httpPutRaw(extensionName, message.asJson());
@@ -401,183 +502,516 @@ public class Connection {
 	/**
 	 * An asynchronous HTTP PUT request that sends a request to the requested resource given
 	 * by the URI extension's nickname. Included with the PUT request is a String that
-	 * reflects a JSON object to be posted. Starts a new thread, please pass this future object
-	 * to a ClientEvent to handle the execution of any object handling after this object is
-	 * returned.
+	 * reflects a JSON object to be posted. Please pass this future object to a ClientEvent to
+	 * handle the execution of any object handling after this object is returned.
 	 * 
 	 * @param extensionName	Nickname of the extension.
 	 * @param message		The JSON to be sent as a String.
 	 * @return				Returns a Future object promising a String representing the result of
 	 * 							the PUT request.
 	 */
-	@Async
 	public Future<String> httpPutRaw(String extensionName, String message){
 		return httpPutRaw(extensionName, message, null);
 	}
-	@Async
 	public Future<String> httpPutRaw(String extensionName, String message, HttpOptions httpOptions){
+		return httpPutAsync(extensionName, message, httpOptions);
+	}
+	
+	/**
+	 * A non-blocking HTTP PUT request. See {@link #httpPutRaw(String, String)}.
+	 * 
+	 * @param extensionName	Nickname of the extension.
+	 * @param message		The JSON to be sent as a String.
+	 * @param httpOptions	Extra headers to be sent with the request. May be null.
+	 * @return				Returns a CompletableFuture promising a String representing the result
+	 * 							of the PUT request. Completes exceptionally if the request fails.
+	 */
+	public CompletableFuture<String> httpPutAsync(String extensionName, String message){
+		return httpPutAsync(extensionName, message, null);
+	}
+	public CompletableFuture<String> httpPutAsync(String extensionName, String message, HttpOptions httpOptions){
 		if(connectionHost == null){
 			throw new HostNotValidException();
 		}
-		try{
-			HttpClient client = initializeHttpClient();
-			//Creates  client context, which includes authentication.
-			HttpClientContext context = HttpClientContext.create();
-			if(basicAuthNeeded && basicAuth.isPreemptive()){
-				configurePreemptiveAuth(connectionHost, context);
-			}
-			HttpPut httpPutContext = new HttpPut(uriSchemePrefix 
-					+ connectionHost.getHostName()
-					+ uriExtensions.get(extensionName));
-			StringEntity messageEntity = new StringEntity(message);
-			messageEntity.setContentType("application/json");
-			httpPutContext.setEntity(messageEntity);
-			HttpEntity responseEntity = null;
-			
-				addHttpOptions(httpPutContext, httpOptions);
-			
-			if(basicAuthNeeded && basicAuth.isPreemptive()){
-				try{
-					HttpResponse response = client.execute(httpPutContext, context);
-					responseEntity = response.getEntity();
-				}catch(Exception e){
-					System.out.println("Error in getting PUT HttpResponse and its entity"
-							+ " with preemptive authentication.");
-				}
-			}else{
-				try{
-					HttpResponse response = client.execute(httpPutContext);
-					responseEntity = response.getEntity();
-				}catch(Exception e){
-					System.out.println("Error in getting PUT HttpResponse and its entity"
-							+ " without preemptive authentication.");
-				}
-			}
-			return new AsyncResult<String>(consolidateResponse(responseEntity));
-		}catch(Exception e){
-			e.printStackTrace();
-			System.out.println("httpPutRaw Failed");
-
+		RequestBatcher batcher = getBatcher(extensionName, httpOptions);
+		if(batcher != null){
+			return batcher.submit("PUT", message);
 		}
-		return null;
+		HttpPut httpPutContext = getTemplate(extensionName).newPut(isPreemptive(), httpOptions);
+		httpPutContext.setEntity(createJsonEntity(message, httpOptions));
+		return execute(httpPutContext, ResponseDecoders.STRING, extensionName, httpOptions);
 	}
 	
 	/**
 	 * An asynchronous HTTP DELETE request that sends a request to the requested resource given
-	 * by the URI extension's nickname. Starts a new thread, please pass this future object
-	 * to a ClientEvent to handle the execution of any object handling after this object is
-	 * returned.
+	 * by the URI extension's nickname. Please pass this future object to a ClientEvent to 
+	 * handle the execution of any object handling after this object is returned.
 	 * 
 	 * @param extensionName	Nickname of the extension.
 	 * @return				Returns a Future object promising a String representing the result of
 	 * 							the DELETE request.
 	 */
-	@Async
 	public Future<String> httpDelete(String extensionName){
 		return httpDelete(extensionName, null);
 	}
-	@Async
 	public Future<String> httpDelete(String extensionName, HttpOptions httpOptions){
+		return httpDeleteAsync(extensionName, httpOptions);
+	}
+	
+	/**
+	 * A non-blocking HTTP DELETE request. See {@link #httpDelete(String)}.
+	 * 
+	 * @param extensionName	Nickname of the extension.
+	 * @param httpOptions	Extra headers to be sent with the request. May be null.
+	 * @return				Returns a CompletableFuture promising a String representing the result
+	 * 							of the DELETE request. Completes exceptionally if the request fails.
+	 */
+	public CompletableFuture<String> httpDeleteAsync(String extensionName){
+		return httpDeleteAsync(extensionName, null);
+	}
+	public CompletableFuture<String> httpDeleteAsync(String extensionName, HttpOptions httpOptions){
 		if(connectionHost == null){
 			throw new HostNotValidException();
 		}
-		try{
-			HttpClient client = initializeHttpClient();
-			//Creates  client context, which includes authentication.
-			HttpClientContext context = HttpClientContext.create();
-			if(basicAuthNeeded && basicAuth.isPreemptive()){
-				configurePreemptiveAuth(connectionHost, context);
+		RequestBatcher batcher = getBatcher(extensionName, httpOptions);
+		if(batcher != null){
+			return batcher.submit("DELETE", null);
+		}
+		HttpDelete httpDeleteContext = getTemplate(extensionName).newDelete(isPreemptive(), httpOptions);
+		return execute(httpDeleteContext, ResponseDecoders.STRING, extensionName, httpOptions);
+	}
+	
+	/**
+	 * Coalesces the calls made to the given extension into batch requests. Calls made within
+	 * the window of the options are sent together as one POST whose body is a JSON array
+	 * envelope, and the results are handed back to the future of each call. The extension must
+	 * be served by a JsonListenerServlet. Calls made with HttpOptions are never batched, since
+	 * their headers cannot be carried by the envelope.
+	 * 
+	 * @param extensionName	Nickname of the extension.
+	 * @param options		When batches are sent.
+	 */
+	public void enableBatching(String extensionName, BatchOptions options){
+		batchers.put(extensionName, new RequestBatcher(this, extensionName, options));
+	}
+	public void disableBatching(String extensionName){
+		batchers.remove(extensionName);
+	}
+	
+	/**
+	 * Opens a push subscription to a URI extension served by a {@link server.PushServlet}: one
+	 * long-lived stream carrying every message the server publishes, reopened and resumed from
+	 * the last message read if it is lost. The subscription uses a socket of its own.
+	 * 
+	 * @param extensionName	Nickname of the extension.
+	 * @param listener		Receives the messages.
+	 * @return				The subscription, to be closed when no longer needed.
+	 */
+	public PushSubscription subscribe(String extensionName, PushListener listener){
+		return subscribe(extensionName, listener, new PushOptions());
+	}
+	public PushSubscription subscribe(String extensionName, PushListener listener, PushOptions options){
+		PushSubscription subscription = new PushSubscription(this, extensionName, listener, options);
+		subscription.start();
+		return subscription;
+	}
+	
+	private RequestBatcher getBatcher(String extensionName, HttpOptions httpOptions){
+		if(httpOptions != null || batchers.isEmpty()){
+			return null;
+		}
+		return batchers.get(extensionName);
+	}
+	
+	/**
+	 * Hands the request to this connection's engine, under the retry policy of the call's
+	 * HttpOptions or, failing that, of this connection. Failures are reported here and passed
+	 * on to the caller through the returned future.
+	 * 
+	 * @param request		The request to be sent.
+	 * @param decoder		Turns the response into the result of the returned future.
+	 * @param extensionName	Nickname of the extension the request is sent to.
+	 * @param httpOptions	Options of the call. May be null.
+	 * @return				The future of the decoded response.
+	 */
+	private <T> CompletableFuture<T> execute(final HttpRequestBase request, ResponseDecoder<T> decoder,
+			String extensionName, HttpOptions httpOptions){
+		RetryPolicy policy = httpOptions != null && httpOptions.getRetryPolicy() != null 
+				? httpOptions.getRetryPolicy() : retryPolicy;
+		final String requestKey = httpOptions == null ? null : httpOptions.getRequestKey();
+		final RequestMetrics requestMetrics = metrics.get(extensionName, request.getMethod());
+		final int priority = httpOptions == null ? 0 : httpOptions.getPriority();
+		final long deadlineMS = httpOptions == null ? -1 : httpOptions.getDeadlineMS();
+		CompletableFuture<T> result;
+		if(policy == null){
+			result = dispatch(request, decoder, requestKey, requestMetrics, priority, deadlineMS);
+		}else{
+			LatencyWindow latencies = policy.isHedging() ? getLatencyWindow(extensionName) : null;
+			result = new RetryingRequest<T>((r, d) -> dispatch(r, d, requestKey, requestMetrics, priority, deadlineMS), 
+					request, decoder, policy, latencies).start();
+		}
+		result.whenComplete((r, e) -> {
+			if(e != null && !result.isCancelled()){
+				System.out.println("Error in getting " + request.getMethod() + " HttpResponse: " + e);
+			}
+		});
+		return result;
+	}
+	
+	/**
+	 * Sends one copy of a request once the limiter of this connection, if any, lets it through.
+	 * A copy whose deadline has passed is dropped without taking a socket.
+	 */
+	private <T> CompletableFuture<T> dispatch(final HttpRequestBase request, final ResponseDecoder<T> decoder,
+			final String requestKey, final RequestMetrics requestMetrics, int priority, long deadlineMS){
+		if(deadlineMS >= 0 && System.currentTimeMillis() >= deadlineMS){
+			DeadlineExceededException e = new DeadlineExceededException("Request deadline passed before it was sent.");
+			requestMetrics.onRejected(e);
+			CompletableFuture<T> failed = new CompletableFuture<T>();
+			failed.completeExceptionally(e);
+			return failed;
+		}
+		final RequestLimiter l = limiter;
+		if(l == null){
+			return send(request, decoder, requestKey, requestMetrics, null);
+		}
+		final CompletableFuture<Void> permit = l.acquire(priority, deadlineMS);
+		if(permit.isDone() && !permit.isCompletedExceptionally()){
+			return send(request, decoder, requestKey, requestMetrics, l);
+		}
+		final CompletableFuture<T> result = new CompletableFuture<T>();
+		permit.whenComplete((v, e) -> {
+			if(e != null){
+				requestMetrics.onRejected(e);
+				result.completeExceptionally(e);
+				return;
+			}
+			if(result.isDone()){
+				l.release(-1, false);
+				return;
 			}
-			HttpDelete httpDeleteContext = new HttpDelete(uriSchemePrefix 
-					+ connectionHost.getHostName()
-					+ uriExtensions.get(extensionName));
-			HttpEntity responseEntity = null;
-			
-			addHttpOptions(httpDeleteContext, httpOptions);
-			
-			if(basicAuthNeeded && basicAuth.isPreemptive()){
-				try{
-					HttpResponse response = client.execute(httpDeleteContext, context);
-					responseEntity = response.getEntity();
-				}catch(Exception e){
-					System.out.println("Error in getting DELETE HttpResponse and its entity"
-							+ " with preemptive authentication.");
+			final CompletableFuture<T> sent = send(request, decoder, requestKey, requestMetrics, l);
+			sent.whenComplete((r, e2) -> {
+				if(e2 != null){
+					result.completeExceptionally(e2);
+				}else{
+					result.complete(r);
 				}
-			}else{
-				try{
-					HttpResponse response = client.execute(httpDeleteContext);
-					responseEntity = response.getEntity();
-				}catch(Exception e){
-					System.out.println("Error in getting DELETE HttpResponse and its entity"
-							+ " without preemptive authentication.");
+			});
+			result.whenComplete((r, e2) -> {
+				if(result.isCancelled()){
+					sent.cancel(true);
 				}
+			});
+		});
+		result.whenComplete((r, e) -> {
+			if(result.isCancelled()){
+				permit.cancel(false);
 			}
-			return new AsyncResult<String>(consolidateResponse(responseEntity));
-		}catch(Exception e){
-			e.printStackTrace();
-			System.out.println("httpDeleteRaw Failed");
-		}
-		return new AsyncResult<String>("");
+		});
+		return result;
 	}
 	
 	/**
-	 * @param responseEntity The entity that holds all of the information that will be included in the
-	 * server's response.
-	 * @return 
+	 * Sends one copy of a request to the host chosen by {@link #selectHost(String)}, records it
+	 * in the metrics and reports its outcome to the limiter and to
+	 * {@link #onRequestComplete(HttpHost, long, int, Throwable)}.
 	 */
-	private String consolidateResponse(HttpEntity responseEntity){
+	private <T> CompletableFuture<T> send(HttpRequestBase request, final ResponseDecoder<T> decoder,
+			String requestKey, final RequestMetrics requestMetrics, final RequestLimiter l){
+		final long startNanos = System.nanoTime();
+		HttpEntity requestEntity = request instanceof HttpEntityEnclosingRequest 
+				? ((HttpEntityEnclosingRequest) request).getEntity() : null;
+		requestMetrics.onSend(requestEntity == null ? 0 : requestEntity.getContentLength());
+		final HttpHost target;
 		try{
-			String lineHolder = "";
-			BufferedReader br = new BufferedReader(new InputStreamReader(responseEntity.getContent()));
-			StringBuilder stringBuilder = new StringBuilder();
-			while(br.ready() && !(lineHolder = br.readLine()).equals(null)){
-		        stringBuilder.append(lineHolder);
-		    }
-			br.close();
-			return stringBuilder.toString();
-		}catch(Exception e){
-			e.printStackTrace();
-		}
-		return null;
-	}
-	private HttpClient initializeHttpClient(){
-		//Creates credentials provider if credentials are needed 
-		//and the mini-client that will create the single-use connection
-		//to an address
-		BasicCredentialsProvider credentialsProvider = null;
-		if(basicAuthNeeded){
-			credentialsProvider = getBasicCredentialsProvider();
-			return HttpClientBuilder.create()
-					.setDefaultCredentialsProvider(credentialsProvider)
-					.build();
-		}else{
-			return HttpClientBuilder.create().build();
+			target = selectHost(requestKey);
+		}catch(NoHostAvailableException e){
+			requestMetrics.onComplete(System.nanoTime() - startNanos, 0, 0, e);
+			if(l != null){
+				l.release(-1, false);
+			}
+			CompletableFuture<T> failed = new CompletableFuture<T>();
+			failed.completeExceptionally(e);
+			return failed;
+		}
+		final Exchange exchange = new Exchange();
+		CompletableFuture<T> result;
+		try{
+			result = getEngine().execute(target, request, HttpClientContext.create(), 
+					(HttpResponse response) -> decoder.decode(exchange.record(response)));
+		}catch(RuntimeException e){
+			requestMetrics.onComplete(System.nanoTime() - startNanos, 0, 0, e);
+			if(l != null){
+				l.release(-1, false);
+			}
+			onRequestComplete(target, System.nanoTime() - startNanos, 0, e);
+			throw e;
+		}
+		result.whenComplete((r, e) -> {
+			long latencyNanos = System.nanoTime() - startNanos;
+			RequestMetrics.ErrorCategory category = 
+					requestMetrics.onComplete(latencyNanos, exchange.getBytes(), exchange.status, e);
+			if(l != null){
+				l.release(category == RequestMetrics.ErrorCategory.CANCELLED ? -1 : latencyNanos, 
+						category == RequestMetrics.ErrorCategory.TIMEOUT 
+						|| exchange.status == 429 || exchange.status == 503);
+			}
+			onRequestComplete(target, latencyNanos, exchange.status, e);
+		});
+		return result;
+	}
+	
+	/**
+	 * The status and the number of body bytes read of the response to one request.
+	 */
+	private static final class Exchange {
+		private volatile int status;
+		private volatile CountingInputStream body;
+		
+		//Notes the status and counts the bytes read from the body as the decoder reads them
+		HttpResponse record(HttpResponse response){
+			status = response.getStatusLine().getStatusCode();
+			HttpEntity entity = response.getEntity();
+			if(entity != null){
+				response.setEntity(new HttpEntityWrapper(entity){
+					@Override
+					public InputStream getContent() throws IOException{
+						CountingInputStream in = body;
+						if(in == null){
+							in = body = new CountingInputStream(super.getContent());
+						}
+						return in;
+					}
+				});
+			}
+			return response;
+		}
+		long getBytes(){
+			CountingInputStream in = body;
+			return in == null ? 0 : in.getCount();
+		}
+	}
+	
+	/**
+	 * Chooses the host a request is sent to. A plain connection always sends to its single host;
+	 * subclasses spreading requests across several hosts override this together with 
+	 * {@link #onRequestComplete(HttpHost, long, int, Throwable)}.
+	 * 
+	 * @param requestKey	The request key set in the call's HttpOptions, or null.
+	 * @return				The host the request is sent to.
+	 */
+	protected HttpHost selectHost(String requestKey){
+		return connectionHost;
+	}
+	
+	/**
+	 * Called once for every request sent to a host chosen by {@link #selectHost(String)}.
+	 * 
+	 * @param host			The host the request was sent to.
+	 * @param latencyNanos	Time from sending the request to decoding its response.
+	 * @param status		The HTTP status of the response, or 0 if none was received.
+	 * @param failure		Why the request failed, or null if its response was decoded.
+	 */
+	protected void onRequestComplete(HttpHost host, long latencyNanos, int status, Throwable failure){
+	}
+	
+	/**
+	 * Sets the retry policy used by the requests of this connection, unless a call sets its own
+	 * through HttpOptions. See {@link RetryPolicy}.
+	 * 
+	 * @param policy	The policy, or null to send each request exactly once.
+	 */
+	public void setRetryPolicy(RetryPolicy policy){
+		retryPolicy = policy;
+	}
+	public RetryPolicy getRetryPolicy(){
+		return retryPolicy;
+	}
+	
+	private LatencyWindow getLatencyWindow(String extensionName){
+		return latencyWindows.computeIfAbsent(extensionName, k -> new LatencyWindow());
+	}
+	
+	//Returns the template of the extension. An unknown extension refers to the root of the host.
+	//The template's URI is relative; the host is passed to the engine separately, so that its
+	//port is kept and the host can be chosen per request.
+	private RequestTemplate getTemplate(String extensionName){
+		RequestTemplate template = templates.get(extensionName);
+		return template != null ? template : new RequestTemplate(null, getPreemptiveAuth());
+	}	
+	//The host-relative paths of every extension, matched against the servlets of LAN servers.
+	List<String> getExtensionPaths(){
+		List<String> paths = new ArrayList<String>();
+		for(RequestTemplate t: templates.values()){
+			paths.add(t.getPath());
 		}
+		return paths;
 	}
-	//Creates and adds authentication to the host and client if preemptive
-	//authentication is required.
-	private void configurePreemptiveAuth(HttpHost host, HttpClientContext context){
-		AuthCache authCache = new BasicAuthCache();
-		BasicScheme basicAuthScheme = new BasicScheme();
-		authCache.put(connectionHost, basicAuthScheme);
-		context.setAuthCache(authCache);
+	//Encodes the message as UTF-8, gzip compressing it if it is above the threshold set by the
+	//call's HttpOptions or, failing that, by this connection's ConnectionOptions.
+	private HttpEntity createJsonEntity(String message, HttpOptions httpOptions){
+		byte[] body = message.getBytes(Consts.UTF_8);
+		int threshold = connectionOptions.getCompressionThresholdBytes();
+		int level = connectionOptions.getCompressionLevel();
+		if(httpOptions != null){
+			if(httpOptions.getCompressionThresholdBytes() != null){
+				threshold = httpOptions.getCompressionThresholdBytes();
+			}
+			if(httpOptions.getCompressionLevel() != null){
+				level = httpOptions.getCompressionLevel();
+			}
+		}
+		if(threshold >= 0 && body.length > threshold){
+			try{
+				ByteArrayEntity messageEntity = new ByteArrayEntity(CompressionFunctions.gzip(body, level));
+				messageEntity.setContentType("application/json");
+				messageEntity.setContentEncoding(CompressionFunctions.GZIP);
+				return messageEntity;
+			}catch(IOException e){
+				e.printStackTrace();
+			}
+		}
+		ByteArrayEntity messageEntity = new ByteArrayEntity(body);
+		messageEntity.setContentType("application/json");
+		return messageEntity;
 	}
 	
-	private BasicCredentialsProvider getBasicCredentialsProvider(){
-		UsernamePasswordCredentials httpGetCreds = 
-				new UsernamePasswordCredentials(basicAuth.getUser(), basicAuth.getPass());
-		BasicCredentialsProvider basicCredsProvider = new BasicCredentialsProvider();
-		basicCredsProvider.setCredentials(AuthScope.ANY, httpGetCreds);
-		return basicCredsProvider;
+	/**
+	 * Returns the engine of this connection, building it and its socket pool on first use.
+	 * The engine is kept until {@link #shutDown()} is called.
+	 * 
+	 * @return	The engine shared by every request made through this connection.
+	 */
+	private RequestEngine getEngine(){
+		RequestEngine e = engine;
+		if(e == null){
+			synchronized(this){
+				if(engine == null){
+					engine = initializeEngine();
+				}
+				e = engine;
+			}
+		}
+		return e;
+	}
+	private RequestEngine initializeEngine(){
+		if(connectionOptions.getEngine() == ConnectionOptions.Engine.NIO){
+			try{
+				return new NioRequestEngine(connectionOptions, credentialsProvider);
+			}catch(IOException e){
+				e.printStackTrace();
+				System.out.println("NIO engine could not be started, using blocking engine.");
+			}
+		}
+		if(connectionOptions.getEngine() == ConnectionOptions.Engine.HTTP2){
+			//Compiled from src/main/java11 only, so it is looked up by name
+			try{
+				return (RequestEngine) Class.forName("client.Http2RequestEngine")
+						.getDeclaredConstructor(ConnectionOptions.class, CredentialsProvider.class)
+						.newInstance(connectionOptions, credentialsProvider);
+			}catch(ReflectiveOperationException | LinkageError e){
+				System.out.println("HTTP/2 engine needs Java 11 or later, using blocking engine.");
+			}
+		}
+		return new BlockingRequestEngine(connectionOptions, credentialsProvider);
 	}
 	
-	private void addHttpOptions(HttpRequestBase httpRequest, HttpOptions httpOptions){
-		if(httpOptions == null){
-			return;
+	/**
+	 * Limits the rate and concurrency of the requests sent by this connection. Every attempt of
+	 * a retried or hedged request counts against the limits. See {@link LimitOptions}.
+	 * 
+	 * @param options	The limits, or null to send requests without limits.
+	 * @return			The limiter, exposing its current limit, queue length and rejections, or
+	 * 						null.
+	 */
+	public RequestLimiter setLimitOptions(LimitOptions options){
+		return limiter = options == null ? null : new RequestLimiter(options);
+	}
+	public RequestLimiter getLimiter(){
+		return limiter;
+	}
+	
+	/**
+	 * @return	The metrics of the requests sent through this connection, by extension and method.
+	 */
+	public ConnectionMetrics getMetrics(){
+		return metrics;
+	}
+	
+	/**
+	 * @return	The metrics of this connection and the state of its socket pool, as JSON.
+	 */
+	public JsonObject getMetricsSnapshot(){
+		JsonObject json = new JsonObject();
+		json.addProperty("host", connectionHost == null ? null : connectionHost.toURI());
+		RequestEngine e = engine;
+		if(e != null){
+			PoolStats stats = e.getPoolStats();
+			JsonObject pool = new JsonObject();
+			pool.addProperty("leased", stats.getLeased());
+			pool.addProperty("available", stats.getAvailable());
+			pool.addProperty("pending", stats.getPending());
+			pool.addProperty("max", stats.getMax());
+			json.add("pool", pool);
+		}
+		json.addProperty("collapsed_gets", collapsedGets.get());
+		RequestLimiter l = limiter;
+		if(l != null){
+			JsonObject limits = new JsonObject();
+			limits.addProperty("limit", l.getLimit());
+			limits.addProperty("in_flight", l.getInFlight());
+			limits.addProperty("queued", l.getQueued());
+			limits.addProperty("rejected", l.getRejected());
+			json.add("limiter", limits);
+		}
+		json.add("extensions", metrics.toJson());
+		return json;
+	}
+	
+	/**
+	 * Closes the engine of this connection and every socket it holds. The next request made
+	 * through this connection builds a new engine.
+	 */
+	public synchronized void shutDown(){
+		if(engine != null){
+			engine.shutDown();
+			engine = null;
+		}
+	}
+	
+	/**
+	 * Sets the options used to build the engine of this connection. If the engine was
+	 * already built, it is closed and rebuilt with the new options on the next request.
+	 * 
+	 * @param options	The engine, pool and timeout settings for this connection.
+	 */
+	public void setConnectionOptions(ConnectionOptions options){
+		connectionOptions = options;
+		shutDown();
+	}
+	public ConnectionOptions getConnectionOptions(){return connectionOptions;}
+	
+	CredentialsProvider getCredentialsProvider(){
+		return credentialsProvider;
+	}
+	
+	private boolean isPreemptive(){
+		return basicAuthNeeded && basicAuth.isPreemptive();
+	}
+	private BasicAuthentication getPreemptiveAuth(){
+		return basicAuthNeeded ? basicAuth : null;
+	}
+	
+	private void updateCredentials(){
+		credentialsProvider.clear();
+		if(basicAuthNeeded){
+			credentialsProvider.setCredentials(AuthScope.ANY, 
+					new UsernamePasswordCredentials(basicAuth.getUser(), basicAuth.getPass()));
 		}
-		for(String k: httpOptions.getHeaders().keySet()){
-			String v = httpOptions.getHeaders().get(k);
-			httpRequest.addHeader(k, v);
+		//Recompiles the templates with the new Authorization header
+		for(Map.Entry<String, RequestTemplate> e: templates.entrySet()){
+			e.setValue(new RequestTemplate(e.getValue().getPath(), getPreemptiveAuth()));
 		}
 	}
-}
+}
\ No newline at end of file
@@ -0,0 +1,83 @@
+/*   
+  	This file is part of JSON Web Framework.
+
+    JSON Web Framework is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    JSON Web Framework is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with JSON Web Framework.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package client;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.gson.JsonObject;
+
+/**
+ * @author Yiqi (Eric) Hou
+ *
+ * <p>
+ * The RequestMetrics of every extension and HTTP method used through a Connection. Looking up
+ * the metrics of a request does not allocate once its extension has been seen.
+ */
+public class ConnectionMetrics {
+	private static final String[] METHODS = {"GET", "POST", "PUT", "DELETE"};
+	
+	private final Map<String, RequestMetrics[]> extensions = new ConcurrentHashMap<String, RequestMetrics[]>();
+	
+	/**
+	 * @param extensionName	Nickname of the extension.
+	 * @param method		The HTTP method.
+	 * @return				The metrics of the requests sent with the method to the extension.
+	 */
+	public RequestMetrics get(String extensionName, String method){
+		RequestMetrics[] byMethod = extensions.get(extensionName);
+		if(byMethod == null){
+			byMethod = extensions.computeIfAbsent(extensionName, k -> {
+				RequestMetrics[] m = new RequestMetrics[METHODS.length];
+				for(int i = 0; i < m.length; i++){
+					m[i] = new RequestMetrics();
+				}
+				return m;
+			});
+		}
+		return byMethod[indexOf(method)];
+	}
+	
+	/**
+	 * @return	The metrics of every extension and method that was used, as
+	 * 				{extension: {method: metrics}}.
+	 */
+	public JsonObject toJson(){
+		JsonObject json = new JsonObject();
+		for(Map.Entry<String, RequestMetrics[]> e: extensions.entrySet()){
+			JsonObject byMethod = new JsonObject();
+			for(int i = 0; i < METHODS.length; i++){
+				if(e.getValue()[i].getRequests() > 0){
+					byMethod.add(METHODS[i], e.getValue()[i].toJson());
+				}
+			}
+			json.add(e.getKey(), byMethod);
+		}
+		return json;
+	}
+	
+	private static int indexOf(String method){
+		switch(method){
+			case "GET": return 0;
+			case "POST": return 1;
+			case "PUT": return 2;
+			default: return 3;
+		}
+	}
+}
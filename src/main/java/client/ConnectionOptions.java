@@ -0,0 +1,205 @@
+/*   
+  	This file is part of JSON Web Framework.
+
+    JSON Web Framework is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    JSON Web Framework is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with JSON Web Framework.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package client;
+
+import java.util.zip.Deflater;
+
+/**
+ * @author Yiqi (Eric) Hou
+ *
+ * <p>
+ * Settings for the long-lived, pooled HTTP client owned by a Connection. The options are read
+ * when the Connection first builds its client, so they should be set before the first request
+ * is made. Setting new options on a Connection that is already in use rebuilds its client.
+ */
+public class ConnectionOptions {
+	
+	/**
+	 * The transport used by a Connection. BLOCKING runs each request on a pooled, blocking
+	 * client from a bounded set of worker threads. NIO runs every request on an event-driven
+	 * client where a few I/O threads carry all requests in flight; it buffers each response
+	 * body in full before decoding it, so very large responses are better fetched with BLOCKING
+	 * or HTTP2, which decode the body as it arrives. HTTP2 multiplexes every
+	 * request to a host over one connection, falling back to HTTP/1.1 for hosts that do not
+	 * support it; it needs Java 11 or later, both to build and to run, and uses BLOCKING otherwise.
+	 */
+	public enum Engine {BLOCKING, NIO, HTTP2}
+	
+	private Engine engine = Engine.BLOCKING;
+	private int ioThreadCount = Runtime.getRuntime().availableProcessors();
+	private int workerThreads = 20;
+	private int maxConnectionsTotal = 200;
+	private int maxConnectionsPerRoute = 20;
+	private long maxIdleTimeMS = 30000;
+	private int validateAfterInactivityMS = 2000;
+	private int connectTimeoutMS = 5000;
+	private int socketTimeoutMS = 30000;
+	private int connectionRequestTimeoutMS = 5000;
+	private int compressionThresholdBytes = -1;
+	private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+
+	public ConnectionOptions(){
+	}
+
+	/**
+	 * @param engine	The transport used for the requests of the Connection.
+	 * @return			Returns current instance of options.
+	 */
+	public ConnectionOptions setEngine(Engine engine){
+		this.engine = engine;
+		return this;
+	}
+	public Engine getEngine(){
+		return engine;
+	}
+	
+	/**
+	 * @param count	Number of I/O reactor threads used by the NIO engine.
+	 * @return		Returns current instance of options.
+	 */
+	public ConnectionOptions setIoThreadCount(int count){
+		ioThreadCount = count;
+		return this;
+	}
+	public int getIoThreadCount(){
+		return ioThreadCount;
+	}
+	
+	/**
+	 * @param threads	Number of worker threads running blocking requests for the BLOCKING
+	 * 						engine, or decoding responses for the NIO engine. Unused by the
+	 * 						BLOCKING and HTTP2 engines when virtual threads are switched on,
+	 * 						see {@link functions.ExecutorFunctions#setVirtualThreads(boolean)}.
+	 * @return			Returns current instance of options.
+	 */
+	public ConnectionOptions setWorkerThreads(int threads){
+		workerThreads = threads;
+		return this;
+	}
+	public int getWorkerThreads(){
+		return workerThreads;
+	}
+
+	/**
+	 * @param max	Maximum number of pooled sockets across every route of the Connection.
+	 * @return		Returns current instance of options.
+	 */
+	public ConnectionOptions setMaxConnectionsTotal(int max){
+		maxConnectionsTotal = max;
+		return this;
+	}
+	public int getMaxConnectionsTotal(){
+		return maxConnectionsTotal;
+	}
+
+	/**
+	 * @param max	Maximum number of pooled sockets to a single host and port.
+	 * @return		Returns current instance of options.
+	 */
+	public ConnectionOptions setMaxConnectionsPerRoute(int max){
+		maxConnectionsPerRoute = max;
+		return this;
+	}
+	public int getMaxConnectionsPerRoute(){
+		return maxConnectionsPerRoute;
+	}
+
+	/**
+	 * @param ms	Time after which an unused pooled socket is closed by the background evictor.
+	 * 					A value of 0 or less disables idle eviction.
+	 * @return		Returns current instance of options.
+	 */
+	public ConnectionOptions setMaxIdleTimeMS(long ms){
+		maxIdleTimeMS = ms;
+		return this;
+	}
+	public long getMaxIdleTimeMS(){
+		return maxIdleTimeMS;
+	}
+
+	/**
+	 * @param ms	Time a pooled socket may sit unused before it is checked for staleness when it
+	 * 					is next leased. Applies to the BLOCKING engine only; NIO relies on the
+	 * 					idle eviction of {@link #setMaxIdleTimeMS(long)}.
+	 * @return		Returns current instance of options.
+	 */
+	public ConnectionOptions setValidateAfterInactivityMS(int ms){
+		validateAfterInactivityMS = ms;
+		return this;
+	}
+	public int getValidateAfterInactivityMS(){
+		return validateAfterInactivityMS;
+	}
+
+	public ConnectionOptions setConnectTimeoutMS(int ms){
+		connectTimeoutMS = ms;
+		return this;
+	}
+	public int getConnectTimeoutMS(){
+		return connectTimeoutMS;
+	}
+
+	public ConnectionOptions setSocketTimeoutMS(int ms){
+		socketTimeoutMS = ms;
+		return this;
+	}
+	public int getSocketTimeoutMS(){
+		return socketTimeoutMS;
+	}
+
+	/**
+	 * @param ms	Time to wait for a free socket from the pool before the request fails.
+	 * @return		Returns current instance of options.
+	 */
+	public ConnectionOptions setConnectionRequestTimeoutMS(int ms){
+		connectionRequestTimeoutMS = ms;
+		return this;
+	}
+	public int getConnectionRequestTimeoutMS(){
+		return connectionRequestTimeoutMS;
+	}
+
+	/**
+	 * Request bodies larger than the threshold are sent gzip compressed. Compression is off by
+	 * default, since the host must be able to inflate request bodies; JsonListenerServlet can.
+	 * Responses are always requested with Accept-Encoding and inflated transparently.
+	 * 
+	 * @param bytes	Size above which request bodies are compressed, or -1 to never compress them.
+	 * @return		Returns current instance of options.
+	 */
+	public ConnectionOptions setCompressionThresholdBytes(int bytes){
+		compressionThresholdBytes = bytes;
+		return this;
+	}
+	public int getCompressionThresholdBytes(){
+		return compressionThresholdBytes;
+	}
+
+	/**
+	 * @param level	Deflater compression level of request bodies, from 0 to 9, or -1 for the
+	 * 					default level.
+	 * @return		Returns current instance of options.
+	 */
+	public ConnectionOptions setCompressionLevel(int level){
+		compressionLevel = level;
+		return this;
+	}
+	public int getCompressionLevel(){
+		return compressionLevel;
+	}
+}
@@ -0,0 +1,62 @@
+/*   
+  	This file is part of JSON Web Framework.
+
+    JSON Web Framework is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    JSON Web Framework is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with JSON Web Framework.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package client;
+
+import java.util.List;
+
+/**
+ * @author Yiqi (Eric) Hou
+ *
+ * <p>
+ * Sends all requests with the same request key to the same host, using rendezvous (highest
+ * random weight) hashing: only the keys of a host that is ejected or removed move elsewhere,
+ * and they move back once it returns. Requests without a key fall back to the given strategy.
+ */
+public class ConsistentHashStrategy implements HostSelectionStrategy {
+	private final HostSelectionStrategy fallback;
+	
+	public ConsistentHashStrategy(){
+		this(new PowerOfTwoChoicesStrategy());
+	}
+	
+	/**
+	 * @param fallback	Strategy used for requests without a request key.
+	 */
+	public ConsistentHashStrategy(HostSelectionStrategy fallback){
+		this.fallback = fallback;
+	}
+	
+	@Override
+	public HostState select(List<HostState> candidates, String requestKey){
+		if(requestKey == null){
+			return fallback.select(candidates, requestKey);
+		}
+		long keyHash = HostState.mix(requestKey.hashCode());
+		HostState best = null;
+		long bestWeight = 0;
+		for(HostState h: candidates){
+			long weight = HostState.mix(keyHash ^ h.getHostHash());
+			if(best == null || Long.compareUnsigned(weight, bestWeight) > 0){
+				best = h;
+				bestWeight = weight;
+			}
+		}
+		return best;
+	}
+}
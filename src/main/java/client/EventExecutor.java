@@ -0,0 +1,317 @@
+/*   
+  	This file is part of JSON Web Framework.
+
+    JSON Web Framework is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    JSON Web Framework is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with JSON Web Framework.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package client;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.gson.JsonObject;
+
+import functions.ExecutorFunctions;
+import structures.ClientEvent;
+
+/**
+ * @author Yiqi (Eric) Hou
+ *
+ * <p>
+ * Runs the ClientEvents of a JsonClient once their initiating future completes, see 
+ * {@link JsonClient#setEventExecutor(EventExecutor)}. Counts the events waiting for a thread,
+ * the events run and the events rejected; a rejected event is aborted. Under EDF, an event 
+ * whose deadline passed while it waited for a thread is timed out instead of run, and counted
+ * as expired.
+ */
+public class EventExecutor {
+	
+	/**
+	 * How events are run. BOUNDED runs them on a fixed number of threads, queueing a bounded
+	 * number of events and rejecting the rest. CALLER_RUNS runs each event on the thread that
+	 * completed its future, which is an I/O or worker thread of the Connection, so actions 
+	 * should be short. VIRTUAL starts a virtual thread per event, on Java 21 or later. EDF runs
+	 * them on a fixed number of threads, the waiting event with the earliest deadline first,
+	 * see {@link structures.ClientEvent#getDeadlineMS()}.
+	 */
+	public enum Mode {BOUNDED, CALLER_RUNS, VIRTUAL, EDF}
+	
+	/**
+	 * Decides, as a thread picks an event up, whether the event still runs.
+	 */
+	interface Admission {
+		/**
+		 * @param e				The event.
+		 * @param waitedNanos	Time the event waited for a thread, 0 under CALLER_RUNS.
+		 * @return				Whether the event runs; it is aborted otherwise.
+		 */
+		boolean admit(ClientEvent e, long waitedNanos);
+	}
+	
+	private final Mode mode;
+	private final ExecutorService executor;
+	private final int queueCapacity;
+	private final long priorityWeightMS;
+	private final AtomicLong sequence = new AtomicLong();
+	private final AtomicInteger queued = new AtomicInteger();
+	private final AtomicInteger peakQueued = new AtomicInteger();
+	private final LongAdder executed = new LongAdder();
+	private final LongAdder rejected = new LongAdder();
+	private final LongAdder expired = new LongAdder();
+	
+	private EventExecutor(Mode mode, ExecutorService executor){
+		this(mode, executor, Integer.MAX_VALUE, 0);
+	}
+	private EventExecutor(Mode mode, ExecutorService executor, int queueCapacity, long priorityWeightMS){
+		this.mode = mode;
+		this.executor = executor;
+		this.queueCapacity = queueCapacity;
+		this.priorityWeightMS = priorityWeightMS;
+	}
+	
+	/**
+	 * @return	The executor of a new JsonClient: a virtual thread per event if virtual threads
+	 * 			are switched on, and a bounded pool of 20 threads queueing up to 10000 events
+	 * 			otherwise.
+	 */
+	public static EventExecutor createDefault(){
+		return ExecutorFunctions.isVirtualThreads() ? virtual() : bounded(20, 10000);
+	}
+	
+	/**
+	 * @param threads			Maximum number of threads running events.
+	 * @param queueCapacity		Maximum number of events waiting for a thread. Events past it are
+	 * 							aborted.
+	 * @return					An executor running events on a bounded pool.
+	 */
+	public static EventExecutor bounded(int threads, int queueCapacity){
+		return new EventExecutor(Mode.BOUNDED, 
+				ExecutorFunctions.newBoundedPool("client-event", threads, queueCapacity), queueCapacity, 0);
+	}
+	
+	/**
+	 * @param threads			Maximum number of threads running events.
+	 * @param queueCapacity		Maximum number of events waiting for a thread. Events past it are
+	 * 							aborted.
+	 * @param priorityWeightMS	How much earlier each priority level makes an event's deadline
+	 * 							in the queue; 0 orders by deadline alone.
+	 * @return					An executor running the waiting event with the earliest deadline
+	 * 							first.
+	 */
+	public static EventExecutor edf(int threads, int queueCapacity, long priorityWeightMS){
+		return new EventExecutor(Mode.EDF, ExecutorFunctions.newPriorityPool("client-event", threads), 
+				queueCapacity, priorityWeightMS);
+	}
+	
+	/**
+	 * @return	An executor running each event on the thread completing its future.
+	 */
+	public static EventExecutor callerRuns(){
+		return new EventExecutor(Mode.CALLER_RUNS, null);
+	}
+	
+	/**
+	 * Falls back to a bounded pool of 20 threads when the JVM has no virtual threads.
+	 * 
+	 * @return	An executor starting a virtual thread per event.
+	 */
+	public static EventExecutor virtual(){
+		ExecutorService virtualThreads = ExecutorFunctions.newVirtualThreadExecutor("client-event");
+		if(virtualThreads == null){
+			System.out.println("Virtual threads are not supported by this JVM, using a bounded pool.");
+			return bounded(20, 10000);
+		}
+		return new EventExecutor(Mode.VIRTUAL, virtualThreads);
+	}
+	
+	/**
+	 * Creates the executor of one shard of a sharded JsonClient, running events on a single
+	 * thread of its own, one at a time and in the order they are handed over. Under EDF the 
+	 * thread takes the earliest deadline first; every other mode becomes BOUNDED, queueing as
+	 * many events as this executor, or 10000.
+	 * 
+	 * @param namePrefix	Prefix of the name of the thread.
+	 * @return				The executor.
+	 */
+	EventExecutor serial(String namePrefix){
+		if(mode == Mode.EDF){
+			return new EventExecutor(Mode.EDF, ExecutorFunctions.newPriorityPool(namePrefix, 1), 
+					queueCapacity, priorityWeightMS);
+		}
+		int capacity = mode == Mode.BOUNDED ? queueCapacity : 10000;
+		return new EventExecutor(Mode.BOUNDED, ExecutorFunctions.newBoundedPool(namePrefix, 1, capacity), 
+				capacity, 0);
+	}
+	
+	public Mode getMode(){
+		return mode;
+	}
+	
+	/**
+	 * Runs the event, or aborts it if the executor rejects it.
+	 * 
+	 * @param e	The event.
+	 */
+	public void execute(ClientEvent e){
+		execute(e, null);
+	}
+	
+	/**
+	 * Runs the event once admitted, or aborts it if the executor rejects it.
+	 * 
+	 * @param e			The event.
+	 * @param admission	Consulted as a thread picks the event up, or null to always run it.
+	 */
+	void execute(final ClientEvent e, final Admission admission){
+		final long queuedNanos = System.nanoTime();
+		if(executor == null){
+			start(e, admission, queuedNanos);
+			return;
+		}
+		int depth = queued.incrementAndGet();
+		int peak;
+		while(depth > (peak = peakQueued.get()) && !peakQueued.compareAndSet(peak, depth));
+		try{
+			if(mode == Mode.EDF){
+				if(depth > queueCapacity){
+					throw new RejectedExecutionException();
+				}
+				executor.execute(new DeadlineTask(e, admission, queuedNanos,
+						e.getDeadlineMS() - e.getEventPriority() * priorityWeightMS, sequence.getAndIncrement()));
+			}else{
+				executor.execute(() -> {
+					queued.decrementAndGet();
+					start(e, admission, queuedNanos);
+				});
+			}
+		}catch(RejectedExecutionException e1){
+			queued.decrementAndGet();
+			rejected.increment();
+			abort(e);
+		}
+	}
+	
+	private void start(ClientEvent e, Admission admission, long queuedNanos){
+		if(admission != null && !admission.admit(e, System.nanoTime() - queuedNanos)){
+			abort(e);
+			return;
+		}
+		run(e);
+	}
+	
+	private void abort(ClientEvent e){
+		try{
+			e.abortedExecute();
+		}catch(Exception e1){
+			e1.printStackTrace();
+		}
+	}
+	
+	private void run(ClientEvent e){
+		try{
+			e.run();
+		}catch(Exception e1){
+			e1.printStackTrace();
+		}
+		executed.increment();
+	}
+	
+	/**
+	 * @return	Number of events waiting for a thread.
+	 */
+	public int getQueueDepth(){
+		return queued.get();
+	}
+	public int getPeakQueueDepth(){
+		return peakQueued.get();
+	}
+	public long getExecutedCount(){
+		return executed.sum();
+	}
+	public long getRejectedCount(){
+		return rejected.sum();
+	}
+	
+	/**
+	 * @return	Number of events timed out under EDF because their deadline passed while they
+	 * 			waited for a thread.
+	 */
+	public long getExpiredCount(){
+		return expired.sum();
+	}
+	
+	public JsonObject toJson(){
+		JsonObject json = new JsonObject();
+		json.addProperty("mode", mode.name());
+		json.addProperty("queue_depth", getQueueDepth());
+		json.addProperty("peak_queue_depth", getPeakQueueDepth());
+		json.addProperty("executed", getExecutedCount());
+		json.addProperty("rejected", getRejectedCount());
+		if(mode == Mode.EDF){
+			json.addProperty("expired", getExpiredCount());
+		}
+		return json;
+	}
+	
+	//An event waiting in the EDF queue, ordered by weighted deadline and then by arrival
+	private final class DeadlineTask implements Runnable, Comparable<DeadlineTask>{
+		final ClientEvent event;
+		final Admission admission;
+		final long queuedNanos;
+		final long keyMS;
+		final long sequence;
+		
+		DeadlineTask(ClientEvent event, Admission admission, long queuedNanos, long keyMS, long sequence){
+			this.event = event;
+			this.admission = admission;
+			this.queuedNanos = queuedNanos;
+			this.keyMS = keyMS;
+			this.sequence = sequence;
+		}
+		@Override
+		public void run(){
+			queued.decrementAndGet();
+			if(System.currentTimeMillis() > event.getDeadlineMS()){
+				expired.increment();
+				try{
+					event.timedOutExcecute();
+				}catch(Exception e1){
+					e1.printStackTrace();
+				}
+				return;
+			}
+			start(event, admission, queuedNanos);
+		}
+		@Override
+		public int compareTo(DeadlineTask o){
+			if(keyMS != o.keyMS){
+				return keyMS < o.keyMS ? -1 : 1;
+			}
+			return Long.compare(sequence, o.sequence);
+		}
+	}
+	
+	/**
+	 * Stops accepting events. Events already queued still run.
+	 */
+	public void shutDown(){
+		if(executor != null){
+			executor.shutdown();
+		}
+	}
+}
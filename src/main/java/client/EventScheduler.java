@@ -0,0 +1,443 @@
+/*   
+  	This file is part of JSON Web Framework.
+
+    JSON Web Framework is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    JSON Web Framework is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with JSON Web Framework.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package client;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import com.google.gson.JsonObject;
+
+import structures.ClientEvent;
+
+/**
+ * @author Yiqi (Eric) Hou
+ *
+ * <p>
+ * Dispatches the ClientEvents of a JsonClient. An event whose initiating future is a
+ * CompletableFuture, as returned by every Connection request, is handed to the EventExecutor
+ * by the completion callback of the future itself, with no scan and no wait, and its timeout
+ * is cancelled. The scheduler thread only handles timeouts, held in a {@link TimingWheel}, and
+ * events initiated by other futures, which it polls; it parks until the next occupied slot of
+ * the wheel, and indefinitely when there is nothing to watch.
+ * 
+ * <p>
+ * Each event is handled once: started, aborted by the overload policy, or timed out. Held
+ * events are kept in a concurrent skip list ordered by a stable key, priority and then 
+ * arrival, so producers add events without taking a lock. The policies shedding the oldest
+ * event also index held events by arrival alone. See {@link OverloadOptions} for what happens
+ * past the limit.
+ */
+class EventScheduler {
+	private static final long POLL_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+	private static final long AWAKE = -1;
+	
+	private final ConcurrentSkipListSet<Held> pending = new ConcurrentSkipListSet<Held>();
+	private final ConcurrentSkipListSet<Held> arrivals = new ConcurrentSkipListSet<Held>(
+			(a, b) -> Long.compare(a.sequence, b.sequence));
+	private final AtomicInteger pendingCount = new AtomicInteger();
+	private final AtomicLong sequence = new AtomicLong();
+	private volatile TimingWheel<Held> timeouts;
+	private final List<Held> polled = new ArrayList<Held>();
+	private volatile int eventLimit;
+	private volatile EventExecutor executor;
+	private volatile OverloadOptions overload = new OverloadOptions();
+	private volatile CoDelController codel;
+	//Producers waiting for room under the BLOCK policy wait on this lock
+	private final Object capacity = new Object();
+	private final AtomicInteger blockedProducers = new AtomicInteger();
+	private final LongAdder shed = new LongAdder();
+	private final LongAdder rejected = new LongAdder();
+	private final LatencyHistogram sojourn = new LatencyHistogram();
+	private final EventExecutor.Admission admission = this::admit;
+	private volatile Thread schedulerThread;
+	private volatile boolean stopped = false;
+	//When the parked scheduler wakes up by itself, in epoch milliseconds, or AWAKE
+	private volatile long nextWakeMS = AWAKE;
+	
+	EventScheduler(int eventLimit, long timeOutResolutionMS, EventExecutor executor){
+		this.eventLimit = eventLimit;
+		this.executor = executor;
+		timeouts = new TimingWheel<Held>(timeOutResolutionMS);
+	}
+	
+	/**
+	 * Changes the tick of the timing wheel. Only possible while no timeout is held.
+	 * 
+	 * @return	Whether the resolution was changed.
+	 */
+	synchronized boolean setTimeOutResolutionMS(long ms){
+		if(timeouts.size() > 0){
+			return false;
+		}
+		timeouts = new TimingWheel<Held>(ms);
+		return true;
+	}
+	
+	void setEventLimit(int limit){
+		eventLimit = limit;
+		signalCapacity();
+	}
+	
+	void setOverloadOptions(OverloadOptions options){
+		codel = options.getPolicy() == OverloadOptions.Policy.CODEL ? 
+				new CoDelController(options.getTargetMS(), options.getIntervalMS()) : null;
+		overload = options;
+		signalCapacity();
+	}
+	OverloadOptions getOverloadOptions(){
+		return overload;
+	}
+	
+	void setExecutor(EventExecutor executor){
+		this.executor = executor;
+	}
+	EventExecutor getExecutor(){
+		return executor;
+	}
+	
+	/**
+	 * @return	The number of events held, waiting for their future to complete.
+	 */
+	int getPendingCount(){
+		return pendingCount.get();
+	}
+	
+	/**
+	 * @return	The number of events aborted to make room, or by the CODEL policy.
+	 */
+	long getShedCount(){
+		return shed.sum();
+	}
+	
+	/**
+	 * @return	The number of new events aborted under the REJECT and BLOCK policies.
+	 */
+	long getRejectedCount(){
+		return rejected.sum();
+	}
+	
+	/**
+	 * @return	The events held, shed and rejected, the time events waited between being added
+	 * 			and being started, and the metrics of the executor.
+	 */
+	JsonObject toJson(){
+		JsonObject json = new JsonObject();
+		json.addProperty("policy", overload.getPolicy().name());
+		json.addProperty("pending", getPendingCount());
+		json.addProperty("blocked_producers", blockedProducers.get());
+		json.addProperty("shed", getShedCount());
+		json.addProperty("rejected", getRejectedCount());
+		JsonObject sojournJson = new JsonObject();
+		sojournJson.addProperty("count", sojourn.getCount());
+		sojournJson.addProperty("mean", sojourn.getMeanMicros() / 1000);
+		sojournJson.addProperty("p50", sojourn.getValueAtPercentile(50) / 1000.0);
+		sojournJson.addProperty("p99", sojourn.getValueAtPercentile(99) / 1000.0);
+		sojournJson.addProperty("max", sojourn.getMaxMicros() / 1000.0);
+		json.add("sojourn_ms", sojournJson);
+		json.add("executor", executor.toJson());
+		return json;
+	}
+	
+	/**
+	 * Adds an event, to be started when its initiating future completes, unless the overload
+	 * policy rejects it.
+	 */
+	void add(ClientEvent e){
+		OverloadOptions options = overload;
+		OverloadOptions.Policy policy = options.getPolicy();
+		boolean reserved = false;
+		if(policy == OverloadOptions.Policy.REJECT || policy == OverloadOptions.Policy.BLOCK){
+			reserved = policy == OverloadOptions.Policy.REJECT ? tryReserve() 
+					: reserveOrWait(options.getBlockTimeoutMS());
+			if(!reserved){
+				rejected.increment();
+				e.markHandled();
+				abort(e);
+				return;
+			}
+		}
+		final Held held = new Held(e, sequence.getAndIncrement());
+		boolean polling = !(e.getInitiatingEvent() instanceof CompletableFuture);
+		held.indexed = policy == OverloadOptions.Policy.SHED_OLDEST || policy == OverloadOptions.Policy.CODEL;
+		pending.add(held);
+		if(held.indexed){
+			arrivals.add(held);
+		}
+		//Scheduled once held, so that an event timing out at once still finds itself to release
+		held.wheel = timeouts;
+		held.timeout = held.wheel.schedule(held, e.getDeadlineMS());
+		if(polling){
+			synchronized(this){
+				polled.add(held);
+			}
+		}
+		if(!reserved && pendingCount.incrementAndGet() > eventLimit){
+			shed(policy);
+		}
+		if(!polling){
+			((CompletableFuture<?>) e.getInitiatingEvent()).whenComplete((r, t) -> start(held));
+		}
+		//Wakes the scheduler if it would sleep past the new deadline, or must start polling
+		long wake = nextWakeMS;
+		if(polling || wake == AWAKE || e.getDeadlineMS() < wake){
+			Thread s = schedulerThread;
+			if(s != null){
+				LockSupport.unpark(s);
+			}
+		}
+	}
+	
+	/**
+	 * Runs the scheduler on the calling thread until {@link #stop()} is called. Returns at once
+	 * if it was already called.
+	 */
+	void run(){
+		schedulerThread = Thread.currentThread();
+		while(!stopped){
+			nextWakeMS = AWAKE;
+			long parkNanos = handleTimeOutsAndPolls();
+			if(stopped){
+				break;
+			}
+			if(parkNanos < 0){
+				nextWakeMS = Long.MAX_VALUE;
+				LockSupport.park(this);
+			}else{
+				nextWakeMS = System.currentTimeMillis() + TimeUnit.NANOSECONDS.toMillis(parkNanos);
+				LockSupport.parkNanos(this, parkNanos);
+			}
+		}
+	}
+	
+	void stop(){
+		stopped = true;
+		Thread s = schedulerThread;
+		if(s != null){
+			LockSupport.unpark(s);
+		}
+	}
+	
+	//Takes a place under the limit for a new event. Returns false if the client is full.
+	private boolean tryReserve(){
+		int count;
+		do{
+			count = pendingCount.get();
+			if(count >= eventLimit){
+				return false;
+			}
+		}while(!pendingCount.compareAndSet(count, count + 1));
+		return true;
+	}
+	
+	private boolean reserveOrWait(long timeoutMS){
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMS);
+		while(!tryReserve()){
+			long remaining = deadline - System.nanoTime();
+			if(remaining <= 0){
+				return false;
+			}
+			synchronized(capacity){
+				blockedProducers.incrementAndGet();
+				try{
+					if(pendingCount.get() >= eventLimit){
+						TimeUnit.NANOSECONDS.timedWait(capacity, remaining);
+					}
+				}catch(InterruptedException e){
+					Thread.currentThread().interrupt();
+					return false;
+				}finally{
+					blockedProducers.decrementAndGet();
+				}
+			}
+		}
+		return true;
+	}
+	
+	private void signalCapacity(){
+		if(blockedProducers.get() > 0){
+			synchronized(capacity){
+				capacity.notifyAll();
+			}
+		}
+	}
+	
+	//Removes a held event from the skip list. Returns false if another outcome removed it first.
+	private boolean release(Held held){
+		if(pending.remove(held)){
+			if(held.indexed){
+				arrivals.remove(held);
+			}
+			pendingCount.decrementAndGet();
+			signalCapacity();
+			return true;
+		}
+		return false;
+	}
+	
+	//Aborts held events until the client is back under its limit: the lowest priority event
+	//under SHED_LOWEST, the oldest under SHED_OLDEST and CODEL.
+	private void shed(OverloadOptions.Policy policy){
+		boolean oldest = policy == OverloadOptions.Policy.SHED_OLDEST || policy == OverloadOptions.Policy.CODEL;
+		while(pendingCount.get() > eventLimit){
+			Held victim = oldest ? arrivals.pollFirst() : pending.pollLast();
+			if(victim == null){
+				if(!oldest){
+					return;
+				}
+				//Events added under another policy are not indexed by arrival
+				oldest = false;
+				continue;
+			}
+			if(oldest){
+				if(!pending.remove(victim)){
+					//Released by another outcome, which gave up its own place
+					continue;
+				}
+			}else if(victim.indexed){
+				arrivals.remove(victim);
+			}
+			pendingCount.decrementAndGet();
+			if(victim.event.markHandled()){
+				cancelTimeout(victim);
+				shed.increment();
+				abort(victim.event);
+			}
+		}
+	}
+	
+	//The timeout of an event shed while it is being added is not scheduled yet; it fires later
+	//and is ignored, since the event is handled.
+	private void cancelTimeout(Held held){
+		TimingWheel.Timeout<Held> t = held.timeout;
+		if(t != null){
+			held.wheel.cancel(t);
+		}
+	}
+	
+	private void abort(ClientEvent e){
+		try{
+			e.abortedExecute();
+		}catch(Exception e1){
+			e1.printStackTrace();
+		}
+	}
+	
+	private void start(Held held){
+		if(!held.event.markHandled()){
+			return;
+		}
+		release(held);
+		cancelTimeout(held);
+		executor.execute(held.event, admission);
+	}
+	
+	//Records how long a started event waited for a thread, and lets the CODEL policy drop it.
+	//The wait is only the time spent in the queue of the executor, not the time of the request.
+	private boolean admit(ClientEvent e, long waitedNanos){
+		sojourn.record(TimeUnit.NANOSECONDS.toMicros(waitedNanos));
+		CoDelController controller = codel;
+		if(controller != null && controller.shouldDrop(waitedNanos, executor.getQueueDepth())){
+			shed.increment();
+			return false;
+		}
+		return true;
+	}
+	
+	//Times out the events past their deadline and starts the polled events whose future is
+	//done. Returns how long to park, or -1 to park until woken.
+	private long handleTimeOutsAndPolls(){
+		TimingWheel<Held> wheel = timeouts;
+		long now = System.currentTimeMillis();
+		List<Held> timedOut = wheel.advance(now);
+		if(timedOut != null){
+			for(Held held: timedOut){
+				if(held.event.markHandled()){
+					release(held);
+					try{
+						held.event.timedOutExcecute();
+					}catch(Exception e1){
+						e1.printStackTrace();
+					}
+				}
+			}
+		}
+		List<Held> done = null;
+		long parkNanos;
+		synchronized(this){
+			Iterator<Held> it = polled.iterator();
+			while(it.hasNext()){
+				Held held = it.next();
+				if(held.event.isHandled()){
+					it.remove();
+				}else if(held.event.getInitiatingEvent().isDone()){
+					it.remove();
+					if(done == null){
+						done = new ArrayList<Held>();
+					}
+					done.add(held);
+				}
+			}
+			long wakeMS = wheel.nextWakeMS();
+			parkNanos = wakeMS < 0 ? -1 : TimeUnit.MILLISECONDS.toNanos(Math.max(1, wakeMS - now));
+			if(!polled.isEmpty() && (parkNanos < 0 || parkNanos > POLL_INTERVAL_NANOS)){
+				parkNanos = POLL_INTERVAL_NANOS;
+			}
+		}
+		if(done != null){
+			for(Held held: done){
+				start(held);
+			}
+		}
+		return parkNanos;
+	}
+	
+	//An event held by the scheduler. Ordered by descending priority, then by descending
+	//arrival, so that the last element is the lowest priority and oldest event. The priority
+	//is read once, so the order cannot change while the event is held.
+	private static final class Held implements Comparable<Held>{
+		final ClientEvent event;
+		final int priority;
+		final long sequence;
+		//Whether the event is also in the arrival index
+		boolean indexed;
+		volatile TimingWheel<Held> wheel;
+		volatile TimingWheel.Timeout<Held> timeout;
+		
+		Held(ClientEvent event, long sequence){
+			this.event = event;
+			this.priority = event.getEventPriority();
+			this.sequence = sequence;
+		}
+		@Override
+		public int compareTo(Held o){
+			if(priority != o.priority){
+				return priority > o.priority ? -1 : 1;
+			}
+			return Long.compare(o.sequence, sequence);
+		}
+	}
+}
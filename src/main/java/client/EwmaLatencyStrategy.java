@@ -0,0 +1,35 @@
+/*   
+  	This file is part of JSON Web Framework.
+
+    JSON Web Framework is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    JSON Web Framework is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with JSON Web Framework.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package client;
+
+/**
+ * @author Yiqi (Eric) Hou
+ *
+ * <p>
+ * Picks two hosts at random and sends the request to the one with the lower expected wait:
+ * its moving average latency multiplied by its requests in flight plus one. Hosts that have
+ * not answered yet cost nothing, so they are tried early.
+ */
+public class EwmaLatencyStrategy extends PowerOfTwoChoicesStrategy {
+	
+	@Override
+	protected double cost(HostState h){
+		return h.getLatencyEwmaNanos() * (h.getInFlight() + 1);
+	}
+}
@@ -0,0 +1,38 @@
+/*   
+  	This file is part of JSON Web Framework.
+
+    JSON Web Framework is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    JSON Web Framework is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with JSON Web Framework.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package client;
+
+import java.util.List;
+
+/**
+ * @author Yiqi (Eric) Hou
+ *
+ * <p>
+ * Chooses the host of each request of a MultiHostConnection. Implementations must be safe
+ * to call from many threads at once.
+ */
+public interface HostSelectionStrategy {
+	
+	/**
+	 * @param candidates	The hosts not ejected by their circuit breaker. Never empty.
+	 * @param requestKey	The request key set in the call's HttpOptions, or null.
+	 * @return				One of the candidates.
+	 */
+	public abstract HostState select(List<HostState> candidates, String requestKey);
+}
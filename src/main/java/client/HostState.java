@@ -0,0 +1,157 @@
+/*   
+  	This file is part of JSON Web Framework.
+
+    JSON Web Framework is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    JSON Web Framework is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with JSON Web Framework.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package client;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.HttpHost;
+
+/**
+ * @author Yiqi (Eric) Hou
+ *
+ * <p>
+ * The state of one host of a MultiHostConnection, as seen by its HostSelectionStrategy: the
+ * number of requests in flight to the host, an exponentially weighted moving average of its
+ * latency, and its circuit breaker.
+ * 
+ * <p>
+ * The circuit breaker ejects the host after a number of consecutive failures (I/O errors or
+ * 5xx answers). Once ejected for the open time, a single probe request is let through; its
+ * success brings the host back, and its failure ejects the host again.
+ */
+public class HostState {
+	private static final double EWMA_DECAY_NANOS = 10e9;
+	
+	private static final int CLOSED = 0;
+	private static final int OPEN = 1;
+	private static final int HALF_OPEN = 2;
+	
+	private final HttpHost host;
+	private final long hostHash;
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final AtomicLong latencyEwmaBits = new AtomicLong(Double.doubleToLongBits(0));
+	private volatile long lastSampleNanos = System.nanoTime();
+	
+	private final AtomicInteger breakerState = new AtomicInteger(CLOSED);
+	private final AtomicInteger consecutiveFailures = new AtomicInteger();
+	private volatile long openedAtMS;
+	private final int failureThreshold;
+	private final long openMS;
+	
+	HostState(HttpHost host, int failureThreshold, long openMS){
+		this.host = host;
+		this.hostHash = mix(host.toURI().hashCode());
+		this.failureThreshold = failureThreshold;
+		this.openMS = openMS;
+	}
+	
+	public HttpHost getHost(){
+		return host;
+	}
+	public int getInFlight(){
+		return inFlight.get();
+	}
+	
+	/**
+	 * @return	The moving average of the host's latency in nanoseconds, or 0 before its first
+	 * 				answer.
+	 */
+	public double getLatencyEwmaNanos(){
+		return Double.longBitsToDouble(latencyEwmaBits.get());
+	}
+	
+	/**
+	 * @return	Whether the circuit breaker currently ejects this host.
+	 */
+	public boolean isEjected(){
+		return breakerState.get() != CLOSED;
+	}
+	
+	/**
+	 * @return	A hash of the host, for strategies hashing requests onto hosts.
+	 */
+	public long getHostHash(){
+		return hostHash;
+	}
+	
+	//Whether the host may be chosen: its breaker is closed, or has been open long enough to
+	//let a probe through.
+	boolean isSelectable(){
+		int state = breakerState.get();
+		return state == CLOSED 
+				|| (state == OPEN && System.currentTimeMillis() - openedAtMS >= openMS);
+	}
+	
+	//Claims the host for a request, turning an expired open breaker into the single probe.
+	boolean tryAcquire(){
+		int state = breakerState.get();
+		if(state == CLOSED){
+			inFlight.incrementAndGet();
+			return true;
+		}
+		if(state == OPEN && System.currentTimeMillis() - openedAtMS >= openMS
+				&& breakerState.compareAndSet(OPEN, HALF_OPEN)){
+			inFlight.incrementAndGet();
+			return true;
+		}
+		return false;
+	}
+	
+	void onComplete(long latencyNanos, boolean success){
+		inFlight.decrementAndGet();
+		if(success){
+			recordLatency(latencyNanos);
+			consecutiveFailures.set(0);
+			breakerState.set(CLOSED);
+		}else if(breakerState.get() == HALF_OPEN
+				|| consecutiveFailures.incrementAndGet() >= failureThreshold){
+			openedAtMS = System.currentTimeMillis();
+			breakerState.set(OPEN);
+			consecutiveFailures.set(0);
+		}
+	}
+	
+	//Ends a request without judging the host, such as a cancelled one. An unanswered probe
+	//leaves the breaker open so that the next request probes again.
+	void release(){
+		inFlight.decrementAndGet();
+		breakerState.compareAndSet(HALF_OPEN, OPEN);
+	}
+	
+	//Time-weighted average: a sample counts for more the longer it has been since the last one.
+	private void recordLatency(long latencyNanos){
+		long now = System.nanoTime();
+		double weight = 1 - Math.exp(-Math.max(0, now - lastSampleNanos) / EWMA_DECAY_NANOS);
+		lastSampleNanos = now;
+		long bits;
+		double next;
+		do{
+			bits = latencyEwmaBits.get();
+			double current = Double.longBitsToDouble(bits);
+			next = current == 0 ? latencyNanos : current + Math.max(weight, 0.05) * (latencyNanos - current);
+		}while(!latencyEwmaBits.compareAndSet(bits, Double.doubleToLongBits(next)));
+	}
+	
+	static long mix(long z){
+		z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+		z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+		return z ^ (z >>> 33);
+	}
+}
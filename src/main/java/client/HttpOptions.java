@@ -17,11 +17,24 @@
 
 package client;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.apache.http.Header;
+import org.apache.http.message.BasicHeader;
+
 public class HttpOptions {
 	private Map<String, String> header = new HashMap<String, String>();
+	private volatile Header[] headerArray;
+	//Once the map is handed out it may change behind our back, so the array is no longer kept
+	private volatile boolean headersExposed = false;
+	private Integer compressionThresholdBytes;
+	private Integer compressionLevel;
+	private RetryPolicy retryPolicy;
+	private String requestKey;
+	private int priority = 0;
+	private long deadlineMS = -1;
 	
 	public HttpOptions(){
 	}
@@ -30,10 +43,130 @@ public class HttpOptions {
 	}
 	public HttpOptions addHeader(String headerIdentifier, String value){
 		header.put(headerIdentifier, value);
+		headerArray = null;
 		return this;
 	}
+	
+	/**
+	 * @return	The headers, which may be changed directly. Options whose headers were handed
+	 * 			out this way rebuild them for every call; use {@link #addHeader(String, String)}
+	 * 			to keep them precompiled.
+	 */
 	public Map<String, String> getHeaders(){
+		headersExposed = true;
+		headerArray = null;
 		return header;
 	}
 	
+	//A read-only view for the library's own use, which keeps the headers precompiled.
+	Map<String, String> headers(){
+		return Collections.unmodifiableMap(header);
+	}
+	
+	//The headers as sent, built once and reused by every call made with these options.
+	Header[] getHeaderArray(){
+		Header[] headers = headerArray;
+		if(headers == null || headersExposed){
+			headers = new Header[header.size()];
+			int i = 0;
+			for(Map.Entry<String, String> e: header.entrySet()){
+				headers[i++] = new BasicHeader(e.getKey(), e.getValue());
+			}
+			headerArray = headers;
+		}
+		return headers;
+	}
+	
+	/**
+	 * Overrides the request compression threshold of the Connection for this call.
+	 * 
+	 * @param bytes	Size above which the request body is gzip compressed, or -1 to never
+	 * 					compress it.
+	 * @return		Returns current instance of options.
+	 */
+	public HttpOptions setCompressionThresholdBytes(int bytes){
+		compressionThresholdBytes = bytes;
+		return this;
+	}
+	public Integer getCompressionThresholdBytes(){
+		return compressionThresholdBytes;
+	}
+	
+	/**
+	 * Overrides the request compression level of the Connection for this call.
+	 * 
+	 * @param level	Deflater compression level, from 0 to 9, or -1 for the default level.
+	 * @return		Returns current instance of options.
+	 */
+	public HttpOptions setCompressionLevel(int level){
+		compressionLevel = level;
+		return this;
+	}
+	public Integer getCompressionLevel(){
+		return compressionLevel;
+	}
+	
+	/**
+	 * Overrides the retry policy of the Connection for this call.
+	 * 
+	 * @param policy	The policy. Use {@link RetryPolicy#noRetries()} to turn retries off.
+	 * @return			Returns current instance of options.
+	 */
+	public HttpOptions setRetryPolicy(RetryPolicy policy){
+		retryPolicy = policy;
+		return this;
+	}
+	public RetryPolicy getRetryPolicy(){
+		return retryPolicy;
+	}
+	
+	/**
+	 * Sets the key of this call, used by a MultiHostConnection with consistent hashing to send
+	 * calls with the same key to the same host.
+	 * 
+	 * @param key	The request key.
+	 * @return		Returns current instance of options.
+	 */
+	public HttpOptions setRequestKey(String key){
+		requestKey = key;
+		return this;
+	}
+	public String getRequestKey(){
+		return requestKey;
+	}
+	
+	/**
+	 * Sets the priority of this call in the queue of a Connection whose limiter holds back
+	 * requests over its limit. Uses the scale of {@link structures.ClientEvent#getEventPriority()}:
+	 * higher priorities are sent first, so a call made for a ClientEvent can pass on the
+	 * event's priority.
+	 * 
+	 * @param priority	The priority, 0 by default.
+	 * @return			Returns current instance of options.
+	 */
+	public HttpOptions setPriority(int priority){
+		this.priority = priority;
+		return this;
+	}
+	public int getPriority(){
+		return priority;
+	}
+	
+	/**
+	 * Sets when this call stops being useful. A call whose deadline has passed is dropped with
+	 * a DeadlineExceededException instead of being sent, including while it waits in the
+	 * queue of a limiter. A call made for a ClientEvent can pass on 
+	 * {@link structures.ClientEvent#getDeadlineMS()}. Under the DEADLINE order of 
+	 * {@link LimitOptions}, earlier deadlines leave the queue first.
+	 * 
+	 * @param epochMS	The deadline, in epoch milliseconds, or -1 for none.
+	 * @return			Returns current instance of options.
+	 */
+	public HttpOptions setDeadlineMS(long epochMS){
+		deadlineMS = epochMS;
+		return this;
+	}
+	public long getDeadlineMS(){
+		return deadlineMS;
+	}
 }
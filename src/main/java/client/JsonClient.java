@@ -16,11 +16,26 @@
 */
 
 package client;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
-import com.google.common.collect.MinMaxPriorityQueue;
+import org.apache.http.HttpHost;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import functions.ExecutorFunctions;
 
 import server.JsonListenerServlet;
 import structures.ClientEvent;
@@ -32,7 +47,11 @@ import structures.ClientEvent;
  * This class represents an HTTP Client that holds multiple possible connections to different
  * hosts, each with possible URI extensions. This client is meant to be a handler for all
  * data transfers that can be represented through JSON representation. 
- *
+ * 
+ * <p>
+ * Events are handled by one event loop, run on the client's thread, or by several shards,
+ * each with its own queue, timeouts, thread and dispatch thread; see 
+ * {@link #setEventLoopShards(int)}.
  */
 public class JsonClient extends Thread{
 	
@@ -41,15 +60,32 @@ public class JsonClient extends Thread{
 	
 	private volatile Map<String, Connection> connections = new HashMap<String, Connection>();
 	
-	private volatile boolean running = false;
-	
-	private MinMaxPriorityQueue<ClientEvent> events = MinMaxPriorityQueue.<ClientEvent>create();
-		
-	private int eventLimit = 20;
+	private volatile int eventLimit = 20;
+	private volatile long timeOutResolutionMS = 10;
+	private volatile OverloadOptions overloadOptions = new OverloadOptions();
+	private volatile EventExecutor eventExecutor = EventExecutor.createDefault();
+	private volatile EventScheduler[] shards = {newShard(1)};
+	//Connections are given to shards in the order they are added, so that they spread evenly
+	private final Map<String, Integer> shardOfName = new ConcurrentHashMap<String, Integer>();
+	private final Map<Connection, Integer> shardOfConnection = new ConcurrentHashMap<Connection, Integer>();
+	private int connectionsAssigned = 0;
+	//Events are added under the read lock and shards replaced under the write lock, so that no
+	//event is added to a shard being replaced
+	private final ReentrantReadWriteLock shardLock = new ReentrantReadWriteLock();
+	private final AtomicInteger unrouted = new AtomicInteger();
+	private final List<PushSubscription> subscriptions = new ArrayList<PushSubscription>();
+	private volatile boolean started = false;
+	private volatile boolean stopped = false;
 	
 	private JsonListenerServlet servlet;
 	
 	private Connection lanConnection;
+	private volatile boolean lanConnectionActive = false;
+	private volatile LanDiscovery lanDiscovery;
+	//Hosts added to each MultiHostConnection by discovery, removed again when they expire
+	private final Map<MultiHostConnection, Set<HttpHost>> lanHosts = new HashMap<MultiHostConnection, Set<HttpHost>>();
+	
+	private ScheduledExecutorService metricsReporter;
 			
 	/**
 	 * Constructor linking this JsonClient to a servlet when applicable.
@@ -74,83 +110,471 @@ public class JsonClient extends Thread{
 	@Override
 	public void run(){
 		/* Starts up the client in an asynchronous fashion (behind the scenes multi-thread).
-		 * Goes through a while loop executing client events, which are triggered when
-		 * a connection is opened that provides a link between the asynchronous HTTP request
-		 * and the action that the client takes once the response is captured.
+		 * Client events are started by the completion of the HTTP request they are tied to;
+		 * this thread handles the timeouts of the first shard and parks while there is nothing
+		 * to do. The other shards run on threads of their own.
 		*/
-		running = true;
-		while(running == true){
-			accessEvents(EXECUTE_EVENTS, this);
+		synchronized(this){
+			started = true;
+			EventScheduler[] current = shards;
+			for(int i = 1; i < current.length; i++){
+				startShard(current[i]);
+			}
+		}
+		//The first shard changes when the client is resharded
+		while(!stopped){
+			shards[0].run();
 		}
 	}
 	public synchronized Connection addConnection(String connectionName, Connection connection){
 		connections.put(connectionName, connection);
+		int shard = connectionsAssigned++;
+		shardOfName.put(connectionName, shard);
+		shardOfConnection.put(connection, shard);
 		return connection;
 	}
 	public synchronized Connection removeConnection(String connectionName){
-		return connections.remove(connectionName);
+		Connection removed = connections.remove(connectionName);
+		shardOfName.remove(connectionName);
+		if(removed != null){
+			shardOfConnection.remove(removed);
+			lanHosts.remove(removed);
+		}
+		return removed;
 	}
 	public synchronized Connection getConnection(String connectionName){
 		return connections.get(connectionName);
 	}
+	
+	/**
+	 * Returns the metrics of every connection held by this client: per extension and HTTP
+	 * method latency percentiles, byte counts, failures by category and requests in flight,
+	 * together with the state of each connection's socket pool. The "events" entry holds the
+	 * queue depth, run and rejected counts of the event executor, the events pending, shed and
+	 * rejected by the overload policy, and the time events waited before being started.
+	 * 
+	 * @return	The metrics as a JSON object keyed by connection name.
+	 */
+	public synchronized String getMetricsSnapshot(){
+		JsonObject json = new JsonObject();
+		for(Map.Entry<String, Connection> e: connections.entrySet()){
+			json.add(e.getKey(), e.getValue().getMetricsSnapshot());
+		}
+		if(lanConnection != null){
+			json.add("lan", lanConnection.getMetricsSnapshot());
+		}
+		EventScheduler[] current = shards;
+		if(current.length == 1){
+			json.add("events", current[0].toJson());
+		}else{
+			JsonArray shardsJson = new JsonArray();
+			for(EventScheduler shard: current){
+				shardsJson.add(shard.toJson());
+			}
+			JsonObject events = new JsonObject();
+			events.add("shards", shardsJson);
+			json.add("events", events);
+		}
+		return json.toString();
+	}
+	
+	/**
+	 * Prints the metrics snapshot of this client at a fixed rate, until 
+	 * {@link #stopMetricsReporter()} or {@link #shutDown()} is called.
+	 * 
+	 * @param periodMS	Time between two reports.
+	 */
+	public synchronized void startMetricsReporter(long periodMS){
+		stopMetricsReporter();
+		metricsReporter = ExecutorFunctions.newScheduler("metrics-reporter");
+		metricsReporter.scheduleAtFixedRate(() -> {
+			try{
+				System.out.println("Connection metrics: " + getMetricsSnapshot());
+			}catch(Exception e){
+				e.printStackTrace();
+			}
+		}, periodMS, periodMS, TimeUnit.MILLISECONDS);
+	}
+	public synchronized void stopMetricsReporter(){
+		if(metricsReporter != null){
+			metricsReporter.shutdownNow();
+			metricsReporter = null;
+		}
+	}
+	
+	/**
+	 * Opens a push subscription through the named connection, closed with this client. See
+	 * {@link Connection#subscribe(String, PushListener, PushOptions)}.
+	 * 
+	 * @param connectionName	Name of the connection.
+	 * @param extensionName		Nickname of the URI extension served by a PushServlet.
+	 * @param listener			Receives the messages.
+	 * @param options			Buffering and reconnection settings.
+	 * @return					The subscription, or null if there is no such connection.
+	 */
+	public synchronized PushSubscription subscribe(String connectionName, String extensionName, 
+			PushListener listener, PushOptions options){
+		Connection c = connections.get(connectionName);
+		if(c == null){
+			return null;
+		}
+		PushSubscription s = c.subscribe(extensionName, listener, options);
+		subscriptions.add(s);
+		return s;
+	}
+	
+	/**
+	 * Stops the event loop, the event executor, the push subscriptions and the metrics reporter,
+	 * and closes the pooled HTTP clients of every connection held by this client.
+	 */
 	public void shutDown(){
-		running = false;
+		stopped = true;
+		synchronized(this){
+			for(EventScheduler shard: shards){
+				shard.stop();
+				shutDownDispatch(shard);
+			}
+			eventExecutor.shutDown();
+			for(PushSubscription s: subscriptions){
+				s.close();
+			}
+			subscriptions.clear();
+			stopMetricsReporter();
+			for(Connection c: connections.values()){
+				c.shutDown();
+			}
+			if(lanDiscovery != null){
+				lanDiscovery.stop();
+			}
+			if(lanConnection != null){
+				lanConnection.shutDown();
+			}
+		}
+	}
+	/**
+	 * Adds an event, started as soon as its initiating future completes. If the client holds
+	 * as many events as its limit, the overload policy decides which event is aborted, the 
+	 * lowest priority one by default; see {@link #setOverloadOptions(OverloadOptions)}. Under
+	 * the BLOCK policy this may wait for room. Timeouts are handled while the client thread
+	 * runs. With several shards, the event goes to the shard of its initiating connection, or
+	 * to each shard in turn when it has none.
+	 * 
+	 * @param e	The event.
+	 */
+	public void addEvent(ClientEvent e){
+		Connection c = e.getInitiatingConnection();
+		addToShard(c == null ? null : shardOfConnection.get(c), e);
 	}
-	private synchronized void accessEvents(int methodID, Object... o){
-		if(methodID == ADD_EVENT){
-			events.add((ClientEvent) o[0]);
-		}else if(methodID == EXECUTE_EVENTS){
-			executeEvents();
+	
+	/**
+	 * Adds an event made for a request of the named connection. Every event of one connection
+	 * goes to the same shard, so they are ordered by the same queue and run in order on the
+	 * same dispatch thread.
+	 * 
+	 * @param connectionName	Name of the connection the event's request was made with.
+	 * @param e					The event.
+	 */
+	public void addEvent(String connectionName, ClientEvent e){
+		addToShard(shardOfName.get(connectionName), e);
+	}
+	
+	private void addToShard(Integer assigned, ClientEvent e){
+		Lock lock = shardLock.readLock();
+		lock.lock();
+		try{
+			shardFor(assigned).add(e);
+		}finally{
+			lock.unlock();
 		}
 	}
-	private void executeEvents(){
-		if(events.size() > eventLimit)
-			try {
-				events.removeLast().abortedExecute();
-			} catch (Exception e1) {
-				// TODO Auto-generated catch block
-				e1.printStackTrace();
+	
+	private EventScheduler shardFor(Integer assigned){
+		EventScheduler[] current = shards;
+		if(current.length == 1){
+			return current[0];
+		}
+		int index = assigned == null ? unrouted.getAndIncrement() : assigned;
+		return current[Math.floorMod(index, current.length)];
+	}
+	
+	/**
+	 * Splits event handling across shards, each with its own queue, timing wheel and thread,
+	 * so that events of different connections do not contend on one queue. Connections are
+	 * given to shards in the order they were added. Each shard runs its events on a dispatch
+	 * thread of its own, one at a time, so the events of one connection run in the order they
+	 * become ready; see {@link #setEventExecutor(EventExecutor)}. Only possible while no event
+	 * is held.
+	 * 
+	 * @param count	Number of shards, 1 for a single event loop.
+	 * @return		Whether the client was resharded.
+	 */
+	public synchronized boolean setEventLoopShards(int count){
+		EventScheduler[] old = shards;
+		EventScheduler[] created = new EventScheduler[Math.max(1, count)];
+		Lock lock = shardLock.writeLock();
+		lock.lock();
+		try{
+			for(EventScheduler shard: old){
+				if(shard.getPendingCount() > 0){
+					System.out.println("Event loop shards can only be changed while no event is held.");
+					return false;
+				}
 			}
-		/* Provides a way of removing client events once the queue is overflowed and
-		 * runs the abort code for the event in a separate thread.
-		*/
-		Iterator<ClientEvent> eventsIterator = events.iterator();
-		while(eventsIterator.hasNext()){
-			ClientEvent e = eventsIterator.next();
-			if(e.isTimedOut()){
-				eventsIterator.remove();
-				try {
-					e.timedOutExcecute();
-				} catch (Exception e1) {
-					// TODO Auto-generated catch block
-					e1.printStackTrace();
+			for(int i = 0; i < created.length; i++){
+				created[i] = newShard(created.length);
+			}
+			shards = created;
+		}finally{
+			lock.unlock();
+		}
+		if(started){
+			for(int i = 1; i < created.length; i++){
+				startShard(created[i]);
+			}
+		}
+		for(EventScheduler shard: old){
+			shard.stop();
+			shutDownDispatch(shard);
+		}
+		return true;
+	}
+	
+	/**
+	 * Gives each core its own event loop shard, see {@link #setEventLoopShards(int)}.
+	 * 
+	 * @return	Whether the client was resharded.
+	 */
+	public boolean enableSharding(){
+		return setEventLoopShards(Runtime.getRuntime().availableProcessors());
+	}
+	public int getEventLoopShards(){
+		return shards.length;
+	}
+	
+	private EventScheduler newShard(int count){
+		EventScheduler shard = new EventScheduler(eventLimit, timeOutResolutionMS, dispatchFor(count));
+		shard.setOverloadOptions(overloadOptions);
+		return shard;
+	}
+	//A single event loop uses the client's executor; each of several shards a serial copy of it
+	private EventExecutor dispatchFor(int count){
+		return count == 1 ? eventExecutor : eventExecutor.serial("event-dispatch");
+	}
+	private void shutDownDispatch(EventScheduler shard){
+		if(shard.getExecutor() != eventExecutor){
+			shard.getExecutor().shutDown();
+		}
+	}
+	private void startShard(EventScheduler shard){
+		ExecutorFunctions.daemonThreadFactory("event-loop").newThread(shard::run).start();
+	}
+	
+	/**
+	 * @param limit	Number of events the client holds before its overload policy applies. With
+	 * 					several shards, the limit applies to each shard.
+	 */
+	public synchronized void setEventLimit(int limit){
+		eventLimit = limit;
+		for(EventScheduler shard: shards){
+			shard.setEventLimit(limit);
+		}
+	}
+	
+	/**
+	 * Sets what happens to events over the limit. Call before adding events: the policies
+	 * shedding the oldest event only see the events added under them.
+	 * 
+	 * @param options	The overload policy and its settings.
+	 */
+	public synchronized void setOverloadOptions(OverloadOptions options){
+		overloadOptions = options;
+		for(EventScheduler shard: shards){
+			shard.setOverloadOptions(options);
+		}
+	}
+	public OverloadOptions getOverloadOptions(){
+		return overloadOptions;
+	}
+	
+	/**
+	 * @return	Number of events aborted by the overload policy to make room or for waiting
+	 * 			too long.
+	 */
+	public long getShedEventCount(){
+		long count = 0;
+		for(EventScheduler shard: shards){
+			count += shard.getShedCount();
+		}
+		return count;
+	}
+	
+	/**
+	 * @return	Number of new events aborted by the REJECT or BLOCK overload policy.
+	 */
+	public long getRejectedEventCount(){
+		long count = 0;
+		for(EventScheduler shard: shards){
+			count += shard.getRejectedCount();
+		}
+		return count;
+	}
+	
+	/**
+	 * Sets what runs the events of this client, by default {@link EventExecutor#createDefault()}.
+	 * A single event loop hands its events to the executor; with several shards, each shard 
+	 * runs them on a single-thread copy of it, see {@link EventExecutor#serial(String)}. The 
+	 * executors are shut down with the client.
+	 * 
+	 * @param executor	The executor, see {@link EventExecutor#bounded(int, int)},
+	 * 					{@link EventExecutor#callerRuns()}, {@link EventExecutor#virtual()} and
+	 * 					{@link EventExecutor#edf(int, int, long)}.
+	 */
+	public synchronized void setEventExecutor(EventExecutor executor){
+		EventExecutor old = eventExecutor;
+		eventExecutor = executor;
+		EventScheduler[] current = shards;
+		for(EventScheduler shard: current){
+			EventExecutor replaced = shard.getExecutor();
+			shard.setExecutor(dispatchFor(current.length));
+			if(replaced != old){
+				replaced.shutDown();
+			}
+		}
+		if(old != executor){
+			old.shutDown();
+		}
+	}
+	public EventExecutor getEventExecutor(){
+		return eventExecutor;
+	}
+	
+	/**
+	 * Sets the tick of the timing wheel holding event timeouts, 10 ms by default. Events time
+	 * out up to one tick after their deadline. Call before adding events; the resolution 
+	 * cannot change while timeouts are held.
+	 * 
+	 * @param ms	The resolution.
+	 */
+	public synchronized void setTimeOutResolutionMS(long ms){
+		for(EventScheduler shard: shards){
+			if(!shard.setTimeOutResolutionMS(ms)){
+				System.out.println("Time out resolution can only be changed while no event is held.");
+				return;
+			}
+		}
+		timeOutResolutionMS = ms;
+	}
+	
+	/**
+	 * Discovers the servers of the local network on the default discovery port. See
+	 * {@link #discoverLANServer(LanDiscoveryOptions)}.
+	 * 
+	 * @return	The connection to the nearest local server, or null if none answered.
+	 */
+	public Connection discoverLANServer(){
+		return discoverLANServer(new LanDiscoveryOptions());
+	}
+	
+	/**
+	 * Probes the local network for servers with LAN discovery enabled, and keeps probing at
+	 * the probe interval until the client is shut down. The connection returned by 
+	 * {@link #getLANConnection()} points to the local server with the lowest round trip time.
+	 * 
+	 * <p>
+	 * Each MultiHostConnection of this client is given every local server serving all of its
+	 * extensions, and sends its requests to the nearest of them in preference to its remote
+	 * hosts, see {@link LocalFirstStrategy}. When a local server stops answering probes for
+	 * the time to live, it is removed and requests fall back to the remote hosts. Connections 
+	 * with a single host are left as they are.
+	 * 
+	 * @param options	Where and how often to probe, and how long servers are kept.
+	 * @return			The connection to the nearest local server, or null if none answered
+	 * 					the first probe.
+	 */
+	public Connection discoverLANServer(LanDiscoveryOptions options){
+		LanDiscovery discovery = new LanDiscovery(options);
+		synchronized(this){
+			if(lanDiscovery != null){
+				lanDiscovery.stop();
+			}
+			lanDiscovery = discovery;
+		}
+		discovery.probe();
+		updateLanRoutes(discovery);
+		//The first probe was just sent, so the next one waits for the probe interval
+		discovery.start(() -> updateLanRoutes(discovery), options.getProbeIntervalMS());
+		return getLANConnection();
+	}
+	
+	/**
+	 * @return	The connection to the nearest local server, or null if none is known. The
+	 * 			same connection is kept, and pointed to the new nearest server, as servers
+	 * 			come and go, so its extensions need only be added once.
+	 */
+	public Connection getLANConnection(){
+		return lanConnectionActive ? lanConnection : null;
+	}
+	
+	/**
+	 * @return	The local servers known, nearest first.
+	 */
+	public List<LanDiscovery.LanServer> getLANServers(){
+		LanDiscovery discovery = lanDiscovery;
+		return discovery == null ? new ArrayList<LanDiscovery.LanServer>() : discovery.getServers();
+	}
+	
+	private synchronized void updateLanRoutes(LanDiscovery discovery){
+		if(discovery != lanDiscovery){
+			return;
+		}
+		LanDiscovery.LanServer nearest = discovery.getNearest(null);
+		if(nearest != null){
+			if(lanConnection == null){
+				lanConnection = new Connection(nearest.getHost());
+			}else if(!nearest.getHost().equals(lanConnection.getHost())){
+				lanConnection.setHost(nearest.getHost());
+			}
+		}
+		lanConnectionActive = nearest != null;
+		List<LanDiscovery.LanServer> servers = discovery.getServers();
+		for(Connection c: connections.values()){
+			if(!(c instanceof MultiHostConnection)){
+				continue;
+			}
+			MultiHostConnection m = (MultiHostConnection) c;
+			Set<HttpHost> added = lanHosts.computeIfAbsent(m, k -> new HashSet<HttpHost>());
+			List<String> paths = m.getExtensionPaths();
+			Set<HttpHost> serving = new HashSet<HttpHost>();
+			for(LanDiscovery.LanServer s: servers){
+				if(s.servesAll(paths)){
+					serving.add(s.getHost());
+					if(!added.contains(s.getHost()) && !hasHost(m, s.getHost())){
+						m.addHost(s.getHost());
+						added.add(s.getHost());
+					}
 				}
-				/* This checks to see if an event has timed out of its specified timeout
-				 * length. If so, it will execute some code.
-				*/
-				
-			}else if(e.getInitiatingEvent().isDone()){
-				try {
-					eventsIterator.remove();
-					e.start();
-					System.out.println("Event executed");
-				} catch (Exception e1) {
-					// TODO Auto-generated catch block
-					e1.printStackTrace();
+			}
+			for(Iterator<HttpHost> i = added.iterator(); i.hasNext();){
+				HttpHost h = i.next();
+				if(!serving.contains(h)){
+					m.removeHost(h);
+					i.remove();
 				}
-				/* Executes event's code if the HTTP request has completed
-				 * and returned a JSON response.
-				*/
-			
+			}
+			HostSelectionStrategy strategy = m.getHostSelectionStrategy();
+			if(!(strategy instanceof LocalFirstStrategy)){
+				m.setHostSelectionStrategy(new LocalFirstStrategy(discovery, strategy));
+			}else if(((LocalFirstStrategy) strategy).getDiscovery() != discovery){
+				m.setHostSelectionStrategy(new LocalFirstStrategy(discovery, ((LocalFirstStrategy) strategy).getFallback()));
 			}
 		}
 	}
-	public synchronized void addEvent(ClientEvent e){
-		accessEvents(ADD_EVENT, e);
-	}
-	//Broadcast to broadcast channel + port; once a response is received, add to the client the 
-//	LAN server's connection information.
-	public void discoverLANServer(){
-		
+	private static boolean hasHost(MultiHostConnection m, HttpHost host){
+		for(HostState h: m.getHostStates()){
+			if(h.getHost().equals(host)){
+				return true;
+			}
+		}
+		return false;
 	}
 }
\ No newline at end of file
@@ -0,0 +1,299 @@
+/*   
+  	This file is part of JSON Web Framework.
+
+    JSON Web Framework is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    JSON Web Framework is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with JSON Web Framework.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package client;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpHost;
+
+import communications.DiscoveryMessage;
+import functions.ExecutorFunctions;
+
+/**
+ * @author Yiqi (Eric) Hou
+ *
+ * <p>
+ * Finds the servers of the local network by probing the discovery port of their UDPServer,
+ * see {@link DiscoveryMessage}. Each reply is timed, so servers are ranked by round trip time,
+ * and cached until no reply has come from them for the time to live. Once started, probes
+ * are repeated at a fixed interval, so that new servers are found and the ones gone expire.
+ */
+public class LanDiscovery {
+	/** Weight of the newest round trip time in the average kept for each server. */
+	private static final double RTT_WEIGHT = 0.3;
+	
+	private final LanDiscoveryOptions options;
+	private final Map<HttpHost, LanServer> servers = new ConcurrentHashMap<HttpHost, LanServer>();
+	private ScheduledExecutorService prober;
+	
+	/**
+	 * @param options	Where and how often to probe.
+	 */
+	public LanDiscovery(LanDiscoveryOptions options){
+		this.options = options;
+	}
+	
+	/**
+	 * A server that answered a probe. Replaced in the cache by each new reply.
+	 */
+	public static final class LanServer {
+		private final HttpHost host;
+		private final float load;
+		private final List<String> extensions;
+		private final double rttMS;
+		private final long lastSeenMS;
+		
+		LanServer(HttpHost host, float load, List<String> extensions, double rttMS, long lastSeenMS){
+			this.host = host;
+			this.load = load;
+			this.extensions = extensions;
+			this.rttMS = rttMS;
+			this.lastSeenMS = lastSeenMS;
+		}
+		public HttpHost getHost(){return host;}
+		/** @return	Load of the server, 1 meaning every core is busy, or -1 if unknown. */
+		public float getLoad(){return load;}
+		/** @return	URI patterns served, such as "/api/users" or "/api/*". */
+		public List<String> getExtensions(){return extensions;}
+		/** @return	Moving average of the round trip time of probes to the server. */
+		public double getRttMS(){return rttMS;}
+		public long getLastSeenMS(){return lastSeenMS;}
+		
+		/**
+		 * @param path	A host-relative path, such as the extension of a Connection.
+		 * @return		Whether one of the servlet patterns of the server matches the path.
+		 */
+		public boolean serves(String path){
+			int query = path.indexOf('?');
+			String p = query < 0 ? path : path.substring(0, query);
+			for(String pattern: extensions){
+				int wildcard = pattern.indexOf("/*.");
+				if(pattern.endsWith("/*")){
+					String prefix = pattern.substring(0, pattern.length() - 2);
+					if(p.equals(prefix) || p.startsWith(prefix + "/")){
+						return true;
+					}
+				}else if(wildcard >= 0){
+					if(p.startsWith(pattern.substring(0, wildcard + 1)) && p.endsWith(pattern.substring(wildcard + 2))){
+						return true;
+					}
+				}else if(pattern.endsWith("/") ? p.startsWith(pattern) || p.equals(pattern.substring(0, pattern.length() - 1))
+						: p.equals(pattern)){
+					return true;
+				}
+			}
+			return false;
+		}
+		
+		/**
+		 * @param paths	Host-relative paths.
+		 * @return		Whether the server serves every path. False when there are none.
+		 */
+		public boolean servesAll(Collection<String> paths){
+			if(paths.isEmpty()){
+				return false;
+			}
+			for(String p: paths){
+				if(!serves(p)){
+					return false;
+				}
+			}
+			return true;
+		}
+		
+		@Override
+		public String toString(){
+			return host.toURI() + " rtt=" + String.format("%.2f", rttMS) + "ms load=" + load + " " + extensions;
+		}
+	}
+	
+	/**
+	 * Sends one probe and waits the probe timeout for replies, then drops the servers whose
+	 * time to live has passed.
+	 * 
+	 * @return	The servers known after the probe, nearest first.
+	 */
+	public List<LanServer> probe(){
+		long nonce = ThreadLocalRandom.current().nextLong();
+		byte[] probe = DiscoveryMessage.probe(nonce);
+		try(DatagramSocket socket = new DatagramSocket()){
+			socket.setBroadcast(true);
+			long sentNanos = System.nanoTime();
+			int sent = 0;
+			for(InetAddress target: getTargets()){
+				try{
+					socket.send(new DatagramPacket(probe, probe.length, target, options.getPort()));
+					sent++;
+				}catch(IOException e){
+					//Networks without broadcast or multicast; the other targets may still work
+				}
+			}
+			if(sent == 0){
+				System.out.println("LAN discovery could not send a probe.");
+			}else{
+				receiveReplies(socket, nonce, sentNanos);
+			}
+		}catch(IOException e){
+			e.printStackTrace();
+		}
+		evictExpired();
+		return getServers();
+	}
+	private void receiveReplies(DatagramSocket socket, long nonce, long sentNanos) throws IOException{
+		byte[] buffer = new byte[DiscoveryMessage.MAX_SIZE];
+		long deadline = sentNanos + TimeUnit.MILLISECONDS.toNanos(options.getProbeTimeoutMS());
+		//A server reached by several targets answers each of them; only its first reply is timed
+		Set<HttpHost> answered = new HashSet<HttpHost>();
+		while(true){
+			long remainingMS = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+			if(remainingMS <= 0){
+				return;
+			}
+			socket.setSoTimeout((int) remainingMS);
+			DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+			try{
+				socket.receive(packet);
+			}catch(SocketTimeoutException e){
+				return;
+			}
+			double rttMS = (System.nanoTime() - sentNanos) / 1e6;
+			DiscoveryMessage reply = DiscoveryMessage.parse(packet.getData(), packet.getOffset(), packet.getLength());
+			if(reply == null || !reply.isReply() || reply.getNonce() != nonce){
+				continue;
+			}
+			String hostName = reply.getHost().isEmpty() ? packet.getAddress().getHostAddress() : reply.getHost();
+			HttpHost host = new HttpHost(hostName, reply.getPort(), reply.getScheme());
+			if(answered.add(host)){
+				LanServer previous = servers.get(host);
+				double average = previous == null ? rttMS : previous.rttMS + RTT_WEIGHT * (rttMS - previous.rttMS);
+				servers.put(host, new LanServer(host, reply.getLoad(), reply.getExtensions(), average,
+						System.currentTimeMillis()));
+			}
+		}
+	}
+	private List<InetAddress> getTargets(){
+		List<InetAddress> targets = new ArrayList<InetAddress>();
+		List<String> names = new ArrayList<String>(options.getProbeAddresses());
+		if(options.isBroadcast()){
+			names.add("255.255.255.255");
+		}
+		if(options.getGroup() != null){
+			names.add(options.getGroup());
+		}
+		for(String name: names){
+			try{
+				targets.add(InetAddress.getByName(name));
+			}catch(IOException e){
+				System.out.println("LAN discovery cannot resolve " + name + ".");
+			}
+		}
+		return targets;
+	}
+	private void evictExpired(){
+		long oldest = System.currentTimeMillis() - options.getTtlMS();
+		servers.values().removeIf(s -> s.lastSeenMS < oldest);
+	}
+	
+	/**
+	 * @return	The servers whose time to live has not passed, nearest first.
+	 */
+	public List<LanServer> getServers(){
+		evictExpired();
+		List<LanServer> result = new ArrayList<LanServer>(servers.values());
+		Collections.sort(result, (a, b) -> Double.compare(a.rttMS, b.rttMS));
+		return result;
+	}
+	
+	/**
+	 * @param host	A host.
+	 * @return		The server discovered at the host, or null if there is none or it expired.
+	 */
+	public LanServer getServer(HttpHost host){
+		LanServer s = servers.get(host);
+		return s == null || s.lastSeenMS < System.currentTimeMillis() - options.getTtlMS() ? null : s;
+	}
+	
+	/**
+	 * @param paths	Host-relative paths the server must serve, or null for any server.
+	 * @return		The server with the lowest round trip time serving every path, or null.
+	 */
+	public LanServer getNearest(Collection<String> paths){
+		for(LanServer s: getServers()){
+			if(paths == null || s.servesAll(paths)){
+				return s;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Probes at the probe interval until {@link #stop()} is called. The first probe is sent at
+	 * once.
+	 * 
+	 * @param afterProbe	Run after each probe, or null.
+	 */
+	public void start(Runnable afterProbe){
+		start(afterProbe, 0);
+	}
+	
+	/**
+	 * Probes at the probe interval until {@link #stop()} is called.
+	 * 
+	 * @param afterProbe		Run after each probe, or null.
+	 * @param initialDelayMS	Time before the first probe, such as the probe interval when
+	 * 							{@link #probe()} was just called.
+	 */
+	public synchronized void start(final Runnable afterProbe, long initialDelayMS){
+		stop();
+		prober = ExecutorFunctions.newScheduler("lan-discovery");
+		prober.scheduleWithFixedDelay(() -> {
+			try{
+				probe();
+				if(afterProbe != null){
+					afterProbe.run();
+				}
+			}catch(Exception e){
+				e.printStackTrace();
+			}
+		}, initialDelayMS, options.getProbeIntervalMS(), TimeUnit.MILLISECONDS);
+	}
+	public synchronized void stop(){
+		if(prober != null){
+			prober.shutdownNow();
+			prober = null;
+		}
+	}
+	public LanDiscoveryOptions getOptions(){
+		return options;
+	}
+}
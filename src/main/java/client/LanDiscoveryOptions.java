@@ -0,0 +1,132 @@
+/*   
+  	This file is part of JSON Web Framework.
+
+    JSON Web Framework is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    JSON Web Framework is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with JSON Web Framework.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package client;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import communications.DiscoveryMessage;
+
+/**
+ * @author Yiqi (Eric) Hou
+ *
+ * <p>
+ * Settings for the discovery of servers on the local network, see 
+ * {@link JsonClient#discoverLANServer(LanDiscoveryOptions)}.
+ */
+public class LanDiscoveryOptions {
+	private int port = DiscoveryMessage.DEFAULT_PORT;
+	private String group = DiscoveryMessage.DEFAULT_GROUP;
+	private boolean broadcast = true;
+	private final List<String> probeAddresses = new ArrayList<String>();
+	private int probeTimeoutMS = 300;
+	private long probeIntervalMS = 5000;
+	private long ttlMS = 15000;
+	
+	public LanDiscoveryOptions(){
+	}
+	
+	/**
+	 * @param port	Port the servers listen for probes on, the "listener_server_port" property
+	 * 					of their TomcatServer.
+	 * @return		Returns current instance of options.
+	 */
+	public LanDiscoveryOptions setPort(int port){
+		this.port = port;
+		return this;
+	}
+	public int getPort(){
+		return port;
+	}
+	
+	/**
+	 * @param group	Multicast group probes are sent to, or null to not use multicast.
+	 * @return		Returns current instance of options.
+	 */
+	public LanDiscoveryOptions setGroup(String group){
+		this.group = group;
+		return this;
+	}
+	public String getGroup(){
+		return group;
+	}
+	
+	/**
+	 * @param broadcast	Whether probes are broadcast to the local network.
+	 * @return			Returns current instance of options.
+	 */
+	public LanDiscoveryOptions setBroadcast(boolean broadcast){
+		this.broadcast = broadcast;
+		return this;
+	}
+	public boolean isBroadcast(){
+		return broadcast;
+	}
+	
+	/**
+	 * @param address	A host probes are also sent to directly, for networks that drop 
+	 * 						broadcast and multicast datagrams.
+	 * @return			Returns current instance of options.
+	 */
+	public LanDiscoveryOptions addProbeAddress(String address){
+		probeAddresses.add(address);
+		return this;
+	}
+	public List<String> getProbeAddresses(){
+		return Collections.unmodifiableList(probeAddresses);
+	}
+	
+	/**
+	 * @param ms	Time replies are awaited after each probe. Servers answering later are
+	 * 					not counted as local.
+	 * @return		Returns current instance of options.
+	 */
+	public LanDiscoveryOptions setProbeTimeoutMS(int ms){
+		probeTimeoutMS = ms;
+		return this;
+	}
+	public int getProbeTimeoutMS(){
+		return probeTimeoutMS;
+	}
+	
+	/**
+	 * @param ms	Time between two probes once discovery has started.
+	 * @return		Returns current instance of options.
+	 */
+	public LanDiscoveryOptions setProbeIntervalMS(long ms){
+		probeIntervalMS = ms;
+		return this;
+	}
+	public long getProbeIntervalMS(){
+		return probeIntervalMS;
+	}
+	
+	/**
+	 * @param ms	Time a discovered server is kept after its last reply. Should span a few
+	 * 					probe intervals, so that a lost datagram does not drop the server.
+	 * @return		Returns current instance of options.
+	 */
+	public LanDiscoveryOptions setTtlMS(long ms){
+		ttlMS = ms;
+		return this;
+	}
+	public long getTtlMS(){
+		return ttlMS;
+	}
+}
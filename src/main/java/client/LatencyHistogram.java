@@ -0,0 +1,121 @@
+/*   
+  	This file is part of JSON Web Framework.
+
+    JSON Web Framework is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    JSON Web Framework is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with JSON Web Framework.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package client;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * @author Yiqi (Eric) Hou
+ *
+ * <p>
+ * A lock-free histogram of latencies in microseconds. Values are counted in log-linear buckets
+ * of 32 sub-buckets per power of two, so any recorded value is reported within about 3% of its
+ * true value, from 1 microsecond up to several days. Recording is a few atomic increments
+ * and never allocates.
+ */
+public class LatencyHistogram {
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int LINEAR_LIMIT = SUB_BUCKETS << 1;
+	private static final int MAX_SHIFT = 35;
+	private static final int BUCKETS = LINEAR_LIMIT + MAX_SHIFT * SUB_BUCKETS;
+	
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong totalCount = new AtomicLong();
+	private final AtomicLong totalMicros = new AtomicLong();
+	private final AtomicLong maxMicros = new AtomicLong();
+	
+	/**
+	 * @param micros	The latency to be recorded, in microseconds.
+	 */
+	public void record(long micros){
+		if(micros < 0){
+			micros = 0;
+		}
+		counts.incrementAndGet(indexOf(micros));
+		totalCount.incrementAndGet();
+		totalMicros.addAndGet(micros);
+		long max;
+		while(micros > (max = maxMicros.get()) && !maxMicros.compareAndSet(max, micros)){
+		}
+	}
+	
+	public long getCount(){
+		return totalCount.get();
+	}
+	public long getMaxMicros(){
+		return maxMicros.get();
+	}
+	public double getMeanMicros(){
+		long count = totalCount.get();
+		return count == 0 ? 0 : (double) totalMicros.get() / count;
+	}
+	
+	/**
+	 * @param percentile	The percentile, between 0 and 100.
+	 * @return				The latency in microseconds at or under which the given percentage of
+	 * 							recorded values lie, or 0 if nothing was recorded.
+	 */
+	public long getValueAtPercentile(double percentile){
+		long count = totalCount.get();
+		if(count == 0){
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+		long seen = 0;
+		for(int i = 0; i < BUCKETS; i++){
+			seen += counts.get(i);
+			if(seen >= rank){
+				return Math.min(highestValueOf(i), maxMicros.get());
+			}
+		}
+		return maxMicros.get();
+	}
+	
+	/**
+	 * Clears the histogram. Values recorded while the reset is under way may be kept or lost.
+	 */
+	public void reset(){
+		for(int i = 0; i < BUCKETS; i++){
+			counts.set(i, 0);
+		}
+		totalCount.set(0);
+		totalMicros.set(0);
+		maxMicros.set(0);
+	}
+	
+	private static int indexOf(long value){
+		if(value < LINEAR_LIMIT){
+			return (int) value;
+		}
+		int shift = Math.min(63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS, MAX_SHIFT);
+		int subBucket = (int) Math.min((value >>> shift) - SUB_BUCKETS, SUB_BUCKETS - 1);
+		return LINEAR_LIMIT + (shift - 1) * SUB_BUCKETS + subBucket;
+	}
+	
+	private static long highestValueOf(int index){
+		if(index < LINEAR_LIMIT){
+			return index;
+		}
+		int shift = (index - LINEAR_LIMIT) / SUB_BUCKETS + 1;
+		int subBucket = (index - LINEAR_LIMIT) % SUB_BUCKETS;
+		return ((long) (SUB_BUCKETS + subBucket + 1) << shift) - 1;
+	}
+}
@@ -0,0 +1,66 @@
+/*   
+  	This file is part of JSON Web Framework.
+
+    JSON Web Framework is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    JSON Web Framework is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with JSON Web Framework.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package client;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author Yiqi (Eric) Hou
+ *
+ * <p>
+ * The recent latencies of one kind of request, kept in two histograms that take turns every
+ * window, so quantiles follow changes in the host's behavior instead of its whole history.
+ */
+class LatencyWindow {
+	private static final long WINDOW_NANOS = 10000000000L;
+	private static final long MIN_SAMPLES = 20;
+	
+	private volatile LatencyHistogram current = new LatencyHistogram();
+	private volatile LatencyHistogram previous = new LatencyHistogram();
+	private final AtomicLong windowStartNanos = new AtomicLong(System.nanoTime());
+	
+	void record(long nanos){
+		long now = System.nanoTime();
+		long start = windowStartNanos.get();
+		if(now - start > WINDOW_NANOS && windowStartNanos.compareAndSet(start, now)){
+			LatencyHistogram retired = previous;
+			retired.reset();
+			previous = current;
+			current = retired;
+		}
+		current.record(nanos / 1000);
+	}
+	
+	/**
+	 * @param percentile	The percentile, between 0 and 100.
+	 * @return				The latency at the percentile in milliseconds, taken from the last
+	 * 							complete window if it holds enough samples, or -1 if there are
+	 * 							not yet enough samples to tell.
+	 */
+	long getValueAtPercentileMS(double percentile){
+		LatencyHistogram h = previous;
+		if(h.getCount() < MIN_SAMPLES){
+			h = current;
+			if(h.getCount() < MIN_SAMPLES){
+				return -1;
+			}
+		}
+		return h.getValueAtPercentile(percentile) / 1000;
+	}
+}
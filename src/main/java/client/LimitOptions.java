@@ -0,0 +1,187 @@
+/*   
+  	This file is part of JSON Web Framework.
+
+    JSON Web Framework is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    JSON Web Framework is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with JSON Web Framework.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package client;
+
+/**
+ * @author Yiqi (Eric) Hou
+ *
+ * <p>
+ * Settings for the request limiter of a Connection, see 
+ * {@link Connection#setLimitOptions(LimitOptions)}. A request is sent only when the token
+ * bucket holds a token and fewer requests than the concurrency limit are in flight. With
+ * adaptive concurrency, the limit grows by one per limit's worth of answers while latency
+ * stays close to the lowest latency seen, and shrinks by a tenth when latency rises past the
+ * tolerance or the host answers with 429 or 503 or times out.
+ */
+public class LimitOptions {
+	
+	/**
+	 * What happens to a request over the limit. QUEUE holds it until it may be sent, highest
+	 * priority first, see {@link HttpOptions#setPriority(int)}. FAIL_FAST fails it at once 
+	 * with a LimitExceededException.
+	 */
+	public enum Policy {QUEUE, FAIL_FAST}
+	
+	/**
+	 * The order in which queued requests leave the queue. PRIORITY sends the highest priority
+	 * first, then the oldest. DEADLINE sends the earliest deadline first, see 
+	 * {@link HttpOptions#setDeadlineMS(long)}, with each priority level moving a request's
+	 * deadline earlier by the priority weight; requests without a deadline go after the others,
+	 * by priority.
+	 */
+	public enum Order {PRIORITY, DEADLINE}
+	
+	private double ratePerSecond = -1;
+	private int burst = 10;
+	private int maxConcurrency = 64;
+	private int minConcurrency = 1;
+	private boolean adaptive = false;
+	private double latencyTolerance = 2;
+	private Policy policy = Policy.QUEUE;
+	private int maxQueued = 1000;
+	private Order order = Order.PRIORITY;
+	private long priorityWeightMS = 0;
+	
+	public LimitOptions(){
+	}
+	
+	/**
+	 * @param rate	Requests per second let through by the token bucket, or -1 for no rate limit.
+	 * @return		Returns current instance of options.
+	 */
+	public LimitOptions setRatePerSecond(double rate){
+		ratePerSecond = rate;
+		return this;
+	}
+	public double getRatePerSecond(){
+		return ratePerSecond;
+	}
+	
+	/**
+	 * @param burst	Size of the token bucket: requests that may be sent at once after a pause.
+	 * @return		Returns current instance of options.
+	 */
+	public LimitOptions setBurst(int burst){
+		this.burst = burst;
+		return this;
+	}
+	public int getBurst(){
+		return burst;
+	}
+	
+	/**
+	 * @param max	Maximum number of requests in flight, or -1 for no concurrency limit. With
+	 * 					adaptive concurrency, the upper bound and starting value of the limit.
+	 * @return		Returns current instance of options.
+	 */
+	public LimitOptions setMaxConcurrency(int max){
+		maxConcurrency = max;
+		return this;
+	}
+	public int getMaxConcurrency(){
+		return maxConcurrency;
+	}
+	
+	/**
+	 * @param min	Lower bound of the adaptive concurrency limit.
+	 * @return		Returns current instance of options.
+	 */
+	public LimitOptions setMinConcurrency(int min){
+		minConcurrency = min;
+		return this;
+	}
+	public int getMinConcurrency(){
+		return minConcurrency;
+	}
+	
+	/**
+	 * @param adaptive	Whether the concurrency limit follows the observed latency (AIMD).
+	 * @return			Returns current instance of options.
+	 */
+	public LimitOptions setAdaptive(boolean adaptive){
+		this.adaptive = adaptive;
+		return this;
+	}
+	public boolean isAdaptive(){
+		return adaptive;
+	}
+	
+	/**
+	 * @param ratio	How many times the lowest observed latency a request may take before the
+	 * 					adaptive limit shrinks.
+	 * @return		Returns current instance of options.
+	 */
+	public LimitOptions setLatencyTolerance(double ratio){
+		latencyTolerance = ratio;
+		return this;
+	}
+	public double getLatencyTolerance(){
+		return latencyTolerance;
+	}
+	
+	/**
+	 * @param policy	What happens to a request over the limit.
+	 * @return			Returns current instance of options.
+	 */
+	public LimitOptions setPolicy(Policy policy){
+		this.policy = policy;
+		return this;
+	}
+	public Policy getPolicy(){
+		return policy;
+	}
+	
+	/**
+	 * @param max	Maximum number of requests waiting under the QUEUE policy. Requests beyond
+	 * 					it fail with a LimitExceededException.
+	 * @return		Returns current instance of options.
+	 */
+	public LimitOptions setMaxQueued(int max){
+		maxQueued = max;
+		return this;
+	}
+	public int getMaxQueued(){
+		return maxQueued;
+	}
+	
+	/**
+	 * @param order	The order in which queued requests are sent.
+	 * @return		Returns current instance of options.
+	 */
+	public LimitOptions setOrder(Order order){
+		this.order = order;
+		return this;
+	}
+	public Order getOrder(){
+		return order;
+	}
+	
+	/**
+	 * @param ms	How much earlier each priority level makes a request's deadline under the
+	 * 					DEADLINE order; 0 orders by deadline alone.
+	 * @return		Returns current instance of options.
+	 */
+	public LimitOptions setPriorityWeightMS(long ms){
+		priorityWeightMS = ms;
+		return this;
+	}
+	public long getPriorityWeightMS(){
+		return priorityWeightMS;
+	}
+}
@@ -0,0 +1,63 @@
+/*   
+  	This file is part of JSON Web Framework.
+
+    JSON Web Framework is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    JSON Web Framework is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with JSON Web Framework.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package client;
+
+import java.util.List;
+
+/**
+ * @author Yiqi (Eric) Hou
+ *
+ * <p>
+ * Sends every request to the local server with the lowest round trip time, as found by a
+ * LanDiscovery, and falls back to another strategy over the remote hosts while no local
+ * server is a candidate: none was discovered, the ones discovered expired, or their circuit
+ * breakers ejected them.
+ */
+public class LocalFirstStrategy implements HostSelectionStrategy {
+	private final LanDiscovery discovery;
+	private final HostSelectionStrategy fallback;
+	
+	/**
+	 * @param discovery	Tells the local hosts and their round trip times.
+	 * @param fallback	Chooses between the hosts when none is local.
+	 */
+	public LocalFirstStrategy(LanDiscovery discovery, HostSelectionStrategy fallback){
+		this.discovery = discovery;
+		this.fallback = fallback;
+	}
+	public LanDiscovery getDiscovery(){
+		return discovery;
+	}
+	public HostSelectionStrategy getFallback(){
+		return fallback;
+	}
+	
+	@Override
+	public HostState select(List<HostState> candidates, String requestKey){
+		HostState nearest = null;
+		double nearestRtt = Double.MAX_VALUE;
+		for(HostState h: candidates){
+			LanDiscovery.LanServer s = discovery.getServer(h.getHost());
+			if(s != null && s.getRttMS() < nearestRtt){
+				nearest = h;
+				nearestRtt = s.getRttMS();
+			}
+		}
+		return nearest != null ? nearest : fallback.select(candidates, requestKey);
+	}
+}
@@ -0,0 +1,188 @@
+/*   
+  	This file is part of JSON Web Framework.
+
+    JSON Web Framework is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    JSON Web Framework is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with JSON Web Framework.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package client;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.http.HttpHost;
+
+import communications.BasicAuthentication;
+import structures.NoHostAvailableException;
+
+/**
+ * @author Yiqi (Eric) Hou
+ *
+ * <p>
+ * A connection to a service served by several interchangeable hosts. Each request is sent to
+ * the host chosen by the connection's {@link HostSelectionStrategy}, by default 
+ * {@link PowerOfTwoChoicesStrategy}. Extensions are shared by every host; the first host is
+ * the one returned by {@link #getHost()} and used for cache keys.
+ * 
+ * <p>
+ * Each host has a circuit breaker: after a number of consecutive failures, I/O errors or 5xx
+ * answers, the host is ejected and receives no requests until its open time has passed, when a
+ * single probe request decides whether it comes back. If every host is ejected, requests fail
+ * with a NoHostAvailableException.
+ */
+public class MultiHostConnection extends Connection {
+	private final List<HostState> hosts = new CopyOnWriteArrayList<HostState>();
+	private volatile HostSelectionStrategy strategy = new PowerOfTwoChoicesStrategy();
+	private int failureThreshold = 5;
+	private long openMS = 10000;
+	
+	/**
+	 * Constructor. Use when authentication is not required.
+	 * 
+	 * @param hosts	The hosts serving this connection.
+	 */
+	public MultiHostConnection(HttpHost... hosts){
+		super();
+		for(HttpHost h: hosts){
+			addHost(h);
+		}
+	}
+	
+	/**
+	 * Constructor. Sets authentication as preemptive; the same credentials are sent to every host.
+	 * 
+	 * @param auth	Authentication to access the hosts if needed.
+	 * @param hosts	The hosts serving this connection.
+	 */
+	public MultiHostConnection(BasicAuthentication auth, HttpHost... hosts){
+		this(hosts);
+		setBasicAuth(auth);
+	}
+	
+	/**
+	 * Adds a host to the connection. The first host added becomes the host of the connection.
+	 * Adding a host twice has no effect.
+	 * 
+	 * @param host	The host to be added.
+	 * @return		Returns current instance of connection.
+	 */
+	public synchronized MultiHostConnection addHost(HttpHost host){
+		if(getHostState(host) == null){
+			hosts.add(new HostState(host, failureThreshold, openMS));
+			if(getHost() == null){
+				setHost(host);
+			}
+		}
+		return this;
+	}
+	
+	/**
+	 * Removes a host from the connection. Requests already sent to it are not cancelled.
+	 * 
+	 * @param host	The host to be removed.
+	 * @return		Returns current instance of connection.
+	 */
+	public synchronized MultiHostConnection removeHost(HttpHost host){
+		HostState state = getHostState(host);
+		if(state != null){
+			hosts.remove(state);
+			if(host.equals(getHost()) && !hosts.isEmpty()){
+				setHost(hosts.get(0).getHost());
+			}
+		}
+		return this;
+	}
+	
+	/**
+	 * @return	The state of every host, in the order they were added.
+	 */
+	public List<HostState> getHostStates(){
+		return Collections.unmodifiableList(hosts);
+	}
+	
+	/**
+	 * @param strategy	Chooses the host of each request.
+	 * @return			Returns current instance of connection.
+	 */
+	public MultiHostConnection setHostSelectionStrategy(HostSelectionStrategy strategy){
+		this.strategy = strategy;
+		return this;
+	}
+	public HostSelectionStrategy getHostSelectionStrategy(){
+		return strategy;
+	}
+	
+	/**
+	 * Sets the circuit breaker of hosts added from now on. Call before adding hosts, or use the
+	 * empty constructor.
+	 * 
+	 * @param failureThreshold	Consecutive failures after which a host is ejected.
+	 * @param openMS			Time a host stays ejected before a probe request is let through.
+	 * @return					Returns current instance of connection.
+	 */
+	public synchronized MultiHostConnection setCircuitBreaker(int failureThreshold, long openMS){
+		this.failureThreshold = failureThreshold;
+		this.openMS = openMS;
+		return this;
+	}
+	
+	@Override
+	protected HttpHost selectHost(String requestKey){
+		List<HostState> candidates = new ArrayList<HostState>(hosts.size());
+		for(HostState h: hosts){
+			if(h.isSelectable()){
+				candidates.add(h);
+			}
+		}
+		//A host may be claimed by another request between the two checks, most often an 
+		//ejected host whose single probe was already taken; choose again without it.
+		while(!candidates.isEmpty()){
+			HostState chosen = strategy.select(candidates, requestKey);
+			if(chosen.tryAcquire()){
+				return chosen.getHost();
+			}
+			candidates.remove(chosen);
+		}
+		throw new NoHostAvailableException();
+	}
+	
+	@Override
+	protected void onRequestComplete(HttpHost host, long latencyNanos, int status, Throwable failure){
+		HostState state = getHostState(host);
+		if(state == null){
+			return;
+		}
+		Throwable cause = failure instanceof CompletionException && failure.getCause() != null
+				? failure.getCause() : failure;
+		if(cause instanceof CancellationException){
+			//Cancelled by the caller or by a winning hedge: says nothing of the host.
+			state.release();
+			return;
+		}
+		state.onComplete(latencyNanos, status < 500 && (status != 0 || cause == null));
+	}
+	
+	private HostState getHostState(HttpHost host){
+		for(HostState h: hosts){
+			if(h.getHost().equals(host)){
+				return h;
+			}
+		}
+		return null;
+	}
+}
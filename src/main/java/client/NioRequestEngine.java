@@ -0,0 +1,144 @@
+/*   
+  	This file is part of JSON Web Framework.
+
+    JSON Web Framework is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    JSON Web Framework is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with JSON Web Framework.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package client;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.CredentialsProvider;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.pool.PoolStats;
+
+import functions.ExecutorFunctions;
+
+/**
+ * @author Yiqi (Eric) Hou
+ *
+ * <p>
+ * A RequestEngine built on Apache's event-driven HttpAsyncClient. A small number of I/O
+ * reactor threads multiplex every socket of the pool, so thousands of requests can be in
+ * flight without a thread each. Responses are inflated and decoded on the engine's worker
+ * threads to keep the I/O threads free.
+ */
+class NioRequestEngine implements RequestEngine {
+	private final PoolingNHttpClientConnectionManager connectionManager;
+	private final CloseableHttpAsyncClient httpClient;
+	private final ExecutorService workerExecutor;
+	private final ScheduledExecutorService evictor;
+	
+	NioRequestEngine(ConnectionOptions options, CredentialsProvider credentialsProvider) 
+			throws IOReactorException{
+		IOReactorConfig reactorConfig = IOReactorConfig.custom()
+				.setIoThreadCount(options.getIoThreadCount())
+				.setConnectTimeout(options.getConnectTimeoutMS())
+				.setSoTimeout(options.getSocketTimeoutMS())
+				.build();
+		connectionManager = new PoolingNHttpClientConnectionManager(
+				new DefaultConnectingIOReactor(reactorConfig));
+		connectionManager.setMaxTotal(options.getMaxConnectionsTotal());
+		connectionManager.setDefaultMaxPerRoute(options.getMaxConnectionsPerRoute());
+		httpClient = HttpAsyncClients.custom()
+				.setConnectionManager(connectionManager)
+				.setDefaultRequestConfig(BlockingRequestEngine.createRequestConfig(options))
+				.setDefaultCredentialsProvider(credentialsProvider)
+				.build();
+		httpClient.start();
+		workerExecutor = ExecutorFunctions.newWorkerPool("connection-decoder", options.getWorkerThreads());
+		evictor = ExecutorFunctions.newScheduler("connection-evictor");
+		final long maxIdleTimeMS = options.getMaxIdleTimeMS();
+		if(maxIdleTimeMS > 0){
+			evictor.scheduleWithFixedDelay(() -> {
+				connectionManager.closeExpiredConnections();
+				connectionManager.closeIdleConnections(maxIdleTimeMS, TimeUnit.MILLISECONDS);
+			}, maxIdleTimeMS, maxIdleTimeMS, TimeUnit.MILLISECONDS);
+		}
+	}
+	
+	@Override
+	public <T> CompletableFuture<T> execute(final HttpHost target, final HttpRequestBase request, 
+			final HttpClientContext context, final ResponseDecoder<T> decoder){
+		final CompletableFuture<T> result = new CompletableFuture<T>();
+		if(!request.containsHeader("Accept-Encoding")){
+			request.addHeader("Accept-Encoding", "gzip,deflate");
+		}
+		final Future<HttpResponse> exchange = httpClient.execute(target, request, context, 
+				new FutureCallback<HttpResponse>(){
+			@Override
+			public void completed(final HttpResponse response){
+				try{
+					workerExecutor.execute(() -> {
+						try{
+							ResponseDecoders.inflate(response);
+							result.complete(decoder.decode(response));
+						}catch(Exception e){
+							result.completeExceptionally(e);
+						}
+					});
+				}catch(RejectedExecutionException e){
+					result.completeExceptionally(e);
+				}
+			}
+			@Override
+			public void failed(Exception e){
+				result.completeExceptionally(e);
+			}
+			@Override
+			public void cancelled(){
+				result.cancel(false);
+			}
+		});
+		result.whenComplete((r, e) -> {
+			if(result.isCancelled()){
+				exchange.cancel(true);
+			}
+		});
+		return result;
+	}
+	
+	@Override
+	public PoolStats getPoolStats(){
+		return connectionManager.getTotalStats();
+	}
+	
+	@Override
+	public void shutDown(){
+		evictor.shutdownNow();
+		workerExecutor.shutdown();
+		try{
+			httpClient.close();
+		}catch(IOException e){
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,103 @@
+/*   
+  	This file is part of JSON Web Framework.
+
+    JSON Web Framework is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    JSON Web Framework is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with JSON Web Framework.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package client;
+
+/**
+ * @author Yiqi (Eric) Hou
+ *
+ * <p>
+ * What a JsonClient does when it holds as many events as its limit, see
+ * {@link JsonClient#setEventLimit(int)} and {@link JsonClient#setOverloadOptions(OverloadOptions)}.
+ * Every event dropped by a policy is aborted, and counted in the client's metrics.
+ */
+public class OverloadOptions {
+	
+	/**
+	 * BLOCK makes the thread adding an event wait for room, up to the block timeout, and 
+	 * rejects the event if none is made. REJECT aborts a new event at once when the client is
+	 * full. SHED_LOWEST accepts the new event and aborts the lowest priority held event, the
+	 * oldest first among equal priorities. SHED_OLDEST accepts the new event and aborts the
+	 * oldest held event. CODEL sheds the oldest event past the limit, and while events have
+	 * waited for a thread longer than the target for a whole interval, aborts events as they
+	 * are picked up, at a rate that rises until their wait falls back under the target.
+	 */
+	public enum Policy {BLOCK, REJECT, SHED_LOWEST, SHED_OLDEST, CODEL}
+	
+	private Policy policy = Policy.SHED_LOWEST;
+	private long blockTimeoutMS = 1000;
+	private long targetMS = 500;
+	private long intervalMS = 5000;
+	
+	public OverloadOptions(){
+	}
+	
+	/**
+	 * @param policy	What happens to events over the limit.
+	 * @return			Returns current instance of options.
+	 */
+	public OverloadOptions setPolicy(Policy policy){
+		this.policy = policy;
+		return this;
+	}
+	public Policy getPolicy(){
+		return policy;
+	}
+	
+	/**
+	 * Under BLOCK, the thread adding the event may be the one completing the futures of held
+	 * events when they run on the caller, so the timeout should stay short.
+	 * 
+	 * @param ms	Time the BLOCK policy waits for room before it rejects an event.
+	 * @return		Returns current instance of options.
+	 */
+	public OverloadOptions setBlockTimeoutMS(long ms){
+		blockTimeoutMS = ms;
+		return this;
+	}
+	public long getBlockTimeoutMS(){
+		return blockTimeoutMS;
+	}
+	
+	/**
+	 * @param ms	Time an event may wait for a thread, from the completion of its future to
+	 * 					being picked up by the EventExecutor, before the CODEL policy counts it
+	 * 					as late. The time taken by the request is not counted.
+	 * @return		Returns current instance of options.
+	 */
+	public OverloadOptions setTargetMS(long ms){
+		targetMS = ms;
+		return this;
+	}
+	public long getTargetMS(){
+		return targetMS;
+	}
+	
+	/**
+	 * @param ms	Time events must stay late before the CODEL policy starts dropping them, and
+	 * 					the initial time between two drops.
+	 * @return		Returns current instance of options.
+	 */
+	public OverloadOptions setIntervalMS(long ms){
+		intervalMS = ms;
+		return this;
+	}
+	public long getIntervalMS(){
+		return intervalMS;
+	}
+}
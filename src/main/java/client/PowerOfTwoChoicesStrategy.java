@@ -0,0 +1,54 @@
+/*   
+  	This file is part of JSON Web Framework.
+
+    JSON Web Framework is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    JSON Web Framework is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with JSON Web Framework.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package client;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * @author Yiqi (Eric) Hou
+ *
+ * <p>
+ * Picks two hosts at random and sends the request to the one with fewer requests in flight.
+ * Avoids overloaded hosts nearly as well as picking the least loaded host overall, without
+ * every client herding onto the same host.
+ */
+public class PowerOfTwoChoicesStrategy implements HostSelectionStrategy {
+	
+	@Override
+	public HostState select(List<HostState> candidates, String requestKey){
+		int n = candidates.size();
+		if(n == 1){
+			return candidates.get(0);
+		}
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		int i = random.nextInt(n);
+		int j = random.nextInt(n - 1);
+		if(j >= i){
+			j++;
+		}
+		HostState a = candidates.get(i);
+		HostState b = candidates.get(j);
+		return cost(a) <= cost(b) ? a : b;
+	}
+	
+	protected double cost(HostState h){
+		return h.getInFlight();
+	}
+}
@@ -0,0 +1,35 @@
+/*   
+  	This file is part of JSON Web Framework.
+
+    JSON Web Framework is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    JSON Web Framework is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with JSON Web Framework.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package client;
+
+/**
+ * @author Yiqi (Eric) Hou
+ *
+ * <p>
+ * Receives the messages of a push subscription, see 
+ * {@link Connection#subscribe(String, PushListener)}. Messages are delivered one at a time,
+ * in the order the server sent them, on the subscription's dispatch thread.
+ */
+public interface PushListener {
+	/**
+	 * @param id	The event ID of the message, or null if the server gave none.
+	 * @param data	The data of the message.
+	 */
+	public abstract void onMessage(String id, String data);
+}
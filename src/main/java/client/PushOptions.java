@@ -0,0 +1,98 @@
+/*   
+  	This file is part of JSON Web Framework.
+
+    JSON Web Framework is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    JSON Web Framework is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with JSON Web Framework.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package client;
+
+/**
+ * @author Yiqi (Eric) Hou
+ *
+ * <p>
+ * Settings for a push subscription, see {@link Connection#subscribe(String, PushListener, PushOptions)}.
+ */
+public class PushOptions {
+	private int bufferCapacity = 1000;
+	private long reconnectDelayMS = 1000;
+	private long maxReconnectDelayMS = 30000;
+	private int readTimeoutMS = 60000;
+	private String lastEventId = null;
+	
+	public PushOptions(){
+	}
+	
+	/**
+	 * @param capacity	Number of messages received but not yet delivered to the listener. When
+	 * 						the buffer is full, the subscription stops reading from the socket
+	 * 						until the listener catches up.
+	 * @return			Returns current instance of options.
+	 */
+	public PushOptions setBufferCapacity(int capacity){
+		bufferCapacity = capacity;
+		return this;
+	}
+	public int getBufferCapacity(){
+		return bufferCapacity;
+	}
+	
+	/**
+	 * @param ms	Time waited before the first attempt to reopen a lost stream. The wait 
+	 * 					doubles with each failed attempt. A server may change it with a retry
+	 * 					field.
+	 * @return		Returns current instance of options.
+	 */
+	public PushOptions setReconnectDelayMS(long ms){
+		reconnectDelayMS = ms;
+		return this;
+	}
+	public long getReconnectDelayMS(){
+		return reconnectDelayMS;
+	}
+	
+	public PushOptions setMaxReconnectDelayMS(long ms){
+		maxReconnectDelayMS = ms;
+		return this;
+	}
+	public long getMaxReconnectDelayMS(){
+		return maxReconnectDelayMS;
+	}
+	
+	/**
+	 * @param ms	Time the stream may stay silent before it is considered lost and reopened.
+	 * 					Should be well above the heartbeat period of the server.
+	 * @return		Returns current instance of options.
+	 */
+	public PushOptions setReadTimeoutMS(int ms){
+		readTimeoutMS = ms;
+		return this;
+	}
+	public int getReadTimeoutMS(){
+		return readTimeoutMS;
+	}
+	
+	/**
+	 * @param id	ID of the last message processed by a previous subscription, so that the
+	 * 					server resends the messages after it.
+	 * @return		Returns current instance of options.
+	 */
+	public PushOptions setLastEventId(String id){
+		lastEventId = id;
+		return this;
+	}
+	public String getLastEventId(){
+		return lastEventId;
+	}
+}
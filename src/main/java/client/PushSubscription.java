@@ -0,0 +1,280 @@
+/*   
+  	This file is part of JSON Web Framework.
+
+    JSON Web Framework is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    JSON Web Framework is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with JSON Web Framework.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package client;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.http.HttpHost;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.BasicHttpClientConnectionManager;
+
+import functions.ExecutorFunctions;
+import structures.HostNotValidException;
+import structures.RequestFailedException;
+
+/**
+ * @author Yiqi (Eric) Hou
+ *
+ * <p>
+ * A long-lived stream of messages pushed by a server, read in the text/event-stream format
+ * that {@link server.PushServlet} writes. The subscription holds one socket of its own, 
+ * outside the pool of its Connection, and a reader thread parsing the stream. Messages wait
+ * in a bounded buffer for the dispatch thread, which hands them to the listener.
+ * 
+ * <p>
+ * A lost stream is reopened with a growing delay, sending the ID of the last message read in
+ * the Last-Event-ID header, so that the server resends what was missed.
+ */
+public class PushSubscription {
+	public static final String LAST_EVENT_ID = "Last-Event-ID";
+	
+	private final Connection connection;
+	private final String extensionName;
+	private final PushListener listener;
+	private final PushOptions options;
+	private final BlockingQueue<Message> buffer;
+	private final CloseableHttpClient httpClient;
+	private final Thread reader;
+	private final Thread dispatcher;
+	private volatile String lastEventId;
+	private volatile String lastDeliveredEventId;
+	private volatile long reconnectDelayMS;
+	private volatile HttpGet current;
+	private volatile boolean connected = false;
+	private volatile boolean closed = false;
+	private final LongAdder received = new LongAdder();
+	private final LongAdder reconnects = new LongAdder();
+	
+	PushSubscription(Connection connection, String extensionName, PushListener listener, 
+			PushOptions options){
+		this.connection = connection;
+		this.extensionName = extensionName;
+		this.listener = listener;
+		this.options = options;
+		buffer = new ArrayBlockingQueue<Message>(options.getBufferCapacity());
+		lastEventId = options.getLastEventId();
+		lastDeliveredEventId = lastEventId;
+		reconnectDelayMS = options.getReconnectDelayMS();
+		//Responses are not compressed, so that each message is read as soon as it arrives
+		httpClient = HttpClientBuilder.create()
+				.setConnectionManager(new BasicHttpClientConnectionManager())
+				.setDefaultCredentialsProvider(connection.getCredentialsProvider())
+				.setDefaultRequestConfig(RequestConfig.custom()
+						.setConnectTimeout(connection.getConnectionOptions().getConnectTimeoutMS())
+						.setSocketTimeout(options.getReadTimeoutMS())
+						.build())
+				.disableContentCompression()
+				.build();
+		reader = ExecutorFunctions.daemonThreadFactory("push-reader-" + extensionName).newThread(this::read);
+		dispatcher = ExecutorFunctions.daemonThreadFactory("push-dispatch-" + extensionName).newThread(this::dispatch);
+	}
+	
+	void start(){
+		dispatcher.start();
+		reader.start();
+	}
+	
+	/**
+	 * Closes the stream. Messages still in the buffer are not delivered; pass 
+	 * {@link #getLastDeliveredEventId()} to the next subscription to receive them again.
+	 */
+	public void close(){
+		closed = true;
+		HttpGet get = current;
+		if(get != null){
+			get.abort();
+		}
+		reader.interrupt();
+		dispatcher.interrupt();
+		try{
+			httpClient.close();
+		}catch(IOException e){
+			e.printStackTrace();
+		}
+	}
+	public boolean isClosed(){
+		return closed;
+	}
+	
+	/**
+	 * @return	Whether the stream is open. False while it is being reopened.
+	 */
+	public boolean isConnected(){
+		return connected;
+	}
+	
+	/**
+	 * @return	ID of the last message read from the stream.
+	 */
+	public String getLastEventId(){
+		return lastEventId;
+	}
+	
+	/**
+	 * @return	ID of the last message handed to the listener.
+	 */
+	public String getLastDeliveredEventId(){
+		return lastDeliveredEventId;
+	}
+	public int getBuffered(){
+		return buffer.size();
+	}
+	public long getReceivedCount(){
+		return received.sum();
+	}
+	public long getReconnectCount(){
+		return reconnects.sum();
+	}
+	
+	private void read(){
+		long delay = reconnectDelayMS;
+		while(!closed){
+			try{
+				HttpHost host = connection.getHost();
+				if(host == null){
+					throw new HostNotValidException();
+				}
+				HttpGet get = connection.createGet(extensionName, null);
+				get.setHeader("Accept", "text/event-stream");
+				get.setHeader("Cache-Control", "no-cache");
+				if(lastEventId != null){
+					get.setHeader(LAST_EVENT_ID, lastEventId);
+				}
+				current = get;
+				try(CloseableHttpResponse response = httpClient.execute(host, get, HttpClientContext.create())){
+					int status = response.getStatusLine().getStatusCode();
+					if(status != 200){
+						throw new RequestFailedException(status, response.getStatusLine().getReasonPhrase());
+					}
+					connected = true;
+					delay = reconnectDelayMS;
+					readStream(response.getEntity().getContent());
+				}
+			}catch(InterruptedException e){
+				break;
+			}catch(Exception e){
+				if(!closed){
+					System.out.println("Push stream of " + extensionName + " lost: " + e);
+				}
+			}
+			connected = false;
+			if(closed){
+				break;
+			}
+			reconnects.increment();
+			try{
+				Thread.sleep(delay);
+			}catch(InterruptedException e){
+				break;
+			}
+			delay = Math.min(delay * 2, options.getMaxReconnectDelayMS());
+		}
+	}
+	
+	//Parses the event stream: a message is the data lines before an empty line; the id field
+	//names it, the retry field sets the reconnect delay and lines starting with ':' are comments.
+	void readStream(InputStream in) throws IOException, InterruptedException{
+		BufferedReader lines = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+		StringBuilder data = null;
+		String line;
+		while((line = lines.readLine()) != null){
+			if(line.isEmpty()){
+				if(data != null){
+					received.increment();
+					buffer.put(new Message(lastEventId, data.toString()));
+					data = null;
+				}
+				continue;
+			}
+			if(line.charAt(0) == ':'){
+				continue;
+			}
+			int colon = line.indexOf(':');
+			String field = colon < 0 ? line : line.substring(0, colon);
+			String value = colon < 0 ? "" : line.substring(colon + 1);
+			if(value.startsWith(" ")){
+				value = value.substring(1);
+			}
+			switch(field){
+				case "data":
+					if(data == null){
+						data = new StringBuilder(value);
+					}else{
+						data.append('\n').append(value);
+					}
+					break;
+				case "id":
+					lastEventId = value;
+					break;
+				case "retry":
+					try{
+						reconnectDelayMS = Long.parseLong(value.trim());
+					}catch(NumberFormatException e){
+					}
+					break;
+				default:
+					break;
+			}
+		}
+	}
+	
+	//The next message waiting for the dispatch thread, or null
+	Message pollBuffered(){
+		return buffer.poll();
+	}
+	
+	private void dispatch(){
+		while(!closed){
+			Message m;
+			try{
+				m = buffer.take();
+			}catch(InterruptedException e){
+				return;
+			}
+			try{
+				listener.onMessage(m.id, m.data);
+			}catch(Exception e){
+				e.printStackTrace();
+			}
+			lastDeliveredEventId = m.id;
+		}
+	}
+	
+	static final class Message {
+		final String id;
+		final String data;
+		
+		Message(String id, String data){
+			this.id = id;
+			this.data = data;
+		}
+	}
+}
@@ -0,0 +1,181 @@
+/*   
+  	This file is part of JSON Web Framework.
+
+    JSON Web Framework is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    JSON Web Framework is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with JSON Web Framework.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+import functions.ExecutorFunctions;
+import functions.JsonFunctions;
+import server.JsonListenerServlet;
+import structures.RequestFailedException;
+
+/**
+ * @author Yiqi (Eric) Hou
+ *
+ * <p>
+ * Gathers the calls made to one URI extension of a Connection and sends them as a single
+ * POST whose body is a JSON array envelope. Each element of the envelope names the HTTP method
+ * of the call and carries its body as a JSON string, so that any body, JSON or not, reaches
+ * the ServerEvent exactly as it would unbatched. The JsonListenerServlet of the extension 
+ * dispatches each element to its ServerEvent and answers with an array holding the status and
+ * the result, also as a JSON string, of each call in the same order, which is fanned back out
+ * to the future of each call.
+ */
+class RequestBatcher {
+	private static final ScheduledExecutorService flusher = 
+			ExecutorFunctions.newScheduler("batch-flusher");
+	
+	private final Connection connection;
+	private final String extensionName;
+	private final BatchOptions options;
+	
+	private List<CompletableFuture<String>> pendingResults = new ArrayList<CompletableFuture<String>>();
+	private StringBuilder pendingEnvelope = new StringBuilder();
+	private ScheduledFuture<?> scheduledFlush;
+	
+	RequestBatcher(Connection connection, String extensionName, BatchOptions options){
+		this.connection = connection;
+		this.extensionName = extensionName;
+		this.options = options;
+	}
+	
+	/**
+	 * Adds a call to the current batch.
+	 * 
+	 * @param method	The HTTP method of the call.
+	 * @param body		The body of the call, or null if it has none.
+	 * @return			A future completed with the response body of the call once the batch
+	 * 						holding it is answered.
+	 */
+	CompletableFuture<String> submit(String method, String body){
+		CompletableFuture<String> result = new CompletableFuture<String>();
+		synchronized(this){
+			if(!pendingResults.isEmpty() 
+					&& body != null && pendingEnvelope.length() + body.length() > options.getMaxBytes()){
+				flush();
+			}
+			pendingEnvelope.append(pendingResults.isEmpty() ? '[' : ',')
+					.append("{\"method\":\"").append(method).append("\",\"body\":")
+					.append(body == null || body.isEmpty() ? "null" : new JsonPrimitive(body).toString())
+					.append('}');
+			pendingResults.add(result);
+			if(pendingResults.size() >= options.getMaxCalls() 
+					|| pendingEnvelope.length() >= options.getMaxBytes()){
+				flush();
+			}else if(scheduledFlush == null){
+				scheduleFlush();
+			}
+		}
+		return result;
+	}
+	
+	//Must be called while holding this batcher's monitor, which the task needs before it reads self
+	private void scheduleFlush(){
+		final ScheduledFuture<?>[] self = new ScheduledFuture<?>[1];
+		self[0] = flusher.schedule(() -> {
+			synchronized(RequestBatcher.this){
+				//A task cancelled while it waited on the monitor belongs to a batch already sent
+				if(scheduledFlush != self[0]){
+					return;
+				}
+				flush();
+			}
+		}, options.getWindowMS(), TimeUnit.MILLISECONDS);
+		scheduledFlush = self[0];
+	}
+	
+	//Sends the current batch. Must be called while holding this batcher's monitor.
+	private void flush(){
+		if(scheduledFlush != null){
+			scheduledFlush.cancel(false);
+			scheduledFlush = null;
+		}
+		if(pendingResults.isEmpty()){
+			return;
+		}
+		final List<CompletableFuture<String>> results = pendingResults;
+		String envelope = pendingEnvelope.append(']').toString();
+		pendingResults = new ArrayList<CompletableFuture<String>>();
+		pendingEnvelope = new StringBuilder();
+		
+		try{
+			connection.httpPostAsync(extensionName, envelope, 
+					new HttpOptions(JsonListenerServlet.BATCH_HEADER, "true"))
+				.whenComplete((response, e) -> {
+					if(e != null){
+						failAll(results, e);
+						return;
+					}
+					fanOut(results, response);
+				});
+		}catch(RuntimeException e){
+			//Thrown before the batch was sent, by the engine or a rejecting executor
+			failAll(results, e);
+		}
+	}
+	
+	/**
+	 * Completes the future of each call with its entry of a batch response. An entry that is
+	 * missing or cannot be read fails only the call it answers.
+	 * 
+	 * @param results	Futures of the calls of the batch, in the order they were sent.
+	 * @param response	The body of the batch response.
+	 */
+	static void fanOut(List<CompletableFuture<String>> results, String response){
+		try{
+			JsonArray answers = JsonFunctions.jsonToArray(response);
+			for(int i = 0; i < results.size() && i < answers.size(); i++){
+				try{
+					JsonObject answer = answers.get(i).getAsJsonObject();
+					int status = answer.get("status").getAsInt();
+					JsonElement body = answer.get("body");
+					if(status >= 200 && status < 300){
+						results.get(i).complete(body == null || body.isJsonNull() ? null : body.getAsString());
+					}else{
+						results.get(i).completeExceptionally(
+								new RequestFailedException(status, "Batched call failed"));
+					}
+				}catch(RuntimeException e){
+					results.get(i).completeExceptionally(
+							new RequestFailedException(500, "Malformed result in batch response: " + e));
+				}
+			}
+		}catch(RuntimeException e){
+			failAll(results, e);
+		}
+		//Calls without an answer, whether the response was short or could not be read at all
+		failAll(results, new RequestFailedException(500, "Missing result in batch response"));
+	}
+	
+	private static void failAll(List<CompletableFuture<String>> results, Throwable e){
+		for(CompletableFuture<String> r: results){
+			r.completeExceptionally(e);
+		}
+	}
+}
@@ -0,0 +1,60 @@
+/*   
+  	This file is part of JSON Web Framework.
+
+    JSON Web Framework is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    JSON Web Framework is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with JSON Web Framework.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package client;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.http.HttpHost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.pool.PoolStats;
+
+/**
+ * @author Yiqi (Eric) Hou
+ *
+ * <p>
+ * The transport that carries the requests of a Connection. An engine owns its HTTP client and
+ * socket pool, runs a request and hands the response to a decoder, and completes the returned
+ * future with the decoded result or with the failure.
+ */
+interface RequestEngine {
+	
+	/**
+	 * Sends the request. Never blocks the caller on network I/O.
+	 * 
+	 * @param target	The host the request is sent to.
+	 * @param request	The request to be sent. Its URI is relative to the target.
+	 * @param context	The per-request context, holding authentication state.
+	 * @param decoder	Turns the response into the result of the returned future.
+	 * @return			A future completed with the decoded response, or exceptionally if the
+	 * 						request or the decoding fails. Cancelling it aborts the request.
+	 */
+	<T> CompletableFuture<T> execute(HttpHost target, HttpRequestBase request, 
+			HttpClientContext context, ResponseDecoder<T> decoder);
+	
+	/**
+	 * @return	The leased, idle and pending sockets of this engine's pool.
+	 */
+	PoolStats getPoolStats();
+	
+	/**
+	 * Closes the client and every socket held by this engine.
+	 */
+	void shutDown();
+}
@@ -0,0 +1,284 @@
+/*   
+  	This file is part of JSON Web Framework.
+
+    JSON Web Framework is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    JSON Web Framework is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with JSON Web Framework.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package client;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import functions.ExecutorFunctions;
+import structures.DeadlineExceededException;
+import structures.LimitExceededException;
+
+/**
+ * @author Yiqi (Eric) Hou
+ *
+ * <p>
+ * The rate and concurrency limiter of a Connection, built from its {@link LimitOptions}. Each
+ * request acquires a permit before it is sent and releases it when it completes, reporting
+ * its latency to the adaptive limit. Requests over the limit wait in a priority queue or fail
+ * fast, depending on the policy. The queue is ordered by priority or by deadline, see 
+ * {@link LimitOptions.Order}; a queued request whose deadline passes leaves the queue with a
+ * DeadlineExceededException.
+ */
+public class RequestLimiter {
+	private static final CompletableFuture<Void> GRANTED = CompletableFuture.completedFuture(null);
+	private static final long MIN_RTT_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(30);
+	private static final ScheduledExecutorService timer = ExecutorFunctions.newScheduler("limiter-timer");
+	
+	private final LimitOptions options;
+	private final PriorityQueue<Waiter> queue;
+	private long sequence = 0;
+	private boolean drainScheduled = false;
+	
+	private double tokens;
+	private long refilledNanos = System.nanoTime();
+	private double limit;
+	private int inFlight = 0;
+	private long minRttNanos = Long.MAX_VALUE;
+	private long minRttResetNanos = System.nanoTime() + MIN_RTT_WINDOW_NANOS;
+	private long lastDecreaseNanos = 0;
+	private long rejected = 0;
+	
+	RequestLimiter(LimitOptions options){
+		this.options = options;
+		tokens = options.getBurst();
+		limit = options.getMaxConcurrency();
+		queue = new PriorityQueue<Waiter>(11, options.getOrder() == LimitOptions.Order.DEADLINE 
+				? DEADLINE_ORDER : PRIORITY_ORDER);
+	}
+	
+	/**
+	 * Acquires a permit to send a request. The returned future completes once the request may
+	 * be sent, or fails with a LimitExceededException. Cancelling it gives up the place in the
+	 * queue.
+	 * 
+	 * @param priority		Priority of the request; higher priorities leave the queue first.
+	 * @param deadlineMS	Deadline of the request in epoch milliseconds, or -1 for none.
+	 */
+	CompletableFuture<Void> acquire(int priority, long deadlineMS){
+		final Waiter waiter;
+		synchronized(this){
+			if(queue.isEmpty() && tryTake()){
+				return GRANTED;
+			}
+			if(options.getPolicy() == LimitOptions.Policy.FAIL_FAST || queue.size() >= options.getMaxQueued()){
+				rejected++;
+				CompletableFuture<Void> failed = new CompletableFuture<Void>();
+				failed.completeExceptionally(new LimitExceededException(queue.isEmpty() 
+						? "Request over the limit of its connection." 
+						: "Request queue of the connection is full."));
+				return failed;
+			}
+			waiter = new Waiter(priority, deadlineMS, 
+					deadlineMS < 0 ? Long.MAX_VALUE : deadlineMS - priority * options.getPriorityWeightMS(), 
+					sequence++);
+			queue.add(waiter);
+			scheduleDrainIfRateLimited();
+		}
+		if(deadlineMS >= 0){
+			waiter.expiry = timer.schedule(() -> expire(waiter), 
+					Math.max(0, deadlineMS - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+		}
+		waiter.permit.whenComplete((v, e) -> {
+			if(waiter.expiry != null){
+				waiter.expiry.cancel(false);
+			}
+			if(waiter.permit.isCancelled()){
+				synchronized(RequestLimiter.this){
+					queue.remove(waiter);
+				}
+			}
+		});
+		return waiter.permit;
+	}
+	
+	private void expire(Waiter waiter){
+		synchronized(this){
+			if(!queue.remove(waiter)){
+				return;
+			}
+		}
+		waiter.permit.completeExceptionally(
+				new DeadlineExceededException("Request deadline passed while it waited for the limit."));
+	}
+	
+	/**
+	 * Releases the permit of a completed request and lets queued requests through.
+	 * 
+	 * @param latencyNanos	Time the request took, or -1 if it says nothing of the host, such
+	 * 							as a cancelled request.
+	 * @param overloaded	Whether the host signalled overload: 429, 503 or a timeout.
+	 */
+	void release(long latencyNanos, boolean overloaded){
+		synchronized(this){
+			inFlight--;
+			if(options.isAdaptive() && latencyNanos >= 0){
+				adapt(latencyNanos, overloaded);
+			}
+		}
+		drain();
+	}
+	
+	public synchronized int getLimit(){
+		return (int) limit;
+	}
+	public synchronized int getInFlight(){
+		return inFlight;
+	}
+	public synchronized int getQueued(){
+		return queue.size();
+	}
+	public synchronized long getRejected(){
+		return rejected;
+	}
+	
+	//Additive increase while latency stays near the lowest seen, multiplicative decrease at
+	//most once per round trip when it does not.
+	private void adapt(long latencyNanos, boolean overloaded){
+		long now = System.nanoTime();
+		if(latencyNanos < minRttNanos || now - minRttResetNanos > 0){
+			minRttNanos = latencyNanos;
+			minRttResetNanos = now + MIN_RTT_WINDOW_NANOS;
+		}
+		if(overloaded || latencyNanos > minRttNanos * options.getLatencyTolerance()){
+			if(now - lastDecreaseNanos > minRttNanos){
+				limit = Math.max(options.getMinConcurrency(), limit * 0.9);
+				lastDecreaseNanos = now;
+			}
+		}else if(inFlight + 1 >= limit / 2){
+			limit = Math.min(options.getMaxConcurrency(), limit + 1 / limit);
+		}
+	}
+	
+	//Grants permits to queued requests in queue order, dropping those past their deadline. The
+	//permits are completed outside the lock, since completing one sends its request.
+	private void drain(){
+		List<Waiter> granted = null;
+		List<Waiter> expired = null;
+		synchronized(this){
+			long now = System.currentTimeMillis();
+			while(!queue.isEmpty()){
+				Waiter next = queue.peek();
+				if(next.deadlineMS >= 0 && next.deadlineMS <= now){
+					if(expired == null){
+						expired = new ArrayList<Waiter>();
+					}
+					expired.add(queue.poll());
+					continue;
+				}
+				if(!tryTake()){
+					break;
+				}
+				if(granted == null){
+					granted = new ArrayList<Waiter>();
+				}
+				granted.add(queue.poll());
+			}
+			scheduleDrainIfRateLimited();
+		}
+		if(expired != null){
+			for(Waiter w: expired){
+				w.permit.completeExceptionally(
+						new DeadlineExceededException("Request deadline passed while it waited for the limit."));
+			}
+		}
+		if(granted != null){
+			for(Waiter w: granted){
+				if(!w.permit.complete(null)){
+					//Cancelled after it was granted
+					release(-1, false);
+				}
+			}
+		}
+	}
+	
+	private boolean tryTake(){
+		if(options.getMaxConcurrency() > 0 && inFlight >= (int) limit){
+			return false;
+		}
+		if(options.getRatePerSecond() > 0){
+			refill();
+			if(tokens < 1){
+				return false;
+			}
+			tokens--;
+		}
+		inFlight++;
+		return true;
+	}
+	
+	private void refill(){
+		long now = System.nanoTime();
+		tokens = Math.min(options.getBurst(), 
+				tokens + (now - refilledNanos) / 1e9 * options.getRatePerSecond());
+		refilledNanos = now;
+	}
+	
+	//Queued requests held back by the token bucket are not woken by a release, so a drain is
+	//scheduled for when the next token arrives.
+	private void scheduleDrainIfRateLimited(){
+		if(drainScheduled || queue.isEmpty() || options.getRatePerSecond() <= 0 || tokens >= 1){
+			return;
+		}
+		drainScheduled = true;
+		long delayMicros = (long) Math.ceil((1 - tokens) / options.getRatePerSecond() * 1e6);
+		timer.schedule(() -> {
+			synchronized(RequestLimiter.this){
+				drainScheduled = false;
+			}
+			drain();
+		}, Math.max(1, delayMicros), TimeUnit.MICROSECONDS);
+	}
+	
+	private static final Comparator<Waiter> PRIORITY_ORDER = (a, b) -> {
+		if(a.priority != b.priority){
+			return a.priority > b.priority ? -1 : 1;
+		}
+		return Long.compare(a.sequence, b.sequence);
+	};
+	private static final Comparator<Waiter> DEADLINE_ORDER = (a, b) -> {
+		if(a.effectiveDeadlineMS != b.effectiveDeadlineMS){
+			return a.effectiveDeadlineMS < b.effectiveDeadlineMS ? -1 : 1;
+		}
+		return PRIORITY_ORDER.compare(a, b);
+	};
+	
+	private static class Waiter {
+		final int priority;
+		final long deadlineMS;
+		//The deadline moved earlier by the priority weight, or Long.MAX_VALUE without deadline
+		final long effectiveDeadlineMS;
+		final long sequence;
+		final CompletableFuture<Void> permit = new CompletableFuture<Void>();
+		volatile ScheduledFuture<?> expiry;
+		
+		Waiter(int priority, long deadlineMS, long effectiveDeadlineMS, long sequence){
+			this.priority = priority;
+			this.deadlineMS = deadlineMS;
+			this.effectiveDeadlineMS = effectiveDeadlineMS;
+			this.sequence = sequence;
+		}
+	}
+}
@@ -0,0 +1,191 @@
+/*   
+  	This file is part of JSON Web Framework.
+
+    JSON Web Framework is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    JSON Web Framework is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with JSON Web Framework.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package client;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.UnknownHostException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.http.NoHttpResponseException;
+
+import com.google.gson.JsonObject;
+
+import structures.DeadlineExceededException;
+import structures.NoHostAvailableException;
+import structures.RequestFailedException;
+
+/**
+ * @author Yiqi (Eric) Hou
+ *
+ * <p>
+ * The metrics of the requests sent with one HTTP method to one extension of a Connection:
+ * a latency histogram, request and byte counters, failures by category and the number of
+ * requests in flight. Every attempt of a retried or hedged call is counted as a request.
+ * Recording is lock-free and never allocates.
+ */
+public class RequestMetrics {
+	
+	/**
+	 * Why a request failed. CLIENT_ERROR and SERVER_ERROR count 4xx and 5xx answers, even
+	 * when the answer was decoded. DECODE counts answers that could not be decoded, LIMITED
+	 * requests refused by the limiter of the Connection before they were sent, EXPIRED requests
+	 * dropped before they were sent because their deadline passed, and OTHER failures before
+	 * sending, such as an engine that was shut down.
+	 */
+	public enum ErrorCategory {TIMEOUT, CONNECT, IO, CLIENT_ERROR, SERVER_ERROR, DECODE, NO_HOST, 
+		LIMITED, EXPIRED, CANCELLED, OTHER}
+	
+	private static final ErrorCategory[] CATEGORIES = ErrorCategory.values();
+	
+	private final LatencyHistogram latency = new LatencyHistogram();
+	private final LongAdder requests = new LongAdder();
+	private final LongAdder bytesSent = new LongAdder();
+	private final LongAdder bytesReceived = new LongAdder();
+	private final LongAdder[] errors = new LongAdder[CATEGORIES.length];
+	private final AtomicInteger inFlight = new AtomicInteger();
+	
+	RequestMetrics(){
+		for(int i = 0; i < errors.length; i++){
+			errors[i] = new LongAdder();
+		}
+	}
+	
+	void onSend(long requestBytes){
+		requests.increment();
+		inFlight.incrementAndGet();
+		if(requestBytes > 0){
+			bytesSent.add(requestBytes);
+		}
+	}
+	
+	//Returns the category of the failure, or null if the request succeeded
+	ErrorCategory onComplete(long latencyNanos, long responseBytes, int status, Throwable failure){
+		inFlight.decrementAndGet();
+		latency.record(latencyNanos / 1000);
+		if(responseBytes > 0){
+			bytesReceived.add(responseBytes);
+		}
+		ErrorCategory category = categorize(status, failure);
+		if(category != null){
+			errors[category.ordinal()].increment();
+		}
+		return category;
+	}
+	
+	/**
+	 * @param failure	Why the request was not sent: a LimitExceededException or a
+	 * 					DeadlineExceededException.
+	 */
+	void onRejected(Throwable failure){
+		errors[(failure instanceof DeadlineExceededException ? ErrorCategory.EXPIRED 
+				: ErrorCategory.LIMITED).ordinal()].increment();
+	}
+	
+	public LatencyHistogram getLatency(){
+		return latency;
+	}
+	public long getRequests(){
+		return requests.sum();
+	}
+	public long getBytesSent(){
+		return bytesSent.sum();
+	}
+	public long getBytesReceived(){
+		return bytesReceived.sum();
+	}
+	public long getErrors(ErrorCategory category){
+		return errors[category.ordinal()].sum();
+	}
+	public int getInFlight(){
+		return inFlight.get();
+	}
+	
+	/**
+	 * @return	The metrics as JSON, with latencies in milliseconds.
+	 */
+	public JsonObject toJson(){
+		JsonObject json = new JsonObject();
+		json.addProperty("requests", getRequests());
+		json.addProperty("in_flight", getInFlight());
+		json.addProperty("bytes_sent", getBytesSent());
+		json.addProperty("bytes_received", getBytesReceived());
+		JsonObject latencyJson = new JsonObject();
+		latencyJson.addProperty("count", latency.getCount());
+		latencyJson.addProperty("mean", latency.getMeanMicros() / 1000);
+		latencyJson.addProperty("p50", latency.getValueAtPercentile(50) / 1000.0);
+		latencyJson.addProperty("p90", latency.getValueAtPercentile(90) / 1000.0);
+		latencyJson.addProperty("p99", latency.getValueAtPercentile(99) / 1000.0);
+		latencyJson.addProperty("p999", latency.getValueAtPercentile(99.9) / 1000.0);
+		latencyJson.addProperty("max", latency.getMaxMicros() / 1000.0);
+		json.add("latency_ms", latencyJson);
+		JsonObject errorsJson = new JsonObject();
+		for(ErrorCategory c: CATEGORIES){
+			errorsJson.addProperty(c.name().toLowerCase(), getErrors(c));
+		}
+		json.add("errors", errorsJson);
+		return json;
+	}
+	
+	/**
+	 * @param status	The HTTP status of the response, or 0 if none was received.
+	 * @param failure	Why the request failed, or null.
+	 * @return			The category of the failure, or null if the request succeeded.
+	 */
+	static ErrorCategory categorize(int status, Throwable failure){
+		while((failure instanceof CompletionException || failure instanceof ExecutionException) 
+				&& failure.getCause() != null){
+			failure = failure.getCause();
+		}
+		if(failure instanceof RequestFailedException){
+			status = ((RequestFailedException) failure).getStatusCode();
+		}
+		if(status >= 500){
+			return ErrorCategory.SERVER_ERROR;
+		}
+		if(status >= 400){
+			return ErrorCategory.CLIENT_ERROR;
+		}
+		if(failure == null){
+			return null;
+		}
+		if(status > 0){
+			return ErrorCategory.DECODE;
+		}
+		if(failure instanceof CancellationException){
+			return ErrorCategory.CANCELLED;
+		}
+		if(failure instanceof NoHostAvailableException){
+			return ErrorCategory.NO_HOST;
+		}
+		if(failure instanceof InterruptedIOException){
+			return ErrorCategory.TIMEOUT;
+		}
+		if(failure instanceof ConnectException || failure instanceof UnknownHostException 
+				|| failure instanceof NoHttpResponseException){
+			return ErrorCategory.CONNECT;
+		}
+		return failure instanceof IOException ? ErrorCategory.IO : ErrorCategory.OTHER;
+	}
+}
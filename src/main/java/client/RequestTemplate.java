@@ -0,0 +1,110 @@
+/*   
+  	This file is part of JSON Web Framework.
+
+    JSON Web Framework is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    JSON Web Framework is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with JSON Web Framework.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package client;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import org.apache.http.Header;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.message.BasicHeader;
+
+import communications.BasicAuthentication;
+
+/**
+ * @author Yiqi (Eric) Hou
+ *
+ * <p>
+ * The precompiled form of one URI extension of a Connection: its parsed, host-relative URI
+ * and the header arrays sent with every request to it, with and without the preemptive
+ * Authorization header. Templates are immutable and built when the extension is added or the
+ * credentials of the Connection change, so a request only copies the template's header
+ * array and sets its URI.
+ */
+final class RequestTemplate {
+	private static final Header JSON_CONTENT_TYPE = new BasicHeader("Content-Type", "application/json");
+	private static final Header[] NO_HEADERS = new Header[0];
+	
+	private final String path;
+	private final URI uri;
+	private final Header[] getHeaders;
+	private final Header[] authorizedGetHeaders;
+	private final Header[] authorizedHeaders;
+	
+	/**
+	 * @param extension	The URI extension, relative to the host of the Connection.
+	 * @param auth		Credentials sent preemptively, or null.
+	 */
+	RequestTemplate(String extension, BasicAuthentication auth){
+		path = extension == null ? "/" : extension.startsWith("/") ? extension : "/" + extension;
+		uri = URI.create(path);
+		getHeaders = new Header[]{JSON_CONTENT_TYPE};
+		if(auth == null){
+			authorizedGetHeaders = getHeaders;
+			authorizedHeaders = NO_HEADERS;
+		}else{
+			Header authorization = createAuthorization(auth);
+			authorizedGetHeaders = new Header[]{JSON_CONTENT_TYPE, authorization};
+			authorizedHeaders = new Header[]{authorization};
+		}
+	}
+	
+	/**
+	 * @return	The host-relative path of the extension, starting with "/".
+	 */
+	String getPath(){
+		return path;
+	}
+	
+	HttpGet newGet(boolean preemptive, HttpOptions httpOptions){
+		return apply(new HttpGet(), preemptive ? authorizedGetHeaders : getHeaders, httpOptions);
+	}
+	HttpPost newPost(boolean preemptive, HttpOptions httpOptions){
+		return apply(new HttpPost(), preemptive ? authorizedHeaders : NO_HEADERS, httpOptions);
+	}
+	HttpPut newPut(boolean preemptive, HttpOptions httpOptions){
+		return apply(new HttpPut(), preemptive ? authorizedHeaders : NO_HEADERS, httpOptions);
+	}
+	HttpDelete newDelete(boolean preemptive, HttpOptions httpOptions){
+		return apply(new HttpDelete(), preemptive ? authorizedHeaders : NO_HEADERS, httpOptions);
+	}
+	
+	private <R extends HttpRequestBase> R apply(R request, Header[] headers, HttpOptions httpOptions){
+		request.setURI(uri);
+		if(headers.length > 0){
+			request.setHeaders(headers);
+		}
+		if(httpOptions != null){
+			for(Header h: httpOptions.getHeaderArray()){
+				request.addHeader(h);
+			}
+		}
+		return request;
+	}
+	
+	private static Header createAuthorization(BasicAuthentication auth){
+		byte[] credentials = (auth.getUser() + ":" + auth.getPass()).getBytes(StandardCharsets.ISO_8859_1);
+		return new BasicHeader("Authorization", "Basic " + Base64.getEncoder().encodeToString(credentials));
+	}
+}
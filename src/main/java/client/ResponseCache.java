@@ -0,0 +1,218 @@
+/*   
+  	This file is part of JSON Web Framework.
+
+    JSON Web Framework is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    JSON Web Framework is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with JSON Web Framework.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package client;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.Header;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.utils.DateUtils;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+
+/**
+ * @author Yiqi (Eric) Hou
+ *
+ * <p>
+ * An in-memory cache of decoded GET responses, placed in front of a Connection. Entries are
+ * keyed by host, URI extension and the headers of the request's HttpOptions, and keep the
+ * decoded Map so a hit skips both the network and the JSON parsing.
+ * 
+ * <p>
+ * Freshness follows the Cache-Control max-age (or Expires) of the response. Stale entries with
+ * an ETag or Last-Modified validator are revalidated with If-None-Match / If-Modified-Since, and
+ * a 304 answer reuses the cached Map. Responses marked no-store are never cached. The cache is
+ * bounded by the size of the cached response bodies and evicts the least recently used entries.
+ * 
+ * <p>
+ * Cached Maps are handed out as unmodifiable views shared between callers. Nested values
+ * must not be modified.
+ */
+public class ResponseCache {
+	private final Cache<String, Entry> entries;
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+	private final AtomicLong revalidatedCount = new AtomicLong();
+	private final AtomicLong evictionCount = new AtomicLong();
+	
+	/**
+	 * Constructor.
+	 * 
+	 * @param maxBytes	Maximum total size of the cached response bodies.
+	 */
+	public ResponseCache(long maxBytes){
+		entries = CacheBuilder.newBuilder()
+				.maximumWeight(maxBytes)
+				.weigher(new Weigher<String, Entry>(){
+					@Override
+					public int weigh(String key, Entry entry){
+						return (int) Math.min(Integer.MAX_VALUE, entry.byteSize + key.length());
+					}
+				})
+				.removalListener(new RemovalListener<String, Entry>(){
+					@Override
+					public void onRemoval(RemovalNotification<String, Entry> notification){
+						if(notification.wasEvicted()){
+							evictionCount.incrementAndGet();
+						}
+					}
+				})
+				.build();
+	}
+	
+	public long getHitCount(){return hitCount.get();}
+	public long getMissCount(){return missCount.get();}
+	
+	/**
+	 * @return	Number of stale entries that the host confirmed unchanged with a 304.
+	 */
+	public long getRevalidatedCount(){return revalidatedCount.get();}
+	public long getEvictionCount(){return evictionCount.get();}
+	public long getEntryCount(){return entries.size();}
+	public void clear(){entries.invalidateAll();}
+	
+	static String createKey(HttpHost host, String extension, HttpOptions httpOptions){
+		StringBuilder key = new StringBuilder(host.toURI()).append(extension);
+		if(httpOptions != null && !httpOptions.headers().isEmpty()){
+			for(Map.Entry<String, String> h: 
+					new TreeMap<String, String>(httpOptions.headers()).entrySet()){
+				key.append('\n').append(h.getKey()).append(':').append(h.getValue());
+			}
+		}
+		return key.toString();
+	}
+	
+	/**
+	 * Looks up an entry, counting a hit if it is fresh.
+	 * 
+	 * @return	The entry, fresh or stale, or null if there is none.
+	 */
+	Entry lookUp(String key){
+		Entry entry = entries.getIfPresent(key);
+		if(entry == null || !entry.isFresh()){
+			missCount.incrementAndGet();
+		}else{
+			hitCount.incrementAndGet();
+		}
+		return entry;
+	}
+	
+	/**
+	 * Reuses a stale entry after the host answered its revalidation with a 304, taking the new
+	 * freshness lifetime from the 304's headers.
+	 * 
+	 * @return	The view of the cached Map.
+	 */
+	Map<String, Object> revalidated(String key, Entry stale, HttpResponse notModified){
+		revalidatedCount.incrementAndGet();
+		Entry refreshed = new Entry(stale.value, stale.byteSize, 
+				stale.eTag, stale.lastModified, getExpiry(notModified));
+		entries.put(key, refreshed);
+		return refreshed.value;
+	}
+	
+	/**
+	 * Stores a decoded response if its headers allow it.
+	 * 
+	 * @return	The view of the Map to hand to the caller.
+	 */
+	Map<String, Object> store(String key, HttpResponse response, Map<String, Object> value, long byteSize){
+		if(value == null || response.getStatusLine().getStatusCode() != 200){
+			return value;
+		}
+		String cacheControl = getHeader(response, "Cache-Control");
+		if(cacheControl != null && cacheControl.toLowerCase().contains("no-store")){
+			return value;
+		}
+		Entry entry = new Entry(Collections.unmodifiableMap(value), byteSize,
+				getHeader(response, "ETag"), getHeader(response, "Last-Modified"), getExpiry(response));
+		if(entry.isFresh() || entry.canRevalidate()){
+			entries.put(key, entry);
+		}
+		return entry.value;
+	}
+	
+	//Returns the time until which a response is fresh. Responses without a lifetime, or 
+	//marked no-cache, are stale immediately and must be revalidated.
+	private static long getExpiry(HttpResponse response){
+		long now = System.currentTimeMillis();
+		String cacheControl = getHeader(response, "Cache-Control");
+		if(cacheControl != null){
+			for(String directive: cacheControl.toLowerCase().split(",")){
+				directive = directive.trim();
+				if(directive.equals("no-cache")){
+					return now;
+				}else if(directive.startsWith("max-age=")){
+					try{
+						return now + 1000 * Long.parseLong(directive.substring(8).trim());
+					}catch(NumberFormatException e){
+						return now;
+					}
+				}
+			}
+		}
+		String expires = getHeader(response, "Expires");
+		if(expires != null){
+			Date expiryDate = DateUtils.parseDate(expires);
+			if(expiryDate != null){
+				return expiryDate.getTime();
+			}
+		}
+		return now;
+	}
+	
+	private static String getHeader(HttpResponse response, String name){
+		Header h = response.getFirstHeader(name);
+		return h == null ? null : h.getValue();
+	}
+	
+	/**
+	 * A cached decoded response with its validators and freshness lifetime.
+	 */
+	static class Entry{
+		final Map<String, Object> value;
+		final long byteSize;
+		final String eTag;
+		final String lastModified;
+		final long expiresAtMS;
+		
+		Entry(Map<String, Object> value, long byteSize, String eTag, String lastModified, long expiresAtMS){
+			this.value = value;
+			this.byteSize = byteSize;
+			this.eTag = eTag;
+			this.lastModified = lastModified;
+			this.expiresAtMS = expiresAtMS;
+		}
+		boolean isFresh(){
+			return System.currentTimeMillis() < expiresAtMS;
+		}
+		boolean canRevalidate(){
+			return eTag != null || lastModified != null;
+		}
+	}
+}
@@ -0,0 +1,34 @@
+/*   
+  	This file is part of JSON Web Framework.
+
+    JSON Web Framework is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    JSON Web Framework is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with JSON Web Framework.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package client;
+
+import java.io.IOException;
+
+import org.apache.http.HttpResponse;
+
+/**
+ * @author Yiqi (Eric) Hou
+ *
+ * <p>
+ * Turns a response received by a RequestEngine into the result handed to the caller. The
+ * decoder is responsible for consuming the response entity.
+ */
+interface ResponseDecoder<T> {
+	T decode(HttpResponse response) throws IOException;
+}
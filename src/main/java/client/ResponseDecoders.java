@@ -0,0 +1,186 @@
+/*   
+  	This file is part of JSON Web Framework.
+
+    JSON Web Framework is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    JSON Web Framework is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with JSON Web Framework.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.Map;
+
+import org.apache.http.Consts;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.entity.DeflateDecompressingEntity;
+import org.apache.http.client.entity.GzipDecompressingEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.util.EntityUtils;
+
+import com.google.common.io.CountingInputStream;
+
+import functions.CompressionFunctions;
+import functions.JsonFunctions;
+import functions.JsonInterpreter;
+
+/**
+ * @author Yiqi (Eric) Hou
+ *
+ * <p>
+ * The ResponseDecoders used by Connection. Response entities are decoded straight from their
+ * InputStream with bounded buffers, honoring the charset and Content-Length of the entity, so a
+ * response is never held as an intermediate String before being parsed. The NIO engine is the
+ * exception: it receives the whole body into memory before the decoder runs, see
+ * {@link ConnectionOptions.Engine}.
+ */
+class ResponseDecoders {
+	private static final int BUFFER_SIZE = 8192;
+	private static final int MAX_PRESIZE = 1 << 20;
+	
+	/**
+	 * Parses the JSON of the response straight into a Map. Returns null for an empty response.
+	 */
+	static final ResponseDecoder<Map<String, Object>> JSON_MAP = (HttpResponse response) -> {
+		HttpEntity entity = response.getEntity();
+		if(entity == null || entity.getContentLength() == 0){
+			return null;
+		}
+		try(Reader reader = openReader(entity)){
+			return JsonFunctions.jsonToObject(reader);
+		}
+	};
+	
+	/**
+	 * Reads the whole response as a String. Returns an empty String for an empty response.
+	 */
+	static final ResponseDecoder<String> STRING = (HttpResponse response) -> {
+		HttpEntity entity = response.getEntity();
+		if(entity == null || entity.getContentLength() == 0){
+			return "";
+		}
+		long length = entity.getContentLength();
+		StringBuilder stringBuilder = new StringBuilder(
+				length > 0 ? (int) Math.min(length, MAX_PRESIZE) : BUFFER_SIZE);
+		char[] buffer = new char[bufferSize(entity)];
+		try(Reader reader = openReader(entity)){
+			int read;
+			while((read = reader.read(buffer)) != -1){
+				stringBuilder.append(buffer, 0, read);
+			}
+		}
+		return stringBuilder.toString();
+	};
+	
+	/**
+	 * Creates a decoder parsing the JSON of the response straight into a Map, then building an
+	 * object of the given type from it through a JsonInterpreter.
+	 * 
+	 * @param type	The type that the JSON of the response represents.
+	 * @return		The decoder.
+	 */
+	static <T> ResponseDecoder<T> forType(final Class<T> type){
+		return (HttpResponse response) -> {
+			Map<String, Object> map = JSON_MAP.decode(response);
+			if(map == null){
+				return null;
+			}
+			return new JsonInterpreter(type, map).<T>build();
+		};
+	}
+	
+	/**
+	 * Creates a decoder parsing the JSON of the response into a Map and storing it in the
+	 * response cache. If the request revalidated a stale entry and the host answered 304, the
+	 * cached Map is reused instead.
+	 * 
+	 * @param cache	The response cache of the Connection.
+	 * @param key	The cache key of the request.
+	 * @param stale	The stale entry being revalidated, or null.
+	 * @return		The decoder.
+	 */
+	static ResponseDecoder<Map<String, Object>> caching(final ResponseCache cache, final String key,
+			final ResponseCache.Entry stale){
+		return (HttpResponse response) -> {
+			HttpEntity entity = response.getEntity();
+			if(stale != null && response.getStatusLine().getStatusCode() == HttpStatus.SC_NOT_MODIFIED){
+				EntityUtils.consume(entity);
+				return cache.revalidated(key, stale, response);
+			}
+			if(entity == null || entity.getContentLength() == 0){
+				return null;
+			}
+			CountingInputStream content = new CountingInputStream(entity.getContent());
+			Map<String, Object> value;
+			try(Reader reader = openReader(entity, content)){
+				value = JsonFunctions.jsonToObject(reader);
+			}
+			return cache.store(key, response, value, content.getCount());
+		};
+	}
+	
+	/**
+	 * Replaces a gzip or deflate coded entity of the response with one inflating it while it
+	 * is read. The blocking engine's client does this on its own; the NIO engine does not.
+	 * 
+	 * @param response	The response as received.
+	 */
+	static void inflate(HttpResponse response){
+		HttpEntity entity = response.getEntity();
+		Header contentEncoding = response.getFirstHeader(HTTP.CONTENT_ENCODING);
+		if(entity == null || contentEncoding == null){
+			return;
+		}
+		String coding = contentEncoding.getValue().trim().toLowerCase();
+		if(coding.equals(CompressionFunctions.GZIP) || coding.equals("x-gzip")){
+			response.setEntity(new GzipDecompressingEntity(entity));
+		}else if(coding.equals(CompressionFunctions.DEFLATE)){
+			response.setEntity(new DeflateDecompressingEntity(entity));
+		}else{
+			return;
+		}
+		response.removeHeaders(HTTP.CONTENT_LEN);
+		response.removeHeaders(HTTP.CONTENT_ENCODING);
+	}
+	
+	private static Reader openReader(HttpEntity entity) throws IOException{
+		return openReader(entity, entity.getContent());
+	}
+	private static Reader openReader(HttpEntity entity, InputStream content){
+		return new InputStreamReader(content, getCharset(entity));
+	}
+	
+	//Buffer sized to the response when it is known to be small, but never above BUFFER_SIZE.
+	private static int bufferSize(HttpEntity entity){
+		long length = entity.getContentLength();
+		return length > 0 && length < BUFFER_SIZE ? (int) length : BUFFER_SIZE;
+	}
+	
+	//JSON defaults to UTF-8 when no valid charset is declared.
+	private static Charset getCharset(HttpEntity entity){
+		try{
+			Charset charset = ContentType.getOrDefault(entity).getCharset();
+			return charset != null ? charset : Consts.UTF_8;
+		}catch(Exception e){
+			return Consts.UTF_8;
+		}
+	}
+}
@@ -0,0 +1,203 @@
+/*   
+  	This file is part of JSON Web Framework.
+
+    JSON Web Framework is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    JSON Web Framework is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with JSON Web Framework.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package client;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * @author Yiqi (Eric) Hou
+ *
+ * <p>
+ * How a Connection retries failed idempotent requests (GET, PUT and DELETE). POST requests
+ * are never retried. A request is retried when it fails with an I/O error or is answered with
+ * 502, 503 or 504, after an exponential backoff with full jitter. Answers with these statuses
+ * that are not retried fail the request with a RequestFailedException.
+ * 
+ * <p>
+ * Retries are limited by a budget shared by every request using this policy: each request
+ * earns a fraction of a retry, on top of a small steady allowance, so an outage cannot
+ * multiply the load sent to the host.
+ * 
+ * <p>
+ * With hedging enabled, a GET that has not been answered once the observed latency quantile
+ * of its extension has elapsed is sent a second time, and whichever answer arrives first is
+ * used. Hedges draw from the same budget as retries.
+ */
+public class RetryPolicy {
+	private int maxAttempts = 3;
+	private long baseBackoffMS = 50;
+	private long maxBackoffMS = 2000;
+	private double budgetRatio = 0.2;
+	private double minRetriesPerSecond = 10;
+	private boolean hedging = false;
+	private double hedgeQuantile = 95;
+	private long minHedgeDelayMS = 1;
+	
+	private final Object budgetLock = new Object();
+	private double budgetTokens = 0;
+	private long budgetRefilledNanos = System.nanoTime();
+	
+	public RetryPolicy(){
+	}
+	
+	/**
+	 * @return	A policy sending each request exactly once, for turning retries off for a call.
+	 */
+	public static RetryPolicy noRetries(){
+		return new RetryPolicy().setMaxAttempts(1);
+	}
+	
+	/**
+	 * @param attempts	Maximum number of times a request is sent, including the first.
+	 * @return			Returns current instance of policy.
+	 */
+	public RetryPolicy setMaxAttempts(int attempts){
+		maxAttempts = attempts;
+		return this;
+	}
+	public int getMaxAttempts(){
+		return maxAttempts;
+	}
+	
+	/**
+	 * @param ms	Upper bound of the backoff before the first retry. Doubles for each retry.
+	 * @return		Returns current instance of policy.
+	 */
+	public RetryPolicy setBaseBackoffMS(long ms){
+		baseBackoffMS = ms;
+		return this;
+	}
+	public long getBaseBackoffMS(){
+		return baseBackoffMS;
+	}
+	
+	public RetryPolicy setMaxBackoffMS(long ms){
+		maxBackoffMS = ms;
+		return this;
+	}
+	public long getMaxBackoffMS(){
+		return maxBackoffMS;
+	}
+	
+	/**
+	 * @param ratio	Retries and hedges allowed per request, on top of the steady allowance.
+	 * @return		Returns current instance of policy.
+	 */
+	public RetryPolicy setBudgetRatio(double ratio){
+		budgetRatio = ratio;
+		return this;
+	}
+	public double getBudgetRatio(){
+		return budgetRatio;
+	}
+	
+	/**
+	 * @param retries	Retries and hedges allowed per second regardless of the request rate.
+	 * @return			Returns current instance of policy.
+	 */
+	public RetryPolicy setMinRetriesPerSecond(double retries){
+		minRetriesPerSecond = retries;
+		return this;
+	}
+	public double getMinRetriesPerSecond(){
+		return minRetriesPerSecond;
+	}
+	
+	/**
+	 * @param hedging	Whether slow GET requests are hedged with a second request.
+	 * @return			Returns current instance of policy.
+	 */
+	public RetryPolicy setHedging(boolean hedging){
+		this.hedging = hedging;
+		return this;
+	}
+	public boolean isHedging(){
+		return hedging;
+	}
+	
+	/**
+	 * @param percentile	The latency percentile of the extension, between 0 and 100, after
+	 * 							which a GET is hedged.
+	 * @return				Returns current instance of policy.
+	 */
+	public RetryPolicy setHedgeQuantile(double percentile){
+		hedgeQuantile = percentile;
+		return this;
+	}
+	public double getHedgeQuantile(){
+		return hedgeQuantile;
+	}
+	
+	public RetryPolicy setMinHedgeDelayMS(long ms){
+		minHedgeDelayMS = ms;
+		return this;
+	}
+	public long getMinHedgeDelayMS(){
+		return minHedgeDelayMS;
+	}
+	
+	/**
+	 * @param retry	The number of the retry, starting at 1.
+	 * @return		A random backoff between 0 and the capped exponential bound of the retry.
+	 */
+	long getBackoffMS(int retry){
+		long bound = baseBackoffMS << Math.min(retry - 1, 30);
+		if(bound <= 0 || bound > maxBackoffMS){
+			bound = maxBackoffMS;
+		}
+		return ThreadLocalRandom.current().nextLong(bound + 1);
+	}
+	
+	/**
+	 * Earns the budget share of one request.
+	 */
+	void depositRequest(){
+		synchronized(budgetLock){
+			refill();
+			budgetTokens = Math.min(budgetTokens + budgetRatio, getBudgetCap());
+		}
+	}
+	
+	/**
+	 * @return	Whether the budget allows one more retry or hedge, spending it if so.
+	 */
+	boolean tryWithdrawRetry(){
+		synchronized(budgetLock){
+			refill();
+			if(budgetTokens >= 1){
+				budgetTokens -= 1;
+				return true;
+			}
+			return false;
+		}
+	}
+	
+	private void refill(){
+		long now = System.nanoTime();
+		budgetTokens = Math.min(budgetTokens 
+				+ (now - budgetRefilledNanos) / 1e9 * minRetriesPerSecond, getBudgetCap());
+		budgetRefilledNanos = now;
+	}
+	
+	//Unused budget is capped to what ten seconds of steady allowance and a thousand requests
+	//earn, so a long quiet period cannot store up a burst of retries.
+	private double getBudgetCap(){
+		return Math.max(1, 10 * minRetriesPerSecond + 1000 * budgetRatio);
+	}
+}
@@ -0,0 +1,236 @@
+/*   
+  	This file is part of JSON Web Framework.
+
+    JSON Web Framework is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    JSON Web Framework is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with JSON Web Framework.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package client;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.util.EntityUtils;
+
+import functions.ExecutorFunctions;
+import structures.RequestFailedException;
+
+/**
+ * @author Yiqi (Eric) Hou
+ *
+ * <p>
+ * One request made under a RetryPolicy. Each attempt sends a copy of the request through the
+ * Connection, which picks the host of each copy. If the policy asks for it, an attempt that
+ * is slower than usual is hedged with a second copy. Failed attempts are retried after a
+ * jittered backoff while the policy and its budget allow.
+ */
+class RetryingRequest<T> {
+	private static final ScheduledExecutorService timer = ExecutorFunctions.newScheduler("retry-timer");
+	
+	private final BiFunction<HttpRequestBase, ResponseDecoder<T>, CompletableFuture<T>> sender;
+	private final HttpRequestBase request;
+	private final ResponseDecoder<T> decoder;
+	private final RetryPolicy policy;
+	private final LatencyWindow latencies;
+	private final boolean idempotent;
+	
+	private final CompletableFuture<T> result = new CompletableFuture<T>();
+	private final Set<CompletableFuture<T>> inFlight = 
+			ConcurrentHashMap.<CompletableFuture<T>>newKeySet();
+	private volatile int attempt = 0;
+	
+	/**
+	 * @param sender	Sends one copy of the request with the given decoder.
+	 * @param latencies	The latencies of the request's extension, recorded by every successful
+	 * 						attempt and used to time hedges. Null to neither record nor hedge.
+	 */
+	RetryingRequest(BiFunction<HttpRequestBase, ResponseDecoder<T>, CompletableFuture<T>> sender,
+			HttpRequestBase request, ResponseDecoder<T> decoder, RetryPolicy policy, LatencyWindow latencies){
+		this.sender = sender;
+		this.request = request;
+		this.decoder = decoder;
+		this.policy = policy;
+		this.latencies = latencies;
+		String method = request.getMethod();
+		this.idempotent = method.equals("GET") || method.equals("PUT") || method.equals("DELETE");
+	}
+	
+	CompletableFuture<T> start(){
+		policy.depositRequest();
+		result.whenComplete((r, e) -> {
+			if(result.isCancelled()){
+				cancelInFlight();
+			}
+		});
+		runAttempt();
+		return result;
+	}
+	
+	private void runAttempt(){
+		final int thisAttempt = ++attempt;
+		final Attempt state = new Attempt();
+		send(thisAttempt, state);
+		if(policy.isHedging() && latencies != null && request.getMethod().equals("GET")){
+			long delay = latencies.getValueAtPercentileMS(policy.getHedgeQuantile());
+			if(delay >= 0){
+				try{
+					timer.schedule(() -> {
+						if(!result.isDone() && state.tryAddHedge()){
+							if(policy.tryWithdrawRetry()){
+								send(thisAttempt, state);
+							}else if(state.failOne(null)){
+								onAttemptFailed(thisAttempt, state.getLastFailure());
+							}
+						}
+					}, Math.max(delay, policy.getMinHedgeDelayMS()), TimeUnit.MILLISECONDS);
+				}catch(RejectedExecutionException e){
+					//Hedging is best effort; the first request is still in flight.
+				}
+			}
+		}
+	}
+	
+	private void send(final int thisAttempt, final Attempt state){
+		final long startNanos = System.nanoTime();
+		final CompletableFuture<T> f;
+		try{
+			f = sender.apply(copyRequest(), this::decodeOrFail);
+		}catch(RuntimeException e){
+			if(state.failOne(e)){
+				onAttemptFailed(thisAttempt, state.getLastFailure());
+			}
+			return;
+		}
+		inFlight.add(f);
+		f.whenComplete((r, e) -> {
+			inFlight.remove(f);
+			if(e == null){
+				if(latencies != null){
+					latencies.record(System.nanoTime() - startNanos);
+				}
+				if(state.settle()){
+					result.complete(r);
+					cancelInFlight();
+				}
+			}else if(state.failOne(unwrap(e))){
+				onAttemptFailed(thisAttempt, state.getLastFailure());
+			}
+		});
+	}
+	
+	private void onAttemptFailed(int thisAttempt, Throwable cause){
+		if(result.isDone()){
+			return;
+		}
+		if(idempotent && isRetriable(cause) && thisAttempt < policy.getMaxAttempts() 
+				&& policy.tryWithdrawRetry()){
+			try{
+				timer.schedule(() -> {
+					if(!result.isDone()){
+						runAttempt();
+					}
+				}, policy.getBackoffMS(thisAttempt), TimeUnit.MILLISECONDS);
+				return;
+			}catch(RejectedExecutionException e){
+				//Falls through and fails the request with the cause of the last attempt.
+			}
+		}
+		result.completeExceptionally(cause);
+	}
+	
+	//Turns retriable statuses into failures so that they can be retried.
+	private T decodeOrFail(HttpResponse response) throws IOException{
+		int status = response.getStatusLine().getStatusCode();
+		if(isRetriableStatus(status)){
+			EntityUtils.consume(response.getEntity());
+			throw new RequestFailedException(status, response.getStatusLine().getReasonPhrase());
+		}
+		return decoder.decode(response);
+	}
+	
+	private HttpRequestBase copyRequest(){
+		try{
+			return (HttpRequestBase) request.clone();
+		}catch(CloneNotSupportedException e){
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	private void cancelInFlight(){
+		for(CompletableFuture<T> f: inFlight){
+			f.cancel(false);
+		}
+	}
+	
+	static boolean isRetriable(Throwable cause){
+		if(cause instanceof RequestFailedException){
+			return isRetriableStatus(((RequestFailedException) cause).getStatusCode());
+		}
+		return cause instanceof IOException;
+	}
+	private static boolean isRetriableStatus(int status){
+		return status == 502 || status == 503 || status == 504;
+	}
+	private static Throwable unwrap(Throwable e){
+		while((e instanceof CompletionException || e instanceof ExecutionException) 
+				&& e.getCause() != null){
+			e = e.getCause();
+		}
+		return e;
+	}
+	
+	/**
+	 * The requests sent for one attempt: the first, and the hedge if one was sent. The attempt
+	 * settles on the first success, or fails once every request sent for it has failed.
+	 */
+	private static class Attempt{
+		private final AtomicBoolean settled = new AtomicBoolean();
+		private final AtomicInteger outstanding = new AtomicInteger(1);
+		private volatile Throwable lastFailure;
+		
+		boolean settle(){
+			return settled.compareAndSet(false, true);
+		}
+		boolean tryAddHedge(){
+			int o;
+			while((o = outstanding.get()) > 0 && !settled.get()){
+				if(outstanding.compareAndSet(o, o + 1)){
+					return true;
+				}
+			}
+			return false;
+		}
+		boolean failOne(Throwable cause){
+			if(cause != null){
+				lastFailure = cause;
+			}
+			return outstanding.decrementAndGet() == 0 && settle();
+		}
+		Throwable getLastFailure(){
+			return lastFailure;
+		}
+	}
+}
@@ -0,0 +1,222 @@
+/*   
+  	This file is part of JSON Web Framework.
+
+    JSON Web Framework is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    JSON Web Framework is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with JSON Web Framework.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package client;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author Yiqi (Eric) Hou
+ *
+ * <p>
+ * A hashed hierarchical timing wheel holding deadlines at a fixed tick resolution. Four
+ * levels of 64 slots cover 2^24 ticks; deadlines further out wait in the last level and are
+ * placed again as time passes. Scheduling and cancelling take constant time; each tick that
+ * passes expires one slot, and every 64 ticks a slot of the level above is spread over the
+ * level below. Safe for use from many threads.
+ * 
+ * @param <T>	The type of the items whose deadlines are held.
+ */
+class TimingWheel<T> {
+	private static final int SLOT_BITS = 6;
+	private static final int SLOTS = 1 << SLOT_BITS;
+	private static final int SLOT_MASK = SLOTS - 1;
+	private static final int LEVELS = 4;
+	private static final long MAX_DELTA = (1L << (SLOT_BITS * LEVELS)) - 1;
+	
+	private final long tickMS;
+	private final Timeout<T>[][] wheel;
+	private long currentTick;
+	private int size = 0;
+	
+	/**
+	 * A deadline held by the wheel, for cancelling it.
+	 */
+	static final class Timeout<T>{
+		final T item;
+		final long deadlineTick;
+		private Timeout<T> prev;
+		private Timeout<T> next;
+		private int level = -1;
+		private int slot;
+		
+		private Timeout(T item, long deadlineTick){
+			this.item = item;
+			this.deadlineTick = deadlineTick;
+		}
+	}
+	
+	/**
+	 * @param tickMS	Resolution of the wheel; deadlines fire up to one tick late.
+	 */
+	@SuppressWarnings("unchecked")
+	TimingWheel(long tickMS){
+		this.tickMS = Math.max(1, tickMS);
+		wheel = (Timeout<T>[][]) new Timeout<?>[LEVELS][SLOTS];
+		currentTick = System.currentTimeMillis() / this.tickMS;
+	}
+	
+	long getTickMS(){
+		return tickMS;
+	}
+	synchronized int size(){
+		return size;
+	}
+	
+	/**
+	 * @param item			The item.
+	 * @param deadlineMS	When the item expires, in epoch milliseconds.
+	 * @return				The handle for cancelling the deadline.
+	 */
+	synchronized Timeout<T> schedule(T item, long deadlineMS){
+		//Rounded up, so that an item never expires before its deadline
+		Timeout<T> t = new Timeout<T>(item, (deadlineMS + tickMS - 1) / tickMS);
+		place(t);
+		size++;
+		return t;
+	}
+	
+	/**
+	 * @return	Whether the deadline was still held, and is now removed.
+	 */
+	synchronized boolean cancel(Timeout<T> t){
+		if(t.level < 0){
+			return false;
+		}
+		unlink(t);
+		size--;
+		return true;
+	}
+	
+	/**
+	 * Moves the wheel up to the given time and removes the items whose deadline has passed.
+	 * 
+	 * @param nowMS	The current time, in epoch milliseconds.
+	 * @return		The expired items, in no particular order.
+	 */
+	synchronized List<T> advance(long nowMS){
+		long nowTick = nowMS / tickMS;
+		List<T> expired = null;
+		if(size == 0){
+			currentTick = Math.max(currentTick, nowTick);
+			return null;
+		}
+		while(currentTick < nowTick){
+			currentTick++;
+			cascade();
+			int slot = (int) (currentTick & SLOT_MASK);
+			Timeout<T> t = wheel[0][slot];
+			wheel[0][slot] = null;
+			while(t != null){
+				Timeout<T> next = t.next;
+				t.prev = t.next = null;
+				t.level = -1;
+				if(t.deadlineTick <= currentTick){
+					if(expired == null){
+						expired = new ArrayList<T>();
+					}
+					expired.add(t.item);
+					size--;
+				}else{
+					place(t);
+				}
+				t = next;
+			}
+			if(size == 0){
+				currentTick = nowTick;
+			}
+		}
+		return expired;
+	}
+	
+	/**
+	 * @return	A time, in epoch milliseconds, by which {@link #advance(long)} should next be
+	 * 				called: the next occupied slot of the lowest level, or the next time the level
+	 * 				above is spread over it. -1 if the wheel is empty.
+	 */
+	synchronized long nextWakeMS(){
+		if(size == 0){
+			return -1;
+		}
+		long tick = currentTick + 1;
+		while((tick & SLOT_MASK) != 0 && wheel[0][(int) (tick & SLOT_MASK)] == null){
+			tick++;
+		}
+		return tick * tickMS;
+	}
+	
+	//Spreads the slot of each level above whose turn has come over the levels below
+	private void cascade(){
+		for(int level = 1; level < LEVELS; level++){
+			long shifted = currentTick >>> (SLOT_BITS * (level - 1));
+			if((shifted & SLOT_MASK) != 0){
+				return;
+			}
+			int slot = (int) ((currentTick >>> (SLOT_BITS * level)) & SLOT_MASK);
+			Timeout<T> t = wheel[level][slot];
+			wheel[level][slot] = null;
+			while(t != null){
+				Timeout<T> next = t.next;
+				t.prev = t.next = null;
+				t.level = -1;
+				if(t.deadlineTick <= currentTick){
+					//Due now: joins the lowest slot about to expire
+					link(t, 0, (int) (currentTick & SLOT_MASK));
+				}else{
+					place(t);
+				}
+				t = next;
+			}
+		}
+	}
+	
+	private void place(Timeout<T> t){
+		long delta = t.deadlineTick - currentTick;
+		long tick = delta <= 0 ? currentTick + 1 : currentTick + Math.min(delta, MAX_DELTA);
+		delta = tick - currentTick;
+		int level = 0;
+		while(level < LEVELS - 1 && delta >= 1L << (SLOT_BITS * (level + 1))){
+			level++;
+		}
+		link(t, level, (int) ((tick >>> (SLOT_BITS * level)) & SLOT_MASK));
+	}
+	
+	private void link(Timeout<T> t, int level, int slot){
+		t.level = level;
+		t.slot = slot;
+		t.next = wheel[level][slot];
+		if(t.next != null){
+			t.next.prev = t;
+		}
+		wheel[level][slot] = t;
+	}
+	
+	private void unlink(Timeout<T> t){
+		if(t.prev != null){
+			t.prev.next = t.next;
+		}else{
+			wheel[t.level][t.slot] = t.next;
+		}
+		if(t.next != null){
+			t.next.prev = t.prev;
+		}
+		t.prev = t.next = null;
+		t.level = -1;
+	}
+}
@@ -0,0 +1,151 @@
+package communications;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * @author Yiqi (Eric) Hou
+ *
+ * <p>
+ * The datagrams of LAN discovery. A client sends a probe, a magic number, a version, a type
+ * and a nonce, 14 bytes in all, by broadcast and multicast to the discovery port. Every server
+ * listening there answers with a reply carrying the probe's nonce, the host, port and URI
+ * scheme it serves HTTP on, its load and the URI patterns it serves. An empty host means the
+ * address the reply was sent from. Datagrams that do not start with the magic number are
+ * ignored.
+ */
+public class DiscoveryMessage {
+	public static final int MAGIC = 0x4A574644;
+	public static final byte VERSION = 1;
+	public static final byte PROBE = 1;
+	public static final byte REPLY = 2;
+	public static final int DEFAULT_PORT = 47474;
+	public static final String DEFAULT_GROUP = "239.255.74.87";
+	/** Replies are kept below a common MTU, so they are never fragmented. */
+	public static final int MAX_SIZE = 1400;
+
+	private byte type;
+	private long nonce;
+	private String host = "";
+	private int port;
+	private String scheme = "http";
+	private float load;
+	private List<String> extensions = Collections.emptyList();
+
+	private DiscoveryMessage(){
+	}
+
+	/**
+	 * @param nonce	Matches the replies to the probe.
+	 * @return		The probe datagram.
+	 */
+	public static byte[] probe(long nonce){
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(14);
+		try(DataOutputStream out = new DataOutputStream(bytes)){
+			out.writeInt(MAGIC);
+			out.writeByte(VERSION);
+			out.writeByte(PROBE);
+			out.writeLong(nonce);
+		}catch(IOException e){
+			e.printStackTrace();
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Builds a reply. Extensions that do not fit in {@link #MAX_SIZE} are left out.
+	 *
+	 * @param nonce			Nonce of the probe answered.
+	 * @param host			Host HTTP is served on, or an empty String for the sending address.
+	 * @param port			Port HTTP is served on.
+	 * @param scheme		URI scheme, http or https.
+	 * @param load			Load of the server, 1 meaning every core is busy, or -1 if unknown.
+	 * @param extensions	URI patterns served, such as "/api/users" or "/api/*".
+	 * @return				The reply datagram.
+	 */
+	public static byte[] reply(long nonce, String host, int port, String scheme, float load,
+			List<String> extensions){
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+		try(DataOutputStream out = new DataOutputStream(bytes)){
+			out.writeInt(MAGIC);
+			out.writeByte(VERSION);
+			out.writeByte(REPLY);
+			out.writeLong(nonce);
+			out.writeShort(port);
+			out.writeUTF(scheme);
+			out.writeFloat(load);
+			out.writeUTF(host == null ? "" : host);
+			List<String> fitting = new ArrayList<String>();
+			//2 bytes for the count, 2 more for the length of each extension
+			int size = out.size() + 2;
+			for(String e: extensions){
+				int length = 2 + e.getBytes("UTF-8").length;
+				if(size + length > MAX_SIZE){
+					break;
+				}
+				size += length;
+				fitting.add(e);
+			}
+			out.writeShort(fitting.size());
+			for(String e: fitting){
+				out.writeUTF(e);
+			}
+		}catch(IOException e){
+			e.printStackTrace();
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * @param data		The received datagram.
+	 * @param offset	Start of the datagram in data.
+	 * @param length	Length of the datagram.
+	 * @return			The message, or null if the datagram is not a discovery message.
+	 */
+	public static DiscoveryMessage parse(byte[] data, int offset, int length){
+		if(length < 14){
+			return null;
+		}
+		try(DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, offset, length))){
+			if(in.readInt() != MAGIC || in.readByte() != VERSION){
+				return null;
+			}
+			DiscoveryMessage m = new DiscoveryMessage();
+			m.type = in.readByte();
+			m.nonce = in.readLong();
+			if(m.type == REPLY){
+				m.port = in.readUnsignedShort();
+				m.scheme = in.readUTF();
+				m.load = in.readFloat();
+				m.host = in.readUTF();
+				int count = in.readUnsignedShort();
+				List<String> extensions = new ArrayList<String>(count);
+				for(int i = 0; i < count; i++){
+					extensions.add(in.readUTF());
+				}
+				m.extensions = Collections.unmodifiableList(extensions);
+			}else if(m.type != PROBE){
+				return null;
+			}
+			return m;
+		}catch(IOException e){
+			//Truncated or foreign datagram
+			return null;
+		}
+	}
+
+	public boolean isProbe(){return type == PROBE;}
+	public boolean isReply(){return type == REPLY;}
+	public long getNonce(){return nonce;}
+	public String getHost(){return host;}
+	public int getPort(){return port;}
+	public String getScheme(){return scheme;}
+	public float getLoad(){return load;}
+	public List<String> getExtensions(){return extensions;}
+}
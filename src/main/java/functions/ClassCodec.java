@@ -0,0 +1,189 @@
+/*   
+  	This file is part of JSON Conversion and JSON Web Framework.
+
+    JSON Conversion and JSON Web Framework is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    JSON Conversion and JSON Web Framework is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with JSON Conversion and JSON Web Framework.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package functions;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.List;
+
+import com.google.common.primitives.Primitives;
+
+/**
+ * @author Yiqi (Eric) Hou
+ *
+ * <p>
+ * The reflective metadata JsonBuilder and JsonInterpreter need for one class: a handle to its
+ * no-arg constructor and a descriptor for each of its declared fields, holding the kind of
+ * value the field holds, a getter and a setter for it and, for lists of objects, the class of
+ * their elements. The metadata is resolved on the first use of a class and then shared by
+ * every thread.
+ * 
+ * <p>
+ * Getters and setters are method handles typed on the field's primitive type, so that a 
+ * primitive read or written through them is not boxed on the way; only the Object receiver
+ * is left generic. Getters have the type (Object)type and setters (Object, type)void, with
+ * Object in place of every reference type; they must be called with invokeExact.
+ * 
+ * <p>
+ * Codecs are held by a ClassValue, so each is attached to its class and collected with it;
+ * the cache does not keep classes, or their class loaders, alive.
+ */
+final class ClassCodec {
+	
+	enum Kind {INT, DOUBLE, BOOLEAN, BYTE, SHORT, LONG, FLOAT, CHAR, STRING, 
+		/** A list of boxed primitives or Strings, copied as it is. */
+		VALUE_LIST, 
+		/** A list of objects, each converted on its own. */
+		OBJECT_LIST, 
+		/** A list whose element class cannot be resolved; skipped. */
+		UNKNOWN_LIST, 
+		OBJECT}
+	
+	private static final ClassValue<ClassCodec> CODECS = new ClassValue<ClassCodec>(){
+		@Override
+		protected ClassCodec computeValue(Class<?> type){
+			return new ClassCodec(type);
+		}
+	};
+	
+	private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+	
+	/** The no-arg constructor, typed ()Object, or null if the class has none. */
+	final MethodHandle constructor;
+	final FieldDescriptor[] fields;
+	
+	static ClassCodec of(Class<?> type){
+		return CODECS.get(type);
+	}
+	
+	private ClassCodec(Class<?> type){
+		constructor = noArgConstructor(type);
+		Field[] declared = type.getDeclaredFields();
+		fields = new FieldDescriptor[declared.length];
+		for(int i = 0; i < declared.length; i++){
+			fields[i] = new FieldDescriptor(declared[i]);
+		}
+	}
+	
+	private static MethodHandle noArgConstructor(Class<?> type){
+		try{
+			Constructor<?> c = type.getDeclaredConstructor();
+			c.setAccessible(true);
+			return LOOKUP.unreflectConstructor(c).asType(MethodType.methodType(Object.class));
+		}catch(Exception e){
+			//No no-arg constructor, or one that cannot be opened; the class cannot be built
+			return null;
+		}
+	}
+	
+	static final class FieldDescriptor {
+		final String name;
+		final Kind kind;
+		/** The class of the elements of an OBJECT_LIST, or the type of an OBJECT field. */
+		final Class<?> elementType;
+		/** Reads the field, or null if it cannot be read. */
+		final MethodHandle getter;
+		/** Writes the field, or null if it cannot be written, as final static fields. */
+		final MethodHandle setter;
+		
+		private FieldDescriptor(Field f){
+			name = f.getName();
+			try{
+				f.setAccessible(true);
+			}catch(RuntimeException e){
+				//Fields of classes in closed modules; no handle can be made and they are skipped
+			}
+			getter = getter(f);
+			setter = setter(f);
+			Class<?> type = f.getType();
+			if(type.isPrimitive()){
+				elementType = type;
+				kind = primitiveKind(type);
+			}else if(type.equals(String.class)){
+				elementType = type;
+				kind = Kind.STRING;
+			}else if(List.class.isAssignableFrom(type)){
+				Class<?> listType = listElementType(f);
+				elementType = listType;
+				if(listType == null){
+					kind = Kind.UNKNOWN_LIST;
+				}else if(Primitives.unwrap(listType).isPrimitive() || listType.isAssignableFrom(String.class)){
+					kind = Kind.VALUE_LIST;
+				}else{
+					kind = Kind.OBJECT_LIST;
+				}
+			}else{
+				elementType = type;
+				kind = Kind.OBJECT;
+			}
+		}
+		private static MethodHandle getter(Field f){
+			try{
+				MethodHandle h = LOOKUP.unreflectGetter(f);
+				if(Modifier.isStatic(f.getModifiers())){
+					h = MethodHandles.dropArguments(h, 0, Object.class);
+				}
+				return h.asType(MethodType.methodType(erase(f.getType()), Object.class));
+			}catch(IllegalAccessException e){
+				return null;
+			}
+		}
+		private static MethodHandle setter(Field f){
+			try{
+				MethodHandle h = LOOKUP.unreflectSetter(f);
+				if(Modifier.isStatic(f.getModifiers())){
+					h = MethodHandles.dropArguments(h, 0, Object.class);
+				}
+				return h.asType(MethodType.methodType(void.class, Object.class, erase(f.getType())));
+			}catch(IllegalAccessException e){
+				return null;
+			}
+		}
+		private static Class<?> erase(Class<?> type){
+			return type.isPrimitive() ? type : Object.class;
+		}
+		private static Kind primitiveKind(Class<?> type){
+			switch(type.getName()){
+				case "int": return Kind.INT;
+				case "double": return Kind.DOUBLE;
+				case "boolean": return Kind.BOOLEAN;
+				case "byte": return Kind.BYTE;
+				case "short": return Kind.SHORT;
+				case "long": return Kind.LONG;
+				case "float": return Kind.FLOAT;
+				default: return Kind.CHAR;
+			}
+		}
+		private static Class<?> listElementType(Field f){
+			Type generic = f.getGenericType();
+			if(generic instanceof ParameterizedType){
+				Type element = ((ParameterizedType) generic).getActualTypeArguments()[0];
+				if(element instanceof Class){
+					return (Class<?>) element;
+				}
+			}
+			return null;
+		}
+	}
+}
@@ -0,0 +1,107 @@
+/*   
+  	This file is part of JSON Web Framework.
+
+    JSON Web Framework is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    JSON Web Framework is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with JSON Web Framework.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package functions;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * @author Yiqi (Eric) Hou
+ *
+ * <p>
+ * A collection of functions compressing and inflating HTTP bodies with the gzip and deflate
+ * content codings. Used by both the client and the server side of the framework.
+ */
+public class CompressionFunctions {
+	public static final String GZIP = "gzip";
+	public static final String DEFLATE = "deflate";
+	
+	/**
+	 * Compresses data into the gzip format.
+	 * 
+	 * @param data	The data to be compressed.
+	 * @param level	Deflater compression level, from 0 to 9, or -1 for the default level.
+	 * @return		The compressed data.
+	 */
+	public static byte[] gzip(byte[] data, int level) throws IOException{
+		ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, data.length / 4));
+		try(OutputStream gzipOut = gzipStream(out, level)){
+			gzipOut.write(data);
+		}
+		return out.toByteArray();
+	}
+	
+	/**
+	 * Wraps a stream so that everything written to it is compressed into the gzip format.
+	 * 
+	 * @param out	The stream receiving the compressed data.
+	 * @param level	Deflater compression level, from 0 to 9, or -1 for the default level.
+	 * @return		The compressing stream. Must be closed to finish the gzip trailer.
+	 */
+	public static OutputStream gzipStream(OutputStream out, final int level) throws IOException{
+		return new GZIPOutputStream(out, 8192){
+			{
+				def.setLevel(level);
+			}
+		};
+	}
+	
+	/**
+	 * Wraps a stream so that it is inflated according to its content coding.
+	 * 
+	 * @param in				The stream as received.
+	 * @param contentEncoding	The Content-Encoding of the stream. May be null.
+	 * @return					The inflated stream, or the stream itself if it is not coded.
+	 */
+	public static InputStream inflate(InputStream in, String contentEncoding) throws IOException{
+		if(contentEncoding == null){
+			return in;
+		}
+		String coding = contentEncoding.trim().toLowerCase();
+		if(coding.equals(GZIP) || coding.equals("x-gzip")){
+			return new GZIPInputStream(in, 8192);
+		}else if(coding.equals(DEFLATE)){
+			return new InflaterInputStream(in, new Inflater(), 8192);
+		}
+		return in;
+	}
+	
+	/**
+	 * @param acceptEncoding	The Accept-Encoding header of a request. May be null.
+	 * @return					Whether the sender of the request accepts gzip coded responses.
+	 */
+	public static boolean acceptsGzip(String acceptEncoding){
+		if(acceptEncoding == null){
+			return false;
+		}
+		for(String coding: acceptEncoding.toLowerCase().split(",")){
+			String c = coding.trim();
+			if(c.startsWith(GZIP) && !c.replace(" ", "").endsWith(";q=0")){
+				return true;
+			}
+		}
+		return false;
+	}
+}
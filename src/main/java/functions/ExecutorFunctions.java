@@ -0,0 +1,203 @@
+/*   
+  	This file is part of JSON Web Framework.
+
+    JSON Web Framework is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    JSON Web Framework is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with JSON Web Framework.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package functions;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Yiqi (Eric) Hou
+ *
+ * <p>
+ * A collection of functions that create the thread pools used internally by the framework.
+ * All threads created here are daemon threads, so an idle pool never keeps the JVM alive.
+ * 
+ * <p>
+ * {@link #setVirtualThreads(boolean)} is the switch moving the framework's blocking work onto
+ * virtual threads: the requests of the BLOCKING and HTTP2 engines, the events of a JsonClient,
+ * the handlers of a JsonListenerServlet and the connector of a TomcatServer. It is read when
+ * those are created, so it should be set first.
+ */
+public class ExecutorFunctions {
+	
+	private static final boolean VIRTUAL_THREADS_SUPPORTED = hasVirtualThreads();
+	private static volatile boolean virtualThreads = false;
+	
+	/**
+	 * Runs the blocking work of the framework created from now on on virtual threads. Only 
+	 * takes effect on Java 21 or later; older JVMs keep the platform thread pools.
+	 * 
+	 * @param enabled	Whether to use virtual threads.
+	 */
+	public static void setVirtualThreads(boolean enabled){
+		if(enabled && !VIRTUAL_THREADS_SUPPORTED){
+			System.out.println("Virtual threads are not supported by this JVM, using platform thread pools.");
+			return;
+		}
+		virtualThreads = enabled;
+	}
+	
+	/**
+	 * @return	Whether blocking work is run on virtual threads.
+	 */
+	public static boolean isVirtualThreads(){
+		return virtualThreads;
+	}
+	public static boolean supportsVirtualThreads(){
+		return VIRTUAL_THREADS_SUPPORTED;
+	}
+	
+	/**
+	 * Creates a thread factory that names its threads with the given prefix followed by a
+	 * counter.
+	 * 
+	 * @param namePrefix	Prefix of the names of the created threads.
+	 * @return				A factory creating daemon threads.
+	 */
+	public static ThreadFactory daemonThreadFactory(final String namePrefix){
+		final AtomicInteger count = new AtomicInteger();
+		return new ThreadFactory(){
+			@Override
+			public Thread newThread(Runnable r){
+				Thread t = new Thread(r, namePrefix + "-" + count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		};
+	}
+	
+	/**
+	 * Creates a pool with a fixed upper bound of threads. Threads are started as tasks arrive
+	 * and time out after a minute of idleness.
+	 * 
+	 * @param namePrefix	Prefix of the names of the pool's threads.
+	 * @param threads		Maximum number of threads in the pool.
+	 * @return				The pool.
+	 */
+	public static ExecutorService newWorkerPool(String namePrefix, int threads){
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), daemonThreadFactory(namePrefix));
+		pool.allowCoreThreadTimeOut(true);
+		return pool;
+	}
+	
+	/**
+	 * Creates the executor for blocking calls: one virtual thread per task if virtual threads
+	 * are switched on, see {@link #setVirtualThreads(boolean)}, and a worker pool otherwise.
+	 * 
+	 * @param namePrefix	Prefix of the names of the created threads.
+	 * @param threads		Maximum number of threads of the worker pool.
+	 * @return				The executor.
+	 */
+	public static ExecutorService newBlockingPool(String namePrefix, int threads){
+		if(virtualThreads){
+			ExecutorService virtualThreadExecutor = newVirtualThreadExecutor(namePrefix);
+			if(virtualThreadExecutor != null){
+				return virtualThreadExecutor;
+			}
+		}
+		return newWorkerPool(namePrefix, threads);
+	}
+	
+	/**
+	 * Creates a pool with a fixed upper bound of threads and of queued tasks. Once the queue is
+	 * full, further tasks are rejected with a RejectedExecutionException.
+	 * 
+	 * @param namePrefix		Prefix of the names of the pool's threads.
+	 * @param threads			Maximum number of threads in the pool.
+	 * @param queueCapacity		Maximum number of tasks waiting for a thread.
+	 * @return					The pool.
+	 */
+	public static ExecutorService newBoundedPool(String namePrefix, int threads, int queueCapacity){
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(queueCapacity), daemonThreadFactory(namePrefix));
+		pool.allowCoreThreadTimeOut(true);
+		return pool;
+	}
+	
+	/**
+	 * Creates a pool with a fixed upper bound of threads whose waiting tasks are run in their
+	 * natural order rather than in arrival order. Every task must implement Comparable. The
+	 * queue is unbounded; the caller bounds it if needed.
+	 * 
+	 * @param namePrefix	Prefix of the names of the pool's threads.
+	 * @param threads		Maximum number of threads in the pool.
+	 * @return				The pool.
+	 */
+	public static ExecutorService newPriorityPool(String namePrefix, int threads){
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+				new PriorityBlockingQueue<Runnable>(), daemonThreadFactory(namePrefix));
+		pool.allowCoreThreadTimeOut(true);
+		return pool;
+	}
+	
+	/**
+	 * Creates an executor starting one virtual thread per task. Virtual threads need Java 21
+	 * or later; they are looked up reflectively so that the framework still runs on Java 8.
+	 * 
+	 * @param namePrefix	Prefix of the names of the created threads.
+	 * @return				The executor, or null if the JVM has no virtual threads.
+	 */
+	public static ExecutorService newVirtualThreadExecutor(String namePrefix){
+		try{
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			builder = builderClass.getMethod("name", String.class, long.class)
+					.invoke(builder, namePrefix + "-", 1L);
+			ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+			Method perTask = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+			return (ExecutorService) perTask.invoke(null, factory);
+		}catch(ReflectiveOperationException e){
+			return null;
+		}
+	}
+	
+	//Looks the factory method up without creating a thread or an executor
+	private static boolean hasVirtualThreads(){
+		try{
+			Thread.class.getMethod("ofVirtual");
+			return true;
+		}catch(NoSuchMethodException e){
+			return false;
+		}
+	}
+	
+	/**
+	 * Creates a single-threaded scheduler for periodic housekeeping tasks.
+	 * 
+	 * @param namePrefix	Prefix of the name of the scheduler's thread.
+	 * @return				The scheduler.
+	 */
+	public static ScheduledExecutorService newScheduler(String namePrefix){
+		ScheduledThreadPoolExecutor scheduler = 
+				new ScheduledThreadPoolExecutor(1, daemonThreadFactory(namePrefix));
+		scheduler.setRemoveOnCancelPolicy(true);
+		return scheduler;
+	}
+}
@@ -17,15 +17,12 @@
 
 package functions;
 
-import java.lang.reflect.Field;
-import java.lang.reflect.ParameterizedType;
+import java.lang.invoke.MethodHandle;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import com.google.common.primitives.Primitives;
-
 /**
  * @author Yiqi (Eric) Hou
  *
@@ -48,70 +45,69 @@ public class JsonBuilder {
 	
 	
 	/**
-	 * Builds the JSON from the object specified in the constructor.
+	 * Builds the JSON from the object specified in the constructor. List fields whose element
+	 * class is not declared, such as a raw List, are left out.
 	 * 
 	 * @return	A Map representation of the object.
 	 */
 	public Map<String, Object> build(){
-		Map<String, Object> jsonMap = new HashMap<String, Object>();
-		for(Field f: obj.getClass().getDeclaredFields()){
-			Class<?> T = f.getType();
-			f.setAccessible(true);
+		return build(obj);
+	}
+	
+	/**
+	 * Walks the field descriptors of the object's class, resolved once per class, and builds
+	 * its JSON. Primitive fields are read through their handles without boxing; they are
+	 * boxed only to be put in the Map. Nested objects are built the same way. List fields
+	 * whose element class is not declared, such as a raw List, are left out of the JSON.
+	 * 
+	 * @param obj	Object to be turned into JSON.
+	 * @return		A Map representation of the object.
+	 */
+	static Map<String, Object> build(Object obj){
+		ClassCodec.FieldDescriptor[] fields = ClassCodec.of(obj.getClass()).fields;
+		Map<String, Object> jsonMap = new HashMap<String, Object>(fields.length * 4 / 3 + 1);
+		for(ClassCodec.FieldDescriptor d: fields){
+			MethodHandle get = d.getter;
 			try{
-				if(T.isPrimitive()){
-					switch(T.getName()){
-					case "int": jsonMap.put(f.getName(), f.getInt(obj));
-								break;
-					case "double": jsonMap.put(f.getName(), f.getDouble(obj));
-								break;
-					case "boolean": jsonMap.put(f.getName(), f.getBoolean(obj));
-								break;
-					case "byte": jsonMap.put(f.getName(), f.getByte(obj));
-								break;
-					case "short": jsonMap.put(f.getName(), f.getShort(obj));
-								break;
-					case "long": jsonMap.put(f.getName(), f.getLong(obj));
-								break;
-					case "float": jsonMap.put(f.getName(), f.getFloat(obj));
-								break;
-					case "char": jsonMap.put(f.getName(), f.getChar(obj));
-								break;
-					}
-					System.out.println("Primitive added");
-				}else{
-					if(T.equals(String.class)){
-						jsonMap.put(f.getName(), f.get(obj));
-						System.out.println("String added");
-					}else if(List.class.isAssignableFrom(T)){
-						ParameterizedType listPType = (ParameterizedType) f.getGenericType();
-				        Class<?> listType = (Class<?>) listPType
-				        							.getActualTypeArguments()[0];
-				        if(Primitives.unwrap(listType).isPrimitive()){
-				        	jsonMap.put(f.getName(), (ArrayList<Object>) f.get(obj));
-				        }else{
-				        	if(listType.isAssignableFrom(String.class)){
-				        		jsonMap.put(f.getName(), (ArrayList<Object>) f.get(obj));
-				        	}else{
-								List<Object> subList = (ArrayList<Object>) f.get(obj);
-								List<Map<String, Object>> subListJsonMap =
-										new ArrayList<Map<String, Object>>();
-								for(Object o: subList){
-									subListJsonMap.add(new JsonBuilder(o).build());
-								}
-								jsonMap.put(f.getName(), subListJsonMap);
-				        	}
-				        }
-				        System.out.println("List added");
-					}else{
-						jsonMap.put(f.getName(), new JsonBuilder(f.get(obj)).build());
-						System.out.println("Other added");
+				switch(d.kind){
+				case INT: jsonMap.put(d.name, (int) get.invokeExact(obj));
+							break;
+				case DOUBLE: jsonMap.put(d.name, (double) get.invokeExact(obj));
+							break;
+				case BOOLEAN: jsonMap.put(d.name, (boolean) get.invokeExact(obj));
+							break;
+				case BYTE: jsonMap.put(d.name, (byte) get.invokeExact(obj));
+							break;
+				case SHORT: jsonMap.put(d.name, (short) get.invokeExact(obj));
+							break;
+				case LONG: jsonMap.put(d.name, (long) get.invokeExact(obj));
+							break;
+				case FLOAT: jsonMap.put(d.name, (float) get.invokeExact(obj));
+							break;
+				case CHAR: jsonMap.put(d.name, (char) get.invokeExact(obj));
+							break;
+				case STRING:
+				case VALUE_LIST: jsonMap.put(d.name, (Object) get.invokeExact(obj));
+							break;
+				case OBJECT_LIST:
+					List<Object> subList = (List<Object>) (Object) get.invokeExact(obj);
+					List<Map<String, Object>> subListJsonMap =
+							new ArrayList<Map<String, Object>>(subList.size());
+					for(Object o: subList){
+						subListJsonMap.add(build(o));
 					}
+					jsonMap.put(d.name, subListJsonMap);
+					break;
+				case UNKNOWN_LIST: 
+					//Raw or wildcard lists cannot be converted element by element; left out
+					break;
+				case OBJECT: jsonMap.put(d.name, build((Object) get.invokeExact(obj)));
+							break;
 				}
-			}catch(Exception e){
+			}catch(Throwable e){
+				//Also a field without getter, whose handle is null
 				System.out.println("Error: Object does not exist or other issue");
-				continue;
 			}
-			f.setAccessible(false);
 		}
 		return jsonMap;
 	}
@@ -17,6 +17,7 @@
 
 package functions;
 
+import java.io.Reader;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -24,7 +25,9 @@ import java.util.Map;
 
 import com.google.gson.Gson;
 import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
 
 /**
  * @author Yiqi (Eric) Hou
@@ -49,6 +52,42 @@ public class JsonFunctions {
 		return jsonWorker.fromJson(jsonParser.parse(jsonString), jsonObject.getClass());
 	}
 	
+	/**
+	 * Reads a JSON from a stream of characters and turns it into the format of Map<String, Object>
+	 * without building an intermediate String or JSON tree. The reader is not closed.
+	 * 
+	 * @param jsonReader	The JSON as a stream of characters.
+	 * @return				The JSON as a Map, or null if the stream is empty.
+	 */
+	public static Map<String, Object> jsonToObject(Reader jsonReader){
+		JsonReader reader = new JsonReader(jsonReader);
+		reader.setLenient(true);
+		return jsonWorker.fromJson(reader, jsonObject.getClass());
+	}
+	
+	/**
+	 * Turns a parsed JSON element into the format of Map<String, Object>.
+	 * 
+	 * @param jsonElement	The JSON as a Gson element.
+	 * @return				The JSON as a Map, or null if the element is a JSON null.
+	 */
+	public static Map<String, Object> jsonToObject(JsonElement jsonElement){
+		if(jsonElement == null || jsonElement.isJsonNull()){
+			return null;
+		}
+		return jsonWorker.fromJson(jsonElement, jsonObject.getClass());
+	}
+	
+	/**
+	 * Takes a JSON array in String format and parses it without converting its elements.
+	 * 
+	 * @param jsonString	The JSON array as a String.
+	 * @return				The parsed array.
+	 */
+	public static JsonArray jsonToArray(String jsonString){
+		return jsonParser.parse(jsonString).getAsJsonArray();
+	}
+	
 	/**
 	 * Takes a JSON in String format and turns it into the format of List<Map<String, Object>>.
 	 * Refrain from using this.
@@ -18,16 +18,11 @@
 
 package functions;
 
-import java.lang.reflect.Field;
-import java.lang.reflect.ParameterizedType;
+import java.lang.invoke.MethodHandle;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
-import com.google.common.primitives.Primitives;
-
-import structures.JsonMapObject;
-
 
 /**
  * @author Yiqi (Eric) Hou
@@ -132,69 +127,84 @@ public class JsonInterpreter{
 	 * @return	The Object represented by the JSON.
 	 */
 	public <T> T build(){
-		T returnObject;
+		return (T) decode(typeClass, jsonMap);
+	}
+	
+	/**
+	 * Creates the object through its no-arg constructor and walks the field descriptors of its
+	 * class, resolved once per class, setting each field found in the JSON. Primitive fields
+	 * are set through their handles without boxing. Nested objects are built the same way.
+	 * 
+	 * @param typeClass	Class that the JSON is representing.
+	 * @param jsonMap	The JSON as a Map.
+	 * @return			The Object represented by the JSON, or null if it cannot be created.
+	 */
+	static Object decode(Class<?> typeClass, Map<String, Object> jsonMap){
+		Object returnObject;
+		ClassCodec codec = ClassCodec.of(typeClass);
+		if(codec.constructor == null){
+			System.out.println("Failed Build");
+			return null;
+		}
 		try{
-			returnObject = (T) typeClass.getConstructors()[0].newInstance();
-			for(Field f: typeClass.getDeclaredFields()){
-				Class<?> subType = f.getType();
-				String name = f.getName();
-				f.setAccessible(true);
-				try{
-					if(subType.isPrimitive()){
-						switch(subType.getName()){
-						case "int": f.set(returnObject, (int) Math.round((double) jsonMap.get(name)));
-									break;
-						case "double": f.set(returnObject, (double) jsonMap.get(name));
-									break;
-						case "boolean": f.set(returnObject, (boolean) jsonMap.get(name));
-									break;
-						case "byte": f.set(returnObject, (byte) Math.round((double) jsonMap.get(name)));
-									break;
-						case "short": f.set(returnObject, (short) Math.round((double) jsonMap.get(name)));
-									break;
-						case "long": f.set(returnObject, (long)(double) jsonMap.get(name));
-									break;
-						case "float": f.set(returnObject, (float)(double) jsonMap.get(name));
-									break;
-						case "char": f.set(returnObject, (char) jsonMap.get(name));
-									break;
-						}
-						System.out.println("Primitive Set");
-					}else{
-						if(subType.equals(String.class)){
-							f.set(returnObject, getString(name));
-							System.out.println("String Set");
-						}else if(List.class.isAssignableFrom(subType)){
-							
-//							Following 3 lines extract the type that the List field holds.
-							ParameterizedType listPType = (ParameterizedType) f.getGenericType();
-					        Class<?> listType = (Class<?>) listPType
-					        							.getActualTypeArguments()[0];
-					        if(Primitives.unwrap(listType).isPrimitive()){
-					        	f.set(returnObject, getPrimitiveList(name));
-					        }else{
-					        	if(listType.isAssignableFrom(String.class)){
-					        		f.set(returnObject, getPrimitiveList(name));
-					        	}else{
-					        		f.set(returnObject, getNonPrimitiveList(listType, name));
-					        	}
-					        }
-					        System.out.println("List set");
-					        continue;
-						}
-						f.set(returnObject, getNonPrimitive(subType, name));
-						System.out.println("Nonprimitive Set");
-					}
-				}catch(Exception e){
-					continue;
+			returnObject = (Object) codec.constructor.invokeExact();
+		}catch(Throwable e){
+			System.out.println("Failed Build");
+			return null;
+		}
+		for(ClassCodec.FieldDescriptor d: codec.fields){
+			MethodHandle set = d.setter;
+			Object value = jsonMap.get(d.name);
+			try{
+				switch(d.kind){
+				case INT: set.invokeExact(returnObject, (int) Math.round((double) value));
+							break;
+				case DOUBLE: set.invokeExact(returnObject, (double) value);
+							break;
+				case BOOLEAN: set.invokeExact(returnObject, (boolean) value);
+							break;
+				case BYTE: set.invokeExact(returnObject, (byte) Math.round((double) value));
+							break;
+				case SHORT: set.invokeExact(returnObject, (short) Math.round((double) value));
+							break;
+				case LONG: set.invokeExact(returnObject, (long)(double) value);
+							break;
+				case FLOAT: set.invokeExact(returnObject, (float)(double) value);
+							break;
+				case CHAR: set.invokeExact(returnObject, (char) value);
+							break;
+				case STRING: 
+				case VALUE_LIST: set.invokeExact(returnObject, value);
+							break;
+				case OBJECT_LIST: 
+							//The JSON is parsed by JsonFunctions, which reads every object as a Map
+							//keyed by String, so a list of objects is a List of such maps
+							@SuppressWarnings("unchecked")
+							List<Map<String, Object>> subJsonList = (List<Map<String, Object>>) value;
+							set.invokeExact(returnObject, (Object) buildList(d.elementType, subJsonList));
+							break;
+				case UNKNOWN_LIST: 
+							break;
+				case OBJECT: 
+							//Every JSON object is read by JsonFunctions as a Map keyed by String
+							@SuppressWarnings("unchecked")
+							Map<String, Object> subJsonMap = (Map<String, Object>) value;
+							set.invokeExact(returnObject, decode(d.elementType, subJsonMap));
+							break;
 				}
-				f.setAccessible(false);
+			}catch(Throwable e){
+				//A value missing from the JSON or of another type, or a field without setter
+				continue;
 			}
-			return returnObject;
-		}catch(Exception e){
-			System.out.println("Failed Build");
 		}
-		return null;
+		return returnObject;
+	}
+	private static <T> ArrayList<T> buildList(Class<?> T, List<Map<String, Object>> subJsonList){
+		ArrayList<T> returnList = new ArrayList<T>(subJsonList.size());
+		for(Map<String, Object> subJsonMap: subJsonList){
+			returnList.add((T) decode(T, subJsonMap));
+		}
+		return returnList;
 	}
 	protected <T> ArrayList<T> getPrimitiveList(String key){
 		return (ArrayList<T>) jsonMap.get(key);
@@ -209,20 +219,14 @@ public class JsonInterpreter{
 	 * @return		Returns an ArrayList of the name <b>key</b> containing objects of type <b>T</b>.
 	 */
 	protected <T> ArrayList<T> getNonPrimitiveList(Class<?> T, String key){
-		List<Map<String, Object>> subJsonList = 
-				(ArrayList<Map<String, Object>>) jsonMap.get(key);
-		ArrayList<T> returnList = new ArrayList<T>();
-		for(Map<String, Object> subJsonMap: subJsonList){
-			returnList.add((T) new JsonInterpreter(T, subJsonMap).build());
-		}
-		return returnList;
+		return buildList(T, (List<Map<String, Object>>) jsonMap.get(key));
 	}
 	
 	protected String getString(String key){
 		return (String) jsonMap.get(key);
 	}
 	protected <T> T getNonPrimitive(Class<?> T, String key){
-		return (T) new JsonInterpreter(T, getSubJsonMap(key)).build();
+		return (T) decode(T, getSubJsonMap(key));
 	}
 	protected Map<String, Object> getSubJsonMap(String key){
 		return (Map<String, Object>) jsonMap.get(key);
@@ -1,28 +1,62 @@
 package server;
 
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.io.Reader;
 import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.Deflater;
 
+import javax.servlet.AsyncContext;
 import javax.servlet.Servlet;
 import javax.servlet.*;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonPrimitive;
+
 import client.JsonClient;
+import functions.CompressionFunctions;
+import functions.ExecutorFunctions;
+import functions.JsonFunctions;
 import structures.ServerEvent;
 
 /**
  * @author Yiqi (Eric) Hou
  * 
+ * <p>
+ * A servlet that hands the JSON body of each HTTP request to the ServerEvent of its method.
+ * A POST carrying the {@link #BATCH_HEADER} header is treated as a batch of calls, see
+ * {@link client.Connection#enableBatching(String, client.BatchOptions)}.
+ * 
+ * <p>
+ * With a dispatch executor, each request is handed to it as an asynchronous request, so the
+ * container thread is freed while the ServerEvent runs; see 
+ * {@link #setDispatchExecutor(Executor)}.
  */
 public class JsonListenerServlet extends HttpServlet implements Servlet{
+	/**
+	 * Header marking a POST whose body is a batch envelope: a JSON array of calls, each naming
+	 * its HTTP method and carrying its body as a JSON string.
+	 */
+	public static final String BATCH_HEADER = "X-Json-Batch";
+	
 	private JsonClient jsonClient;
 	private ServerEvent postEvent;
 	private ServerEvent getEvent;
 	private ServerEvent deleteEvent;
 	private ServerEvent putEvent;
+	private int compressionThresholdBytes = -1;
+	private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+	private volatile Executor dispatchExecutor = 
+			ExecutorFunctions.isVirtualThreads() ? ExecutorFunctions.newVirtualThreadExecutor("servlet-dispatch") : null;
 	public ServerEvent getPostEvent() {
 		return postEvent;
 	}
@@ -51,6 +85,48 @@ public class JsonListenerServlet extends HttpServlet implements Servlet{
 		this.putEvent = putEvent;
 		return this;
 	}
+	
+	/**
+	 * Sets when responses are gzip compressed. A response is compressed only if the request
+	 * accepts gzip and the response is larger than the threshold. Compressed request bodies
+	 * are always inflated.
+	 * 
+	 * @param thresholdBytes	Size above which responses are compressed, or -1 to never 
+	 * 							compress them.
+	 * @param level				Deflater compression level, from 0 to 9, or -1 for the default.
+	 * @return					Returns current instance of servlet.
+	 */
+	public JsonListenerServlet setCompression(int thresholdBytes, int level){
+		compressionThresholdBytes = thresholdBytes;
+		compressionLevel = level;
+		return this;
+	}
+	public int getCompressionThresholdBytes(){
+		return compressionThresholdBytes;
+	}
+	public int getCompressionLevel(){
+		return compressionLevel;
+	}
+	
+	/**
+	 * Sets where the ServerEvents run. By default they run on the container thread, or on a
+	 * virtual thread each when virtual threads are switched on, see 
+	 * {@link ExecutorFunctions#setVirtualThreads(boolean)}. The servlet must be registered as
+	 * supporting asynchronous requests, as {@link TomcatServer#addServlet(String, String, HttpServlet)}
+	 * does; otherwise requests still run on the container thread. The container thread is only
+	 * freed by a non-blocking connector; the blocking connector keeps it for the connection.
+	 * 
+	 * @param executor	The executor running the ServerEvents, or null to run them on the
+	 * 					container thread.
+	 * @return			Returns current instance of servlet.
+	 */
+	public JsonListenerServlet setDispatchExecutor(Executor executor){
+		dispatchExecutor = executor;
+		return this;
+	}
+	public Executor getDispatchExecutor(){
+		return dispatchExecutor;
+	}
 	public JsonListenerServlet(){
 		super();
 		jsonClient = new JsonClient(this);
@@ -61,35 +137,128 @@ public class JsonListenerServlet extends HttpServlet implements Servlet{
 	}
 	@Override
 	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException{
-		String body = extractBody(request);
-		String returnBodyJson = getEvent.execute(body);
-		formatResponse(response, returnBodyJson);
+		dispatch(request, response, getEvent, false);
 	}
 	@Override 
 	protected void doPut(HttpServletRequest request, HttpServletResponse response) throws IOException{
-		String body = extractBody(request);
-		String returnBodyJson = putEvent.execute(body);
-		formatResponse(response, returnBodyJson);
+		dispatch(request, response, putEvent, false);
 	}
 	@Override 
 	protected void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException{
-		String body = extractBody(request);
-		String returnBodyJson = postEvent.execute(body);
-		formatResponse(response, returnBodyJson);
+		dispatch(request, response, postEvent, Boolean.parseBoolean(request.getHeader(BATCH_HEADER)));
 	}
 	@Override
 	protected void doDelete(HttpServletRequest request, HttpServletResponse response) throws IOException{
+		dispatch(request, response, deleteEvent, false);
+	}
+	
+	/**
+	 * Answers the request on the dispatch executor when there is one and the request can be
+	 * made asynchronous, and on the container thread otherwise.
+	 */
+	private void dispatch(final HttpServletRequest request, final HttpServletResponse response, 
+			final ServerEvent<?, ?> event, final boolean batch) throws IOException{
+		Executor executor = dispatchExecutor;
+		if(executor == null || !request.isAsyncSupported()){
+			respond(request, response, event, batch);
+			return;
+		}
+		final AsyncContext async = request.startAsync();
+		//The ServerEvent may wait on other services; it is not cut short by the container
+		async.setTimeout(0);
+		Runnable task = () -> {
+			try{
+				respond(request, response, event, batch);
+			}catch(Exception e){
+				e.printStackTrace();
+				if(!response.isCommitted()){
+					response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+				}
+			}finally{
+				async.complete();
+			}
+		};
+		try{
+			executor.execute(task);
+		}catch(RejectedExecutionException e){
+			task.run();
+		}
+	}
+	private void respond(HttpServletRequest request, HttpServletResponse response, ServerEvent<?, ?> event, 
+			boolean batch) throws IOException{
 		String body = extractBody(request);
-		String returnBodyJson = deleteEvent.execute(body);
-		formatResponse(response, returnBodyJson);
+		String returnBodyJson = batch ? executeBatch(body) : event.execute(body);
+		formatResponse(request, response, returnBodyJson);
+	}
+	
+	/**
+	 * Unpacks a batch envelope and dispatches each call to the ServerEvent of its method.
+	 * Returns a JSON array holding, in the order of the calls, the status and the result of
+	 * each call. Bodies and results are carried as JSON strings, so each ServerEvent sees the
+	 * body and each caller the result exactly as they would unbatched. A malformed call is
+	 * answered with 400, and a failing call does not fail the rest of the batch.
+	 * 
+	 * @param body	The batch envelope.
+	 * @return		The array of results as a String.
+	 */
+	private String executeBatch(String body){
+		JsonArray calls = JsonFunctions.jsonToArray(body);
+		StringBuilder results = new StringBuilder("[");
+		for(int i = 0; i < calls.size(); i++){
+			if(i > 0){
+				results.append(',');
+			}
+			JsonElement call = calls.get(i);
+			JsonElement method = call.isJsonObject() ? call.getAsJsonObject().get("method") : null;
+			JsonElement callBody = call.isJsonObject() ? call.getAsJsonObject().get("body") : null;
+			if(!isString(method) || (callBody != null && !callBody.isJsonNull() && !isString(callBody))){
+				results.append("{\"status\":400,\"body\":null}");
+				continue;
+			}
+			ServerEvent<?, ?> event = getEventForMethod(method.getAsString());
+			if(event == null){
+				results.append("{\"status\":405,\"body\":null}");
+				continue;
+			}
+			try{
+				String result = event.execute(
+						callBody == null || callBody.isJsonNull() ? "" : callBody.getAsString());
+				//Unbatched, a null result is written as the text "null"
+				results.append("{\"status\":200,\"body\":")
+						.append(new JsonPrimitive(String.valueOf(result)).toString())
+						.append('}');
+			}catch(Exception e){
+				e.printStackTrace();
+				results.append("{\"status\":500,\"body\":null}");
+			}
+		}
+		return results.append(']').toString();
+	}
+	private static boolean isString(JsonElement e){
+		return e != null && e.isJsonPrimitive() && e.getAsJsonPrimitive().isString();
+	}
+	private ServerEvent<?, ?> getEventForMethod(String method){
+		switch(method){
+			case "GET": return getEvent;
+			case "POST": return postEvent;
+			case "PUT": return putEvent;
+			case "DELETE": return deleteEvent;
+			default: return null;
+		}
 	}
 	private String extractBody(HttpServletRequest request) throws IOException{
 		String requestBody = "";
-		if(request.getContentType().equals("application/json")){
+		String contentType = request.getContentType();
+		if(contentType != null && contentType.startsWith("application/json")){
+			//Reads to the end of the stream; available() only reports what has already arrived,
+			//which cuts large bodies such as batch envelopes short.
 			StringWriter writer = new StringWriter();
-			ServletInputStream in = request.getInputStream();
-			while(in.available() > 0){
-				writer.write(in.read());
+			Reader in = new InputStreamReader(CompressionFunctions.inflate(request.getInputStream(),
+					request.getHeader("Content-Encoding")), StandardCharsets.UTF_8);
+			char[] buffer = new char[4096];
+			int read;
+			while((read = in.read(buffer)) != -1){
+				writer.write(buffer, 0, read);
 			}
 			requestBody = writer.toString();
 			writer.close();
@@ -97,8 +266,21 @@ public class JsonListenerServlet extends HttpServlet implements Servlet{
 		}
 		else return "";
 	}
-	private void formatResponse(HttpServletResponse response, String body) throws IOException{
+	private void formatResponse(HttpServletRequest request, HttpServletResponse response, String body) 
+			throws IOException{
 		response.setContentType("application/json");
+		if(compressionThresholdBytes >= 0 && body != null){
+			response.addHeader("Vary", "Accept-Encoding");
+			byte[] bytes = body.getBytes(response.getCharacterEncoding());
+			if(bytes.length > compressionThresholdBytes 
+					&& CompressionFunctions.acceptsGzip(request.getHeader("Accept-Encoding"))){
+				response.setHeader("Content-Encoding", CompressionFunctions.GZIP);
+				try(OutputStream out = CompressionFunctions.gzipStream(response.getOutputStream(), compressionLevel)){
+					out.write(bytes);
+				}
+				return;
+			}
+		}
 		PrintWriter out = response.getWriter();
 		out.print(body);
 	}
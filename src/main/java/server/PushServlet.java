@@ -0,0 +1,272 @@
+package server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.Servlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import functions.ExecutorFunctions;
+
+/**
+ * @author Yiqi (Eric) Hou
+ * 
+ * <p>
+ * A servlet holding one long-lived text/event-stream response open per subscriber, see
+ * {@link client.Connection#subscribe(String, client.PushListener)}. Every message passed to
+ * {@link #publish(String)} is written to every subscriber over its open socket. The last
+ * messages are kept, so that a subscriber reconnecting with a Last-Event-ID header receives
+ * the messages it missed.
+ * 
+ * <p>
+ * Responses are held as asynchronous requests, so the servlet must be registered as supporting
+ * them, as {@link TomcatServer#addServlet(String, String, HttpServlet)} does. Only a 
+ * non-blocking connector frees the container thread of a subscriber. Each subscriber has a
+ * bounded queue of messages waiting to be written; a subscriber too slow to drain it is
+ * disconnected, and resumes from its last message when it reconnects.
+ */
+public class PushServlet extends HttpServlet implements Servlet{
+	private static final long serialVersionUID = 1L;
+	public static final String LAST_EVENT_ID = "Last-Event-ID";
+	
+	private final Object lock = new Object();
+	private final ArrayDeque<Frame> replay = new ArrayDeque<Frame>();
+	private final int replayCapacity;
+	private final int subscriberCapacity;
+	private long lastId = 0;
+	private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+	private final ExecutorService writers = ExecutorFunctions.newBlockingPool("push-writer", 16);
+	private final ScheduledExecutorService heartbeats = ExecutorFunctions.newScheduler("push-heartbeat");
+	private final LongAdder dropped = new LongAdder();
+	
+	public PushServlet(){
+		this(1000, 1000, 15000);
+	}
+	
+	/**
+	 * @param replayCapacity		Number of past messages kept for reconnecting subscribers.
+	 * @param subscriberCapacity	Number of messages waiting to be written to one subscriber
+	 * 								before it is disconnected.
+	 * @param heartbeatMS			Time between two comments written to every subscriber, which
+	 * 								keep idle streams from timing out.
+	 */
+	public PushServlet(int replayCapacity, int subscriberCapacity, long heartbeatMS){
+		super();
+		this.replayCapacity = replayCapacity;
+		this.subscriberCapacity = subscriberCapacity;
+		heartbeats.scheduleWithFixedDelay(() -> {
+			for(Subscriber s: subscribers){
+				s.offer(": heartbeat\n\n");
+			}
+		}, heartbeatMS, heartbeatMS, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Writes a message to every subscriber.
+	 * 
+	 * @param data	The message, usually a JSON object.
+	 * @return		The event ID given to the message.
+	 */
+	public long publish(String data){
+		synchronized(lock){
+			long id = ++lastId;
+			StringBuilder text = new StringBuilder("id: ").append(id).append('\n');
+			for(String line: data.split("\r\n|\r|\n", -1)){
+				text.append("data: ").append(line).append('\n');
+			}
+			Frame frame = new Frame(id, text.append('\n').toString());
+			replay.addLast(frame);
+			if(replay.size() > replayCapacity){
+				replay.removeFirst();
+			}
+			for(Subscriber s: subscribers){
+				s.offer(frame.text);
+			}
+			return id;
+		}
+	}
+	
+	public int getSubscriberCount(){
+		return subscribers.size();
+	}
+	
+	/**
+	 * @return	Number of subscribers disconnected for falling behind.
+	 */
+	public long getDroppedCount(){
+		return dropped.sum();
+	}
+	
+	@Override
+	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException{
+		if(!request.isAsyncSupported()){
+			System.out.println("PushServlet must be registered as supporting asynchronous requests.");
+			response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+			return;
+		}
+		response.setContentType("text/event-stream");
+		response.setCharacterEncoding("UTF-8");
+		response.setHeader("Cache-Control", "no-cache");
+		final AsyncContext async = request.startAsync();
+		async.setTimeout(0);
+		final Subscriber subscriber = new Subscriber(async, response.getOutputStream());
+		async.addListener(new AsyncListener(){
+			@Override
+			public void onComplete(AsyncEvent event){
+				subscriber.close();
+			}
+			@Override
+			public void onTimeout(AsyncEvent event){
+				subscriber.close();
+			}
+			@Override
+			public void onError(AsyncEvent event){
+				subscriber.close();
+			}
+			@Override
+			public void onStartAsync(AsyncEvent event){
+			}
+		});
+		long from = parseEventId(request.getHeader(LAST_EVENT_ID));
+		subscriber.offer(": open\n\n");
+		//Replays and registers under the lock, so that no message is missed or sent twice
+		synchronized(lock){
+			for(Frame f: replay){
+				if(f.id > from){
+					subscriber.offer(f.text);
+				}
+			}
+			subscribers.add(subscriber);
+		}
+	}
+	
+	private static long parseEventId(String id){
+		if(id == null){
+			return Long.MAX_VALUE;
+		}
+		try{
+			return Long.parseLong(id.trim());
+		}catch(NumberFormatException e){
+			return Long.MAX_VALUE;
+		}
+	}
+	
+	@Override
+	public void destroy(){
+		heartbeats.shutdownNow();
+		for(Subscriber s: subscribers){
+			s.close();
+		}
+		writers.shutdown();
+		super.destroy();
+	}
+	
+	private static final class Frame {
+		final long id;
+		final String text;
+		
+		Frame(long id, String text){
+			this.id = id;
+			this.text = text;
+		}
+	}
+	
+	//One open stream. Messages are queued by the publisher and written by one writer at a time.
+	private final class Subscriber {
+		private final AsyncContext async;
+		private final OutputStream out;
+		private final BlockingQueue<String> queue = new ArrayBlockingQueue<String>(subscriberCapacity);
+		private final AtomicBoolean draining = new AtomicBoolean(false);
+		private final AtomicBoolean closed = new AtomicBoolean(false);
+		
+		Subscriber(AsyncContext async, OutputStream out){
+			this.async = async;
+			this.out = out;
+		}
+		
+		void offer(String text){
+			if(closed.get()){
+				return;
+			}
+			if(!queue.offer(text)){
+				dropped.increment();
+				close();
+				return;
+			}
+			scheduleDrain();
+		}
+		
+		private void scheduleDrain(){
+			if(draining.compareAndSet(false, true)){
+				try{
+					writers.execute(this::drain);
+				}catch(RejectedExecutionException e){
+					close();
+				}
+			}
+		}
+		
+		//Only the thread holding the draining flag writes to the stream or completes it, since
+		//the container does not allow a response to be completed during a write.
+		private void drain(){
+			while(true){
+				if(!closed.get()){
+					try{
+						String text;
+						while((text = queue.poll()) != null){
+							out.write(text.getBytes(StandardCharsets.UTF_8));
+						}
+						out.flush();
+					}catch(IOException e){
+						close();
+					}
+				}
+				if(closed.get()){
+					complete();
+					return;
+				}
+				draining.set(false);
+				//A message queued after the last poll but before draining was released
+				if((queue.isEmpty() && !closed.get()) || !draining.compareAndSet(false, true)){
+					return;
+				}
+			}
+		}
+		
+		void close(){
+			if(!closed.compareAndSet(false, true)){
+				return;
+			}
+			subscribers.remove(this);
+			queue.clear();
+			if(draining.compareAndSet(false, true)){
+				complete();
+			}
+		}
+		
+		private void complete(){
+			try{
+				async.complete();
+			}catch(Exception e){
+				//Already completed by the container
+			}
+		}
+	}
+}
@@ -7,29 +7,32 @@ import javax.servlet.ServletContextListener;
 /**
  * @author Yiqi (Eric) Hou
  * 
- * This class starts up the UDPServer on Tomcat server startup.
+ * This class starts up the UDPServer on Tomcat server startup, and stops it when the context
+ * is destroyed.
  *
  */
 public class StartupServletContextListener implements ServletContextListener{
 	
-	int udpServerPort;
+	private final UDPServer udpServer;
 	
 	public StartupServletContextListener(int udpServerPort){
-		this.udpServerPort = udpServerPort;
+		this(new UDPServer(udpServerPort));
+	}
+	public StartupServletContextListener(UDPServer udpServer){
+		this.udpServer = udpServer;
+	}
+	public UDPServer getUDPServer(){
+		return udpServer;
 	}
 
 	@Override
 	public void contextInitialized(ServletContextEvent sce) {
-		// TODO Auto-generated method stub
-		UDPServer udpServer = new UDPServer(udpServerPort);
 		udpServer.start();
-		
 	}
 
 	@Override
 	public void contextDestroyed(ServletContextEvent sce) {
-		// TODO Auto-generated method stub
-		
+		udpServer.shutDown();
 	}
 	
 }
@@ -1,9 +1,4 @@
 
-//NOTE: To get LAN connection working, start a UDP Server in another thread with a DatagramSocket
-//The client should send a broadcast message, and the server should return an affirmative response.
-//The client extracts host information from this response, and connects to the specific URI
-//resource that it wants.
-
 //NOTE: Make sure that tomcat access is thread-safe.
 
 
@@ -13,6 +8,8 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.zip.Deflater;
 
 import javax.servlet.Filter;
 import javax.servlet.ServletContextListener;
@@ -20,17 +17,20 @@ import javax.servlet.http.HttpServlet;
 
 import org.apache.catalina.Context;
 import org.apache.catalina.LifecycleException;
+import org.apache.catalina.Wrapper;
+import org.apache.catalina.connector.Connector;
+import org.apache.catalina.core.StandardContext;
 import org.apache.catalina.deploy.FilterDef;
 import org.apache.catalina.deploy.FilterMap;
 import org.apache.catalina.startup.Tomcat;
+import org.apache.coyote.AbstractProtocol;
 
 import com.jcabi.aspects.Async;
 
 import client.Connection;
 import client.JsonClient;
-import example.ChatMessage;
-import example.GetMessageEvent;
-import example.SendMessageEvent;
+import communications.DiscoveryMessage;
+import functions.ExecutorFunctions;
 
 public class TomcatServer extends Thread{
 	private volatile Tomcat tomcat = new Tomcat();
@@ -39,6 +39,8 @@ public class TomcatServer extends Thread{
 	private volatile Context serverRootContext;
 	private boolean initialized = false;
 	private volatile int listeningServerPort = 0;
+	private volatile UDPServer udpServer;
+	private volatile boolean virtualConnector = false;
 
 	public Tomcat getTomcat() {
 		return tomcat;
@@ -72,11 +74,17 @@ public class TomcatServer extends Thread{
 			e.printStackTrace();
 		}
 		tomcat.setPort(Integer.parseInt(serverProperties.getProperty("server_port")));
+		if(Boolean.parseBoolean(getProperty("virtual_threads_enabled"))){
+			ExecutorFunctions.setVirtualThreads(true);
+		}
+		if(ExecutorFunctions.isVirtualThreads()){
+			enableVirtualThreads();
+		}
 		serverRootContext =
 				tomcat.addContext(serverProperties.getProperty("server_uri_extension"),
 						new File(System.getProperty(getProperty("server_root"))).getAbsolutePath());
 		if(Boolean.parseBoolean(serverProperties.getProperty("lan_discovery_enabled"))){
-			listeningServerPort = Integer.parseInt(serverProperties.getProperty("listener_server_port"));
+			enableLanDiscovery();
 		}
 		initialized = true;
 		return this;
@@ -95,10 +103,6 @@ public class TomcatServer extends Thread{
 		
 		System.out.println("Tomcat Started");
 		
-		if(Boolean.parseBoolean(serverProperties.getProperty("lan_discovery_enabled"))){
-			this.addServletContextListener(new StartupServletContextListener(listeningServerPort));
-		}
-		
 		tomcat.getServer().await();
 	}
 	public Context getServerRootContext() {
@@ -108,7 +112,10 @@ public class TomcatServer extends Thread{
 		this.serverRootContext = serverRootContext;
 	}
 	public void addServlet(Context c, String ext, String name, HttpServlet s){
-		tomcat.addServlet(c, name, s);
+		Wrapper wrapper = tomcat.addServlet(c, name, s);
+		if(s instanceof JsonListenerServlet || s instanceof PushServlet){
+			wrapper.setAsyncSupported(true);
+		}
 		c.addServletMapping(ext, name);
 	}
 	private void addFilter(Context c, String name, Filter f, String... servletNames){
@@ -127,12 +134,102 @@ public class TomcatServer extends Thread{
 		addFilter(serverRootContext, name, f, servletNames);
 	}
 	
+	
+	/**
+	 * Adds a servlet to the root context. A JsonListenerServlet is configured with the
+	 * compression settings of the server properties: "compression_threshold_bytes" (responses
+	 * larger than this are gzip compressed, -1 or absent to disable) and "compression_level".
+	 * When the connector already runs on virtual threads, a JsonListenerServlet answers on the
+	 * connector's thread rather than handing the request to another virtual thread.
+	 * 
+	 * @param extension	URI pattern mapped to the servlet.
+	 * @param name		Name of the servlet.
+	 * @param s			The servlet.
+	 * @return			Returns this instance of TomcatServer.
+	 */
 	public TomcatServer addServlet(String extension, String name, HttpServlet s){
+		if(s instanceof JsonListenerServlet){
+			configureCompression((JsonListenerServlet) s);
+			if(virtualConnector){
+				((JsonListenerServlet) s).setDispatchExecutor(null);
+			}
+		}
 		addServlet(serverRootContext, extension, name, s);
 		return this;
 	}
+	private void configureCompression(JsonListenerServlet s){
+		String threshold = getProperty("compression_threshold_bytes");
+		String level = getProperty("compression_level");
+		if(threshold != null){
+			s.setCompression(Integer.parseInt(threshold.trim()), 
+					level == null ? Deflater.DEFAULT_COMPRESSION : Integer.parseInt(level.trim()));
+		}
+	}
+	/**
+	 * Runs the connector's request processing on a virtual thread per request, so that 
+	 * servlets blocked on calls to other services do not hold a platform thread. Called by
+	 * {@link #initialize()} when virtual threads are switched on, by the
+	 * "virtual_threads_enabled" property or by {@link ExecutorFunctions#setVirtualThreads(boolean)}.
+	 * 
+	 * @return	Whether the connector runs on virtual threads.
+	 */
+	public boolean enableVirtualThreads(){
+		Object protocol = tomcat.getConnector().getProtocolHandler();
+		if(!(protocol instanceof AbstractProtocol)){
+			return false;
+		}
+		ExecutorService executor = ExecutorFunctions.newVirtualThreadExecutor("tomcat-exec");
+		if(executor == null){
+			System.out.println("Virtual threads are not supported by this JVM, using the connector's pool.");
+			return false;
+		}
+		((AbstractProtocol) protocol).setExecutor(executor);
+		virtualConnector = true;
+		return true;
+	}
+	
+	/**
+	 * Answers the LAN discovery probes of clients with the host and port of this server, its
+	 * load and the URI patterns of its servlets, see {@link UDPServer}. Called by 
+	 * {@link #initialize()} when the "lan_discovery_enabled" property is true. The probes are
+	 * received on the "listener_server_port" property, by default 
+	 * {@link DiscoveryMessage#DEFAULT_PORT}; "lan_discovery_host" sets the host advertised, by
+	 * default the address replies are sent from, and "lan_discovery_group" the multicast group.
+	 * The UDPServer starts and stops with the root context.
+	 * 
+	 * @return	The UDPServer answering the probes.
+	 */
+	public UDPServer enableLanDiscovery(){
+		String port = getProperty("listener_server_port");
+		listeningServerPort = port == null ? DiscoveryMessage.DEFAULT_PORT : Integer.parseInt(port.trim());
+		Connector connector = tomcat.getConnector();
+		udpServer = new UDPServer(listeningServerPort)
+				.setAdvertisedHost(getProperty("lan_discovery_host"))
+				.setAdvertisedPort(connector.getPort(), connector.getScheme())
+				.setContext(serverRootContext);
+		if(getProperty("lan_discovery_group") != null){
+			udpServer.setGroup(getProperty("lan_discovery_group"));
+		}
+		addServletContextListener(new StartupServletContextListener(udpServer));
+		return udpServer;
+	}
+	public UDPServer getUDPServer(){
+		return udpServer;
+	}
+	
+	/**
+	 * Adds a listener to the root context. Must be called before the server is started.
+	 * 
+	 * @param scl	The listener.
+	 * @return		Returns this instance of TomcatServer.
+	 */
 	public TomcatServer addServletContextListener(ServletContextListener scl){
-		serverRootContext.addApplicationListener(scl.getClass().getName());
+		if(serverRootContext instanceof StandardContext){
+			//The instance itself, since a listener added by class name needs a no-arg constructor
+			((StandardContext) serverRootContext).addApplicationLifecycleListener(scl);
+		}else{
+			serverRootContext.addApplicationListener(scl.getClass().getName());
+		}
 		return this;
 	}
 	private void initializeProperties() throws IOException{
@@ -1,52 +1,181 @@
 package server;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
 import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.InetAddress;
-import java.net.SocketException;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.DoubleSupplier;
 
+import org.apache.catalina.Context;
+
+import communications.DiscoveryMessage;
+
+/**
+ * @author Yiqi (Eric) Hou
+ *
+ * <p>
+ * Answers the LAN discovery probes of clients, see {@link client.JsonClient#discoverLANServer()}.
+ * The server listens on the discovery port for broadcast probes, and for multicast probes to
+ * the discovery group when the network allows it. Each probe is answered with the host, port
+ * and scheme of the Tomcat server, its load and the URI patterns of the servlets of its
+ * context; see {@link DiscoveryMessage}.
+ */
 public class UDPServer extends Thread{
 	int serverPort = 0;
+	private volatile String advertisedHost = "";
+	private volatile int advertisedPort = 8080;
+	private volatile String scheme = "http";
+	private volatile String group = DiscoveryMessage.DEFAULT_GROUP;
+	private volatile Context context;
+	private volatile List<String> extensions = Collections.emptyList();
+	private volatile DoubleSupplier load = UDPServer::systemLoad;
+	private volatile MulticastSocket serverSocket;
+	private volatile boolean stopped = false;
+	private final AtomicLong replies = new AtomicLong();
+
 	public UDPServer(int port){
+		super("udp-discovery");
 		this.serverPort = port;
+		setDaemon(true);
+	}
+
+	/**
+	 * @param host	Host name clients should connect to. By default clients use the address the
+	 * 					reply came from.
+	 * @return		Returns current instance of server.
+	 */
+	public UDPServer setAdvertisedHost(String host){
+		advertisedHost = host == null ? "" : host;
+		return this;
+	}
+
+	/**
+	 * @param port		Port of the HTTP connector.
+	 * @param scheme	URI scheme of the HTTP connector.
+	 * @return			Returns current instance of server.
+	 */
+	public UDPServer setAdvertisedPort(int port, String scheme){
+		advertisedPort = port;
+		this.scheme = scheme;
+		return this;
+	}
+
+	/**
+	 * @param group	Multicast group joined, or null to answer broadcast probes only.
+	 * @return		Returns current instance of server.
+	 */
+	public UDPServer setGroup(String group){
+		this.group = group;
+		return this;
+	}
+
+	/**
+	 * @param context	The context whose servlet mappings are advertised. Read on each probe,
+	 * 						so servlets added later are advertised too.
+	 * @return			Returns current instance of server.
+	 */
+	public UDPServer setContext(Context context){
+		this.context = context;
+		return this;
+	}
+
+	/**
+	 * @param extensions	URI patterns advertised when there is no context.
+	 * @return				Returns current instance of server.
+	 */
+	public UDPServer setExtensions(List<String> extensions){
+		this.extensions = extensions;
+		return this;
+	}
+
+	/**
+	 * @param load	Load advertised in replies. By default the system load average over the
+	 * 					number of cores, so 1 means every core is busy.
+	 * @return		Returns current instance of server.
+	 */
+	public UDPServer setLoad(DoubleSupplier load){
+		this.load = load;
+		return this;
 	}
-	
+
+	/**
+	 * @return	The URI patterns advertised, each prefixed by the path of the context.
+	 */
+	public List<String> getExtensions(){
+		Context c = context;
+		if(c == null){
+			return extensions;
+		}
+		List<String> result = new ArrayList<String>();
+		for(String mapping: c.findServletMappings()){
+			//Extension mappings such as *.json apply to every path of the context
+			result.add(c.getPath() + (mapping.startsWith("/") ? "" : "/") + mapping);
+		}
+		return result;
+	}
+	public long getReplyCount(){
+		return replies.get();
+	}
+
 	@Override
 	public void run(){
-		DatagramSocket serverSocket = null;
 		try {
-			serverSocket = new DatagramSocket(serverPort);
-		} catch (SocketException e) {
-			// TODO Auto-generated catch block
+			serverSocket = new MulticastSocket(serverPort);
+		} catch (IOException e) {
 			e.printStackTrace();
+			return;
 		}
-		byte[] receiveData = new byte[1024];
-	    byte[] sendData = new byte[1024];
-	    while(true)
-        {
-           DatagramPacket receivePacket = new DatagramPacket(receiveData, receiveData.length);
-           try {
-        	   serverSocket.receive(receivePacket);
-			} catch (IOException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
+		if(group != null){
+			try{
+				serverSocket.joinGroup(new InetSocketAddress(InetAddress.getByName(group), 0), null);
+			}catch(IOException e){
+				System.out.println("LAN discovery could not join " + group + ", answering broadcast probes only.");
 			}
-           String sentence = new String(receivePacket.getData());
-           System.out.println("RECEIVED: " + sentence);
-           InetAddress IPAddress = receivePacket.getAddress();
-           int port = receivePacket.getPort();
-           String capitalizedSentence = sentence.toUpperCase();
-           sendData = capitalizedSentence.getBytes();
-           DatagramPacket sendPacket = new DatagramPacket(sendData, sendData.length, IPAddress, port);
-           try {
-				serverSocket.send(sendPacket);
+		}
+		byte[] receiveData = new byte[DiscoveryMessage.MAX_SIZE];
+		while(!stopped){
+			DatagramPacket receivePacket = new DatagramPacket(receiveData, receiveData.length);
+			try {
+				serverSocket.receive(receivePacket);
+				DiscoveryMessage probe = DiscoveryMessage.parse(receivePacket.getData(),
+						receivePacket.getOffset(), receivePacket.getLength());
+				if(probe == null || !probe.isProbe()){
+					continue;
+				}
+				byte[] sendData = DiscoveryMessage.reply(probe.getNonce(), advertisedHost, advertisedPort,
+						scheme, (float) load.getAsDouble(), getExtensions());
+				serverSocket.send(new DatagramPacket(sendData, sendData.length,
+						receivePacket.getAddress(), receivePacket.getPort()));
+				replies.incrementAndGet();
 			} catch (IOException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
+				if(!stopped){
+					e.printStackTrace();
+				}
 			}
-           receiveData =  new byte[1024];
-           sendData = new byte[1024];
-        }
+		}
+	}
+
+	/**
+	 * Stops answering probes and closes the socket.
+	 */
+	public void shutDown(){
+		stopped = true;
+		MulticastSocket s = serverSocket;
+		if(s != null){
+			s.close();
+		}
+	}
+
+	private static double systemLoad(){
+		OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+		double average = os.getSystemLoadAverage();
+		return average < 0 ? -1 : average / os.getAvailableProcessors();
 	}
 }
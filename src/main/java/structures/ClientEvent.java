@@ -18,6 +18,7 @@
 package structures;
 
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.jcabi.aspects.Async;
 
@@ -32,9 +33,10 @@ import client.Connection;
  * is received. Used for asynchronous processing of client requests to a remote
  * resource.
  * 
- * Set the action on run, abort, and timeout after instantiation.
+ * Set the action on run, abort, and timeout after instantiation. The JsonClient holding the
+ * event runs it on its EventExecutor, not on a thread of its own.
 */
-public class ClientEvent extends Thread implements Comparable{
+public class ClientEvent implements Runnable, Comparable{
 
 	private int timeOutMS = 20000;
 	
@@ -47,6 +49,8 @@ public class ClientEvent extends Thread implements Comparable{
 	private Action actionOnAbort;
 	private Action actionOnTimeOut;
 	
+	private final AtomicBoolean handled = new AtomicBoolean(false);
+	
 	public Connection getInitiatingConnection(){
 		return initiatingConnection;
 	}
@@ -72,13 +76,33 @@ public class ClientEvent extends Thread implements Comparable{
 		this.timeStartMS = timeStartMS;
 	}
 	public boolean isTimedOut(){
-		System.out.println(getTimeElapsed() - timeOutMS);
 		return getTimeElapsed() > timeOutMS;
 	}
 	public long getTimeElapsed(){
 		return (System.currentTimeMillis() - timeStartMS);
 	}
 	
+	/**
+	 * @return	The time, in epoch milliseconds, after which this event is timed out.
+	 */
+	public long getDeadlineMS(){
+		return timeStartMS + timeOutMS;
+	}
+	
+	/**
+	 * Claims this event for exactly one outcome: run, abort or time out. The scheduler calls
+	 * this before executing any of them, so that an event completing while it times out is
+	 * only handled once.
+	 * 
+	 * @return	True for the first caller only.
+	 */
+	public boolean markHandled(){
+		return handled.compareAndSet(false, true);
+	}
+	public boolean isHandled(){
+		return handled.get();
+	}
+	
 	public ClientEvent setActionOnRun(Action a){
 		actionOnRun = a;
 		return this;
@@ -120,6 +144,14 @@ public class ClientEvent extends Thread implements Comparable{
 	public ClientEvent(Future ini){
 		initiatingEvent = ini;
 	}
+	/**
+	 * Runs the action of this event on a new thread. Kept for code written when ClientEvent
+	 * extended Thread; a JsonClient runs its events on its EventExecutor instead.
+	 */
+	@Deprecated
+	public void start(){
+		new Thread(this).start();
+	}
 	@Override
 	public void run(){
 		if(actionOnRun != null){
@@ -138,17 +170,18 @@ public class ClientEvent extends Thread implements Comparable{
 			actionOnTimeOut.run();
 		}
 	}
+	/**
+	 * Orders events by descending priority, then by start time, newest first, the order the
+	 * client's scheduler holds them in. Both keys can still be changed through their setters,
+	 * which reorders the event; the scheduler reads the priority once when the event is added.
+	 */
 	@Override
 	public int compareTo(Object o){
 		if(o instanceof ClientEvent){
 			ClientEvent ce = (ClientEvent) o;
-			if(ce.getPriority() < this.getPriority()) return -1;
-			else if(ce.getPriority() > this.getPriority()) return 1;
-			else{
-				if(ce.getTimeElapsed() > this.getTimeElapsed()) return -1;
-				else if(ce.getTimeElapsed() < this.getTimeElapsed()) return 1;
-				else return 0;
-			}
+			if(ce.getEventPriority() < this.getEventPriority()) return -1;
+			else if(ce.getEventPriority() > this.getEventPriority()) return 1;
+			else return Long.compare(ce.getTimeStartMS(), this.getTimeStartMS());
 		}
 		else return 0;
 	}
@@ -0,0 +1,13 @@
+package structures;
+
+/**
+ * @author Yiqi (Eric) Hou
+ *
+ * Thrown when a request is dropped because its deadline passed before it could be sent.
+ */
+public class DeadlineExceededException extends RuntimeException{
+	private static final long serialVersionUID = 1L;
+	public DeadlineExceededException(String message){
+		super(message);
+	}
+}
@@ -0,0 +1,14 @@
+package structures;
+
+/**
+ * @author Yiqi (Eric) Hou
+ *
+ * Thrown when a request is refused by the rate or concurrency limit of its Connection, either
+ * right away or because the queue of waiting requests is full.
+ */
+public class LimitExceededException extends RuntimeException{
+	private static final long serialVersionUID = 1L;
+	public LimitExceededException(String message){
+		super(message);
+	}
+}
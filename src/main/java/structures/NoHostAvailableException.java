@@ -0,0 +1,13 @@
+package structures;
+
+/**
+ * @author Yiqi (Eric) Hou
+ *
+ * Thrown when every host of a multi-host connection has been ejected by its circuit breaker.
+ */
+public class NoHostAvailableException extends RuntimeException{
+	private static final long serialVersionUID = 1L;
+	public NoHostAvailableException(){
+		super("No host available: every host of the connection is ejected.");
+	}
+}
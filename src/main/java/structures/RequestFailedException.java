@@ -0,0 +1,19 @@
+package structures;
+
+/**
+ * @author Yiqi (Eric) Hou
+ *
+ * Thrown when a remote resource answers a request with an HTTP status other than success.
+ */
+public class RequestFailedException extends RuntimeException{
+	private static final long serialVersionUID = 1L;
+	private final int statusCode;
+	
+	public RequestFailedException(int statusCode, String message){
+		super("Request failed with status " + statusCode + ": " + message);
+		this.statusCode = statusCode;
+	}
+	public int getStatusCode(){
+		return statusCode;
+	}
+}
@@ -34,7 +34,11 @@ import client.JsonClient;
  * 
  * Attempts to keep a constant connection to the server, listening to pushes coming from the
  * server resource that this is connected to. Please include a header description "x_method: push"
+ * 
+ * Each push costs a new request and a new event; prefer a push subscription, which carries
+ * every push over one open stream, see {@link client.Connection#subscribe(String, client.PushListener)}.
  */
+@Deprecated
 public class ServerPushListenerEvent extends ClientEvent{
 	private JsonClient c;
 	private Connection conn;
@@ -43,6 +47,9 @@ public class ServerPushListenerEvent extends ClientEvent{
 	public ServerPushListenerEvent(JsonClient c, Connection conn, String extName) {
 		super(conn.httpGetRaw(extName));
 		this.c = c;
+		this.conn = conn;
+		this.extName = extName;
+		setInitiatingConnection(conn);
 	}
 	
 	/**
@@ -0,0 +1,231 @@
+/*   
+  	This file is part of JSON Web Framework.
+
+    JSON Web Framework is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    JSON Web Framework is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with JSON Web Framework.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package client;
+
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.Authenticator;
+import java.net.PasswordAuthentication;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpConnectTimeoutException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.ProtocolVersion;
+import org.apache.http.auth.AuthScope;
+import org.apache.http.auth.Credentials;
+import org.apache.http.client.CredentialsProvider;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.util.EntityUtils;
+
+import functions.ExecutorFunctions;
+
+/**
+ * @author Yiqi (Eric) Hou
+ *
+ * <p>
+ * A RequestEngine speaking HTTP/2 through the HTTP client of the JDK (Java 11 and later).
+ * Every request in flight to a host is multiplexed over a single TCP connection with HPACK
+ * compressed headers. HTTP/2 is negotiated with ALPN over TLS and with an h2c upgrade over
+ * plain text; hosts that do not support it are spoken to in HTTP/1.1. The engine lives in 
+ * src/main/java11, which is only compiled on Java 11 or later, and is loaded by name; when
+ * it is missing the Connection falls back to the blocking engine.
+ */
+class Http2RequestEngine implements RequestEngine {
+	private static final ProtocolVersion HTTP_2 = new ProtocolVersion("HTTP", 2, 0);
+	
+	private final HttpClient httpClient;
+	private final ExecutorService workerExecutor;
+	private final long requestTimeoutMS;
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final int maxConnectionsTotal;
+	
+	Http2RequestEngine(ConnectionOptions options, final CredentialsProvider credentialsProvider){
+		workerExecutor = ExecutorFunctions.newBlockingPool("connection-h2-worker", options.getWorkerThreads());
+		httpClient = HttpClient.newBuilder()
+				.version(HttpClient.Version.HTTP_2)
+				.connectTimeout(Duration.ofMillis(options.getConnectTimeoutMS()))
+				.executor(workerExecutor)
+				.authenticator(new Authenticator(){
+					//Answers challenges with the credentials of the Connection; preemptive
+					//credentials are already sent by the request templates.
+					@Override
+					protected PasswordAuthentication getPasswordAuthentication(){
+						Credentials c = credentialsProvider.getCredentials(AuthScope.ANY);
+						if(c == null){
+							return null;
+						}
+						return new PasswordAuthentication(c.getUserPrincipal().getName(), 
+								c.getPassword() == null ? new char[0] : c.getPassword().toCharArray());
+					}
+				})
+				.build();
+		requestTimeoutMS = options.getSocketTimeoutMS();
+		maxConnectionsTotal = options.getMaxConnectionsTotal();
+	}
+	
+	@Override
+	public <T> CompletableFuture<T> execute(HttpHost target, HttpRequestBase request, 
+			HttpClientContext context, final ResponseDecoder<T> decoder){
+		final CompletableFuture<T> result = new CompletableFuture<T>();
+		final CompletableFuture<java.net.http.HttpResponse<InputStream>> exchange;
+		try{
+			exchange = httpClient.sendAsync(toJdkRequest(target, request), BodyHandlers.ofInputStream());
+		}catch(Exception e){
+			result.completeExceptionally(e);
+			return result;
+		}
+		inFlight.incrementAndGet();
+		//The body stream blocks until the data arrives, so it is decoded on the worker pool
+		exchange.whenCompleteAsync((response, e) -> {
+			inFlight.decrementAndGet();
+			if(e != null){
+				result.completeExceptionally(asTimeout(e));
+				return;
+			}
+			try(InputStream body = response.body()){
+				HttpResponse converted = toApacheResponse(response, body);
+				ResponseDecoders.inflate(converted);
+				result.complete(decoder.decode(converted));
+			}catch(Exception e2){
+				result.completeExceptionally(e2);
+			}
+		}, workerExecutor);
+		result.whenComplete((r, e) -> {
+			if(result.isCancelled()){
+				exchange.cancel(true);
+			}
+		});
+		return result;
+	}
+	
+	private HttpRequest toJdkRequest(HttpHost target, HttpRequestBase request) throws Exception{
+		HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(target.toURI() + request.getURI()))
+				.timeout(Duration.ofMillis(requestTimeoutMS));
+		for(Header h: request.getAllHeaders()){
+			if(!isRestricted(h.getName())){
+				builder.header(h.getName(), h.getValue());
+			}
+		}
+		if(!request.containsHeader("Accept-Encoding")){
+			builder.header("Accept-Encoding", "gzip,deflate");
+		}
+		HttpEntity entity = request instanceof HttpEntityEnclosingRequest 
+				? ((HttpEntityEnclosingRequest) request).getEntity() : null;
+		if(entity == null){
+			builder.method(request.getMethod(), HttpRequest.BodyPublishers.noBody());
+		}else{
+			//The blocking client adds these headers from the entity itself
+			if(entity.getContentType() != null && !request.containsHeader("Content-Type")){
+				builder.header("Content-Type", entity.getContentType().getValue());
+			}
+			if(entity.getContentEncoding() != null){
+				builder.header("Content-Encoding", entity.getContentEncoding().getValue());
+			}
+			builder.method(request.getMethod(), 
+					HttpRequest.BodyPublishers.ofByteArray(EntityUtils.toByteArray(entity)));
+		}
+		return builder.build();
+	}
+	
+	private static HttpResponse toApacheResponse(java.net.http.HttpResponse<InputStream> response, 
+			InputStream body){
+		BasicHttpResponse converted = new BasicHttpResponse(
+				response.version() == HttpClient.Version.HTTP_2 ? HTTP_2 : org.apache.http.HttpVersion.HTTP_1_1,
+				response.statusCode(), "");
+		for(Map.Entry<String, List<String>> h: response.headers().map().entrySet()){
+			if(h.getKey().startsWith(":")){
+				continue;
+			}
+			for(String v: h.getValue()){
+				converted.addHeader(h.getKey(), v);
+			}
+		}
+		long length = response.headers().firstValueAsLong("Content-Length").orElse(-1);
+		String contentType = response.headers().firstValue("Content-Type").orElse(null);
+		InputStreamEntity entity = new InputStreamEntity(body, length, 
+				contentType == null ? null : ContentType.parse(contentType));
+		String contentEncoding = response.headers().firstValue("Content-Encoding").orElse(null);
+		if(contentEncoding != null){
+			entity.setContentEncoding(contentEncoding);
+		}
+		converted.setEntity(entity);
+		return converted;
+	}
+	
+	//The JDK client reports timeouts as HttpTimeoutException, a plain IOException; they are
+	//rethrown as the timeouts of the other engines so that metrics and retries see a timeout
+	private static Throwable asTimeout(Throwable e){
+		Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+		InterruptedIOException timeout;
+		if(cause instanceof HttpConnectTimeoutException){
+			timeout = new ConnectTimeoutException(cause.getMessage());
+		}else if(cause instanceof HttpTimeoutException){
+			timeout = new SocketTimeoutException(cause.getMessage());
+		}else{
+			return e;
+		}
+		timeout.initCause(cause);
+		return timeout;
+	}
+	
+	//Headers the JDK client sets itself and refuses from the caller
+	private static boolean isRestricted(String name){
+		switch(name.toLowerCase()){
+			case "connection": case "content-length": case "expect": case "host": case "upgrade":
+				return true;
+			default:
+				return false;
+		}
+	}
+	
+	/**
+	 * The JDK client keeps no visible pool; requests in flight are reported as leased sockets.
+	 */
+	@Override
+	public PoolStats getPoolStats(){
+		return new PoolStats(inFlight.get(), 0, 0, maxConnectionsTotal);
+	}
+	
+	@Override
+	public void shutDown(){
+		workerExecutor.shutdown();
+	}
+}
@@ -0,0 +1,76 @@
+/*   
+  	This file is part of JSON Web Framework.
+
+    JSON Web Framework is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    JSON Web Framework is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with JSON Web Framework.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package client;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * @author Yiqi (Eric) Hou
+ */
+public class CoDelControllerTest {
+	private static final long TARGET_MS = 5;
+	private static final long INTERVAL_MS = 40;
+	private static final long LATE = TimeUnit.MILLISECONDS.toNanos(TARGET_MS * 4);
+	private static final long ON_TIME = TimeUnit.MILLISECONDS.toNanos(TARGET_MS / 2);
+	
+	@Test
+	public void neverDropsUnderTheTarget() throws InterruptedException{
+		CoDelController codel = new CoDelController(TARGET_MS, INTERVAL_MS);
+		for(int i = 0; i < 5; i++){
+			assertFalse(codel.shouldDrop(ON_TIME, 100));
+			Thread.sleep(INTERVAL_MS / 2);
+		}
+	}
+	
+	@Test
+	public void neverDropsWhenTheQueueIsEmpty() throws InterruptedException{
+		CoDelController codel = new CoDelController(TARGET_MS, INTERVAL_MS);
+		assertFalse(codel.shouldDrop(LATE, 0));
+		Thread.sleep(INTERVAL_MS * 2);
+		assertFalse(codel.shouldDrop(LATE, 0));
+	}
+	
+	@Test
+	public void dropsOnceLateForAWholeInterval() throws InterruptedException{
+		CoDelController codel = new CoDelController(TARGET_MS, INTERVAL_MS);
+		assertFalse(codel.shouldDrop(LATE, 10));
+		assertFalse(codel.shouldDrop(LATE, 10));
+		Thread.sleep(INTERVAL_MS + 10);
+		assertTrue(codel.shouldDrop(LATE, 10));
+		//The next drop waits for the control law
+		assertFalse(codel.shouldDrop(LATE, 10));
+		Thread.sleep(INTERVAL_MS + 10);
+		assertTrue(codel.shouldDrop(LATE, 10));
+	}
+	
+	@Test
+	public void stopsDroppingWhenTheWaitFallsUnderTheTarget() throws InterruptedException{
+		CoDelController codel = new CoDelController(TARGET_MS, INTERVAL_MS);
+		codel.shouldDrop(LATE, 10);
+		Thread.sleep(INTERVAL_MS + 10);
+		assertTrue(codel.shouldDrop(LATE, 10));
+		assertFalse(codel.shouldDrop(ON_TIME, 10));
+		//Late again, but not yet for a whole interval
+		assertFalse(codel.shouldDrop(LATE, 10));
+	}
+}
@@ -0,0 +1,143 @@
+/*   
+  	This file is part of JSON Web Framework.
+
+    JSON Web Framework is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    JSON Web Framework is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with JSON Web Framework.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpHost;
+import org.junit.After;
+import org.junit.Test;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import communications.BasicAuthentication;
+import structures.ClientEvent;
+
+/**
+ * @author Yiqi (Eric) Hou
+ */
+public class EventShardingTest {
+	private final JsonClient client = new JsonClient();
+	
+	@After
+	public void shutDown(){
+		client.shutDown();
+	}
+	
+	@Test
+	public void eventsGoToTheShardOfTheirConnection(){
+		addConnections(3);
+		assertTrue(client.setEventLoopShards(3));
+		client.addEvent("c1", pending());
+		client.addEvent("c1", pending());
+		client.addEvent("c2", pending());
+		JsonArray shards = new JsonParser().parse(client.getMetricsSnapshot()).getAsJsonObject()
+				.getAsJsonObject("events").getAsJsonArray("shards");
+		assertEquals(3, shards.size());
+		assertEquals(0, pendingOf(shards, 0));
+		assertEquals(2, pendingOf(shards, 1));
+		assertEquals(1, pendingOf(shards, 2));
+	}
+	
+	@Test
+	public void eventsOfAConnectionRunInOrder() throws InterruptedException{
+		final int connections = 4;
+		final int events = 2000;
+		addConnections(connections);
+		client.setEventLimit(connections * events);
+		assertTrue(client.setEventLoopShards(connections));
+		client.start();
+		final CountDownLatch done = new CountDownLatch(connections * events);
+		List<List<Integer>> ran = new ArrayList<List<Integer>>();
+		List<Thread> producers = new ArrayList<Thread>();
+		for(int c = 0; c < connections; c++){
+			final String name = "c" + c;
+			final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+			ran.add(order);
+			Thread producer = new Thread(() -> {
+				for(int i = 0; i < events; i++){
+					final int id = i;
+					CompletableFuture<Object> response = new CompletableFuture<Object>();
+					ClientEvent e = new ClientEvent(response);
+					e.setTimeOutMS(60000);
+					e.setActionOnRun(() -> {
+						order.add(id);
+						done.countDown();
+					});
+					client.addEvent(name, e);
+					response.complete(null);
+				}
+			});
+			producers.add(producer);
+			producer.start();
+		}
+		assertTrue(done.await(30, TimeUnit.SECONDS));
+		for(List<Integer> order: ran){
+			assertEquals(events, order.size());
+			for(int i = 0; i < events; i++){
+				assertEquals(i, (int) order.get(i));
+			}
+		}
+	}
+	
+	@Test
+	public void shardsCannotChangeWhileEventsAreHeld() throws InterruptedException{
+		addConnections(2);
+		client.start();
+		CompletableFuture<Object> response = new CompletableFuture<Object>();
+		final CountDownLatch ran = new CountDownLatch(1);
+		ClientEvent e = new ClientEvent(response);
+		e.setTimeOutMS(60000);
+		e.setActionOnRun(ran::countDown);
+		client.addEvent("c0", e);
+		assertFalse(client.setEventLoopShards(2));
+		assertEquals(1, client.getEventLoopShards());
+		response.complete(null);
+		assertTrue(ran.await(5, TimeUnit.SECONDS));
+		assertTrue(client.setEventLoopShards(2));
+		assertEquals(2, client.getEventLoopShards());
+	}
+	
+	private void addConnections(int count){
+		for(int i = 0; i < count; i++){
+			client.addConnection("c" + i, new Connection(new HttpHost("localhost", 1), 
+					new BasicAuthentication("user", "password")));
+		}
+	}
+	//An event whose response never arrives, so it stays held
+	private static ClientEvent pending(){
+		ClientEvent e = new ClientEvent(new CompletableFuture<Object>());
+		e.setTimeOutMS(60000);
+		return e;
+	}
+	private static int pendingOf(JsonArray shards, int index){
+		JsonObject shard = shards.get(index).getAsJsonObject();
+		return shard.get("pending").getAsInt();
+	}
+}
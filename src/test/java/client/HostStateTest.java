@@ -0,0 +1,108 @@
+/*   
+  	This file is part of JSON Web Framework.
+
+    JSON Web Framework is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    JSON Web Framework is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with JSON Web Framework.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.http.HttpHost;
+import org.junit.Test;
+
+/**
+ * @author Yiqi (Eric) Hou
+ */
+public class HostStateTest {
+	private static final long MS = 1000000;
+	
+	@Test
+	public void consecutiveFailuresOpenTheBreaker(){
+		HostState host = new HostState(new HttpHost("a"), 3, 60000);
+		fail(host, 2);
+		assertFalse(host.isEjected());
+		fail(host, 1);
+		assertTrue(host.isEjected());
+		assertFalse(host.isSelectable());
+		assertFalse(host.tryAcquire());
+	}
+	
+	@Test
+	public void successResetsTheFailureCount(){
+		HostState host = new HostState(new HttpHost("a"), 3, 60000);
+		fail(host, 2);
+		assertTrue(host.tryAcquire());
+		host.onComplete(MS, true);
+		fail(host, 2);
+		assertFalse(host.isEjected());
+	}
+	
+	@Test
+	public void openBreakerLetsOneProbeThroughAfterItsOpenTime() throws InterruptedException{
+		HostState host = new HostState(new HttpHost("a"), 1, 50);
+		fail(host, 1);
+		assertFalse(host.isSelectable());
+		Thread.sleep(80);
+		assertTrue(host.isSelectable());
+		assertTrue(host.tryAcquire());
+		//Half open: the probe is in flight and no other request gets through
+		assertTrue(host.isEjected());
+		assertFalse(host.isSelectable());
+		assertFalse(host.tryAcquire());
+	}
+	
+	@Test
+	public void successfulProbeClosesTheBreaker() throws InterruptedException{
+		HostState host = new HostState(new HttpHost("a"), 1, 50);
+		fail(host, 1);
+		Thread.sleep(80);
+		assertTrue(host.tryAcquire());
+		host.onComplete(MS, true);
+		assertFalse(host.isEjected());
+		assertTrue(host.tryAcquire());
+	}
+	
+	@Test
+	public void failedProbeOpensTheBreakerAgain() throws InterruptedException{
+		HostState host = new HostState(new HttpHost("a"), 3, 50);
+		fail(host, 3);
+		Thread.sleep(80);
+		assertTrue(host.tryAcquire());
+		host.onComplete(MS, false);
+		assertTrue(host.isEjected());
+		assertFalse(host.isSelectable());
+		assertEquals(0, host.getInFlight());
+	}
+	
+	@Test
+	public void unansweredProbeLeavesTheBreakerOpen() throws InterruptedException{
+		HostState host = new HostState(new HttpHost("a"), 1, 50);
+		fail(host, 1);
+		Thread.sleep(80);
+		assertTrue(host.tryAcquire());
+		host.release();
+		assertTrue(host.isSelectable());
+		assertTrue(host.tryAcquire());
+	}
+	
+	private static void fail(HostState host, int times){
+		for(int i = 0; i < times; i++){
+			assertTrue(host.tryAcquire());
+			host.onComplete(MS, false);
+		}
+	}
+}
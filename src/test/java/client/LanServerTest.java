@@ -0,0 +1,81 @@
+/*   
+  	This file is part of JSON Web Framework.
+
+    JSON Web Framework is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    JSON Web Framework is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with JSON Web Framework.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package client;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.apache.http.HttpHost;
+import org.junit.Test;
+
+/**
+ * @author Yiqi (Eric) Hou
+ */
+public class LanServerTest {
+	
+	private static LanDiscovery.LanServer server(String... extensions){
+		return new LanDiscovery.LanServer(new HttpHost("localhost", 8080, "http"), 0.5f, 
+				Arrays.asList(extensions), 1, System.currentTimeMillis());
+	}
+	
+	@Test
+	public void prefixPatternServesItsPathAndEverythingUnder(){
+		LanDiscovery.LanServer s = server("/api/*");
+		assertTrue(s.serves("/api"));
+		assertTrue(s.serves("/api/users"));
+		assertTrue(s.serves("/api/users/7?fields=name"));
+		assertFalse(s.serves("/apiary"));
+		assertFalse(s.serves("/other"));
+	}
+	
+	@Test
+	public void extensionPatternServesMatchingPathsOfItsContext(){
+		LanDiscovery.LanServer s = server("/app/*.json");
+		assertTrue(s.serves("/app/data.json"));
+		assertTrue(s.serves("/app/a/b.json?v=2"));
+		assertFalse(s.serves("/app/data.xml"));
+		assertFalse(s.serves("/other/data.json"));
+	}
+	
+	@Test
+	public void exactPatternServesOnlyItsPath(){
+		LanDiscovery.LanServer s = server("/api/users");
+		assertTrue(s.serves("/api/users"));
+		assertTrue(s.serves("/api/users?id=1"));
+		assertFalse(s.serves("/api/users/1"));
+	}
+	
+	@Test
+	public void defaultServletServesItsWholeContext(){
+		LanDiscovery.LanServer s = server("/app/");
+		assertTrue(s.serves("/app"));
+		assertTrue(s.serves("/app/anything"));
+		assertFalse(s.serves("/other"));
+	}
+	
+	@Test
+	public void servesAllNeedsEveryPath(){
+		LanDiscovery.LanServer s = server("/api/*", "/status");
+		assertTrue(s.servesAll(Arrays.asList("/api/users", "/status")));
+		assertFalse(s.servesAll(Arrays.asList("/api/users", "/metrics")));
+		assertFalse(s.servesAll(Collections.<String>emptyList()));
+	}
+}
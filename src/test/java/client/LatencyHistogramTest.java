@@ -0,0 +1,82 @@
+/*   
+  	This file is part of JSON Web Framework.
+
+    JSON Web Framework is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    JSON Web Framework is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with JSON Web Framework.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * @author Yiqi (Eric) Hou
+ */
+public class LatencyHistogramTest {
+	
+	@Test
+	public void emptyHistogramReportsZero(){
+		LatencyHistogram h = new LatencyHistogram();
+		assertEquals(0, h.getCount());
+		assertEquals(0, h.getValueAtPercentile(50));
+		assertEquals(0, h.getMeanMicros(), 0);
+	}
+	
+	@Test
+	public void smallValuesAreExact(){
+		LatencyHistogram h = new LatencyHistogram();
+		for(int i = 1; i <= 50; i++){
+			h.record(i);
+		}
+		assertEquals(50, h.getCount());
+		assertEquals(25, h.getValueAtPercentile(50));
+		assertEquals(50, h.getValueAtPercentile(100));
+		assertEquals(50, h.getMaxMicros());
+		assertEquals(25.5, h.getMeanMicros(), 1e-9);
+	}
+	
+	@Test
+	public void largeValuesAreWithinThreePercent(){
+		for(long value = 100; value < 1000000000000L; value = value * 7 + 13){
+			LatencyHistogram h = new LatencyHistogram();
+			h.record(value);
+			//A larger value, so that the percentile is read from the bucket and not the max
+			h.record(value * 10);
+			long reported = h.getValueAtPercentile(50);
+			assertTrue(value + " reported as " + reported, reported >= value);
+			assertTrue(value + " reported as " + reported, reported <= value * 1.03);
+		}
+	}
+	
+	@Test
+	public void negativeValuesCountAsZero(){
+		LatencyHistogram h = new LatencyHistogram();
+		h.record(-5);
+		assertEquals(1, h.getCount());
+		assertEquals(0, h.getValueAtPercentile(100));
+	}
+	
+	@Test
+	public void resetClearsEverything(){
+		LatencyHistogram h = new LatencyHistogram();
+		h.record(10);
+		h.record(100000);
+		h.reset();
+		assertEquals(0, h.getCount());
+		assertEquals(0, h.getMaxMicros());
+		assertEquals(0, h.getValueAtPercentile(99));
+	}
+}
@@ -0,0 +1,96 @@
+/*   
+  	This file is part of JSON Web Framework.
+
+    JSON Web Framework is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    JSON Web Framework is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with JSON Web Framework.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+
+import org.apache.http.HttpHost;
+import org.junit.Test;
+
+import structures.NoHostAvailableException;
+
+/**
+ * @author Yiqi (Eric) Hou
+ */
+public class MultiHostConnectionTest {
+	private static final long MS = 1000000;
+	private final HttpHost fast = new HttpHost("fast");
+	private final HttpHost slow = new HttpHost("slow");
+	
+	@Test
+	public void ewmaChoosesTheHostWithLowerLatency(){
+		MultiHostConnection connection = new MultiHostConnection(fast, slow)
+				.setHostSelectionStrategy(new EwmaLatencyStrategy());
+		answer(connection, fast, 10 * MS);
+		answer(connection, slow, 100 * MS);
+		for(int i = 0; i < 100; i++){
+			HttpHost chosen = connection.selectHost(null);
+			assertEquals(fast, chosen);
+			state(connection, chosen).release();
+		}
+	}
+	
+	@Test
+	public void powerOfTwoChoosesTheHostWithFewerRequestsInFlight(){
+		MultiHostConnection connection = new MultiHostConnection(fast, slow);
+		assertTrue(state(connection, slow).tryAcquire());
+		for(int i = 0; i < 100; i++){
+			HttpHost chosen = connection.selectHost(null);
+			assertEquals(fast, chosen);
+			state(connection, chosen).release();
+		}
+	}
+	
+	@Test
+	public void ejectedHostIsNotChosen(){
+		MultiHostConnection connection = new MultiHostConnection().setCircuitBreaker(1, 60000);
+		connection.addHost(fast).addHost(slow);
+		assertTrue(state(connection, fast).tryAcquire());
+		connection.onRequestComplete(fast, MS, 503, null);
+		for(int i = 0; i < 100; i++){
+			HttpHost chosen = connection.selectHost(null);
+			assertEquals(slow, chosen);
+			state(connection, chosen).release();
+		}
+		assertTrue(state(connection, slow).tryAcquire());
+		connection.onRequestComplete(slow, MS, 0, new IOException("reset"));
+		try{
+			connection.selectHost(null);
+			fail("Expected a NoHostAvailableException");
+		}catch(NoHostAvailableException e){
+		}
+	}
+	
+	//One request answered by the host, so that it has a latency
+	private static void answer(MultiHostConnection connection, HttpHost host, long latencyNanos){
+		assertTrue(state(connection, host).tryAcquire());
+		connection.onRequestComplete(host, latencyNanos, 200, null);
+	}
+	private static HostState state(MultiHostConnection connection, HttpHost host){
+		for(HostState h: connection.getHostStates()){
+			if(h.getHost().equals(host)){
+				return h;
+			}
+		}
+		return null;
+	}
+}
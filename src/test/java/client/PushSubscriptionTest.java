@@ -0,0 +1,95 @@
+/*   
+  	This file is part of JSON Web Framework.
+
+    JSON Web Framework is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    JSON Web Framework is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with JSON Web Framework.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.http.HttpHost;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Yiqi (Eric) Hou
+ */
+public class PushSubscriptionTest {
+	private PushSubscription subscription;
+	
+	@Before
+	public void setUp(){
+		//Never started, so it opens no stream; the parser is fed directly
+		subscription = new PushSubscription(new Connection(new HttpHost("localhost", 8080, "http")), 
+				"events", (id, data) -> {}, new PushOptions());
+	}
+	
+	@After
+	public void tearDown(){
+		subscription.close();
+	}
+	
+	@Test
+	public void messageEndsAtAnEmptyLine() throws Exception{
+		read("id: 1\ndata: hello\n\ndata: unfinished\n");
+		assertMessage("1", "hello", subscription.pollBuffered());
+		assertNull(subscription.pollBuffered());
+		assertEquals("1", subscription.getLastEventId());
+	}
+	
+	@Test
+	public void dataLinesAreJoined() throws Exception{
+		read("data: {\"a\":\ndata: 1}\n\n");
+		assertMessage(null, "{\"a\":\n1}", subscription.pollBuffered());
+	}
+	
+	@Test
+	public void commentsAndUnknownFieldsAreIgnored() throws Exception{
+		read(": heartbeat\n\nevent: update\ndata: x\nretry: soon\n\n");
+		assertMessage(null, "x", subscription.pollBuffered());
+		assertNull(subscription.pollBuffered());
+	}
+	
+	@Test
+	public void onlyOneLeadingSpaceIsRemoved() throws Exception{
+		read("data:x\n\ndata:  y\n\ndata\n\n");
+		assertMessage(null, "x", subscription.pollBuffered());
+		assertMessage(null, " y", subscription.pollBuffered());
+		assertMessage(null, "", subscription.pollBuffered());
+	}
+	
+	@Test
+	public void idCarriesOverToLaterMessages() throws Exception{
+		read("id: 7\ndata: a\n\ndata: b\n\nid: 8\r\ndata: c\r\n\r\n");
+		assertMessage("7", "a", subscription.pollBuffered());
+		assertMessage("7", "b", subscription.pollBuffered());
+		assertMessage("8", "c", subscription.pollBuffered());
+		assertEquals(3, subscription.getReceivedCount());
+	}
+	
+	private void read(String stream) throws Exception{
+		subscription.readStream(new ByteArrayInputStream(stream.getBytes(StandardCharsets.UTF_8)));
+	}
+	
+	private static void assertMessage(String id, String data, PushSubscription.Message m){
+		assertEquals(id, m.id);
+		assertEquals(data, m.data);
+	}
+}
@@ -0,0 +1,102 @@
+/*   
+  	This file is part of JSON Web Framework.
+
+    JSON Web Framework is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    JSON Web Framework is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with JSON Web Framework.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.Test;
+
+import structures.RequestFailedException;
+
+/**
+ * @author Yiqi (Eric) Hou
+ */
+public class RequestBatcherTest {
+	
+	@Test
+	public void eachCallGetsItsAnswer() throws Exception{
+		List<CompletableFuture<String>> results = futures(3);
+		RequestBatcher.fanOut(results, "[{\"status\":200,\"body\":\"{\\\"a\\\":1}\"},"
+				+ "{\"status\":204,\"body\":null},{\"status\":200,\"body\":\"plain\"}]");
+		assertEquals("{\"a\":1}", results.get(0).get());
+		assertEquals(null, results.get(1).get());
+		assertEquals("plain", results.get(2).get());
+	}
+	
+	@Test
+	public void callsWithoutAnAnswerFail() throws Exception{
+		List<CompletableFuture<String>> results = futures(3);
+		RequestBatcher.fanOut(results, "[{\"status\":200,\"body\":\"x\"}]");
+		assertEquals("x", results.get(0).get());
+		assertFailsWithStatus(500, results.get(1));
+		assertFailsWithStatus(500, results.get(2));
+	}
+	
+	@Test
+	public void failedCallFailsAlone() throws Exception{
+		List<CompletableFuture<String>> results = futures(2);
+		RequestBatcher.fanOut(results, "[{\"status\":404,\"body\":null},{\"status\":200,\"body\":\"x\"}]");
+		assertFailsWithStatus(404, results.get(0));
+		assertEquals("x", results.get(1).get());
+	}
+	
+	@Test
+	public void malformedAnswerFailsOnlyItsCall() throws Exception{
+		List<CompletableFuture<String>> results = futures(4);
+		RequestBatcher.fanOut(results, "[1,{\"body\":\"no status\"},{\"status\":200,\"body\":{\"not\":\"a string\"}},"
+				+ "{\"status\":200,\"body\":\"x\"}]");
+		assertFailsWithStatus(500, results.get(0));
+		assertFailsWithStatus(500, results.get(1));
+		assertFailsWithStatus(500, results.get(2));
+		assertEquals("x", results.get(3).get());
+	}
+	
+	@Test
+	public void unreadableResponseFailsEveryCall(){
+		List<CompletableFuture<String>> results = futures(2);
+		RequestBatcher.fanOut(results, "not json");
+		for(CompletableFuture<String> r: results){
+			assertTrue(r.isCompletedExceptionally());
+		}
+	}
+	
+	private static List<CompletableFuture<String>> futures(int count){
+		List<CompletableFuture<String>> results = new ArrayList<CompletableFuture<String>>();
+		for(int i = 0; i < count; i++){
+			results.add(new CompletableFuture<String>());
+		}
+		return results;
+	}
+	
+	private static void assertFailsWithStatus(int status, CompletableFuture<String> f) throws InterruptedException{
+		try{
+			f.get();
+			fail("Expected a RequestFailedException");
+		}catch(ExecutionException e){
+			assertTrue(e.getCause().toString(), e.getCause() instanceof RequestFailedException);
+			assertEquals(status, ((RequestFailedException) e.getCause()).getStatusCode());
+		}
+	}
+}
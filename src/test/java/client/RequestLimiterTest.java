@@ -0,0 +1,136 @@
+/*   
+  	This file is part of JSON Web Framework.
+
+    JSON Web Framework is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    JSON Web Framework is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with JSON Web Framework.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Test;
+
+import structures.DeadlineExceededException;
+import structures.LimitExceededException;
+
+/**
+ * @author Yiqi (Eric) Hou
+ */
+public class RequestLimiterTest {
+	
+	@Test
+	public void requestsOverTheConcurrencyLimitWaitForARelease(){
+		RequestLimiter limiter = new RequestLimiter(new LimitOptions().setMaxConcurrency(2));
+		assertTrue(limiter.acquire(0, -1).isDone());
+		assertTrue(limiter.acquire(0, -1).isDone());
+		CompletableFuture<Void> third = limiter.acquire(0, -1);
+		assertFalse(third.isDone());
+		assertEquals(1, limiter.getQueued());
+		limiter.release(1000, false);
+		assertTrue(third.isDone());
+		assertEquals(2, limiter.getInFlight());
+		assertEquals(0, limiter.getQueued());
+	}
+	
+	@Test
+	public void failFastRejectsAtOnce() throws InterruptedException{
+		RequestLimiter limiter = new RequestLimiter(new LimitOptions().setMaxConcurrency(1)
+				.setPolicy(LimitOptions.Policy.FAIL_FAST));
+		limiter.acquire(0, -1);
+		assertFailsWith(LimitExceededException.class, limiter.acquire(0, -1));
+		assertEquals(1, limiter.getRejected());
+	}
+	
+	@Test
+	public void fullQueueRejects() throws InterruptedException{
+		RequestLimiter limiter = new RequestLimiter(new LimitOptions().setMaxConcurrency(1).setMaxQueued(1));
+		limiter.acquire(0, -1);
+		CompletableFuture<Void> queued = limiter.acquire(0, -1);
+		assertFailsWith(LimitExceededException.class, limiter.acquire(0, -1));
+		assertFalse(queued.isDone());
+		assertEquals(1, limiter.getRejected());
+	}
+	
+	@Test
+	public void higherPriorityLeavesTheQueueFirst(){
+		RequestLimiter limiter = new RequestLimiter(new LimitOptions().setMaxConcurrency(1));
+		limiter.acquire(0, -1);
+		CompletableFuture<Void> low = limiter.acquire(1, -1);
+		CompletableFuture<Void> high = limiter.acquire(5, -1);
+		limiter.release(1000, false);
+		assertTrue(high.isDone());
+		assertFalse(low.isDone());
+		limiter.release(1000, false);
+		assertTrue(low.isDone());
+	}
+	
+	@Test
+	public void earlierDeadlineLeavesTheQueueFirst(){
+		RequestLimiter limiter = new RequestLimiter(new LimitOptions().setMaxConcurrency(1)
+				.setOrder(LimitOptions.Order.DEADLINE));
+		long now = System.currentTimeMillis();
+		limiter.acquire(0, -1);
+		CompletableFuture<Void> later = limiter.acquire(0, now + 60000);
+		CompletableFuture<Void> sooner = limiter.acquire(0, now + 30000);
+		limiter.release(1000, false);
+		assertTrue(sooner.isDone());
+		assertFalse(later.isDone());
+	}
+	
+	@Test
+	public void queuedRequestFailsWhenItsDeadlinePasses() throws InterruptedException{
+		RequestLimiter limiter = new RequestLimiter(new LimitOptions().setMaxConcurrency(1));
+		limiter.acquire(0, -1);
+		CompletableFuture<Void> queued = limiter.acquire(0, System.currentTimeMillis() + 50);
+		assertFailsWith(DeadlineExceededException.class, queued);
+		assertEquals(0, limiter.getQueued());
+	}
+	
+	@Test
+	public void cancelledRequestLeavesTheQueue(){
+		RequestLimiter limiter = new RequestLimiter(new LimitOptions().setMaxConcurrency(1));
+		limiter.acquire(0, -1);
+		limiter.acquire(0, -1).cancel(false);
+		assertEquals(0, limiter.getQueued());
+	}
+	
+	@Test
+	public void overloadShrinksTheAdaptiveLimit(){
+		RequestLimiter limiter = new RequestLimiter(new LimitOptions().setMaxConcurrency(10)
+				.setMinConcurrency(5).setAdaptive(true));
+		limiter.acquire(0, -1);
+		limiter.release(TimeUnit.MILLISECONDS.toNanos(10), true);
+		assertEquals(9, limiter.getLimit());
+	}
+	
+	private static void assertFailsWith(Class<? extends Throwable> expected, CompletableFuture<Void> f) 
+			throws InterruptedException{
+		try{
+			f.get(5, TimeUnit.SECONDS);
+			fail("Expected " + expected.getSimpleName());
+		}catch(ExecutionException e){
+			assertTrue(e.getCause().toString(), expected.isInstance(e.getCause()));
+		}catch(TimeoutException e){
+			fail("Not completed: expected " + expected.getSimpleName());
+		}
+	}
+}
@@ -0,0 +1,63 @@
+/*   
+  	This file is part of JSON Web Framework.
+
+    JSON Web Framework is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    JSON Web Framework is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with JSON Web Framework.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package client;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * @author Yiqi (Eric) Hou
+ */
+public class RetryPolicyTest {
+	
+	@Test
+	public void backoffStaysWithinItsExponentialBound(){
+		RetryPolicy policy = new RetryPolicy().setBaseBackoffMS(50).setMaxBackoffMS(2000);
+		for(int i = 0; i < 1000; i++){
+			assertBetween(0, 50, policy.getBackoffMS(1));
+			assertBetween(0, 200, policy.getBackoffMS(3));
+			assertBetween(0, 2000, policy.getBackoffMS(10));
+			//Large retry numbers must not overflow the shift
+			assertBetween(0, 2000, policy.getBackoffMS(64));
+		}
+	}
+	
+	@Test
+	public void budgetAllowsItsRatioOfRequests(){
+		RetryPolicy policy = new RetryPolicy().setBudgetRatio(0.5).setMinRetriesPerSecond(0);
+		assertFalse(policy.tryWithdrawRetry());
+		policy.depositRequest();
+		assertFalse(policy.tryWithdrawRetry());
+		policy.depositRequest();
+		assertTrue(policy.tryWithdrawRetry());
+		assertFalse(policy.tryWithdrawRetry());
+	}
+	
+	@Test
+	public void steadyAllowanceRefillsTheBudget() throws InterruptedException{
+		RetryPolicy policy = new RetryPolicy().setBudgetRatio(0).setMinRetriesPerSecond(100);
+		Thread.sleep(50);
+		assertTrue(policy.tryWithdrawRetry());
+	}
+	
+	private static void assertBetween(long min, long max, long value){
+		assertTrue(value + " not in [" + min + ", " + max + "]", value >= min && value <= max);
+	}
+}
@@ -0,0 +1,157 @@
+/*   
+  	This file is part of JSON Web Framework.
+
+    JSON Web Framework is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    JSON Web Framework is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with JSON Web Framework.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.junit.Test;
+
+import structures.RequestFailedException;
+
+/**
+ * @author Yiqi (Eric) Hou
+ */
+public class RetryingRequestTest {
+	private static final long MS = 1000000;
+	
+	@Test
+	public void failedGetIsRetriedUntilItSucceeds() throws Exception{
+		Sender sender = new Sender(new IOException("reset"), new RequestFailedException(503, "busy"), "ok");
+		assertEquals("ok", start(sender, new HttpGet("http://h/x"), policy(3), null).get(5, TimeUnit.SECONDS));
+		assertEquals(3, sender.sent.size());
+	}
+	
+	@Test
+	public void retriesStopAtMaxAttempts() throws Exception{
+		Sender sender = new Sender(new IOException("1"), new IOException("2"), new IOException("3"), "ok");
+		assertFails(IOException.class, start(sender, new HttpGet("http://h/x"), policy(2), null));
+		assertEquals(2, sender.sent.size());
+	}
+	
+	@Test
+	public void postIsNeverRetried() throws Exception{
+		Sender sender = new Sender(new IOException("reset"), "ok");
+		assertFails(IOException.class, start(sender, new HttpPost("http://h/x"), policy(3), null));
+		assertEquals(1, sender.sent.size());
+	}
+	
+	@Test
+	public void clientErrorIsNotRetried() throws Exception{
+		Sender sender = new Sender(new RequestFailedException(404, "missing"), "ok");
+		assertFails(RequestFailedException.class, start(sender, new HttpGet("http://h/x"), policy(3), null));
+		assertEquals(1, sender.sent.size());
+	}
+	
+	@Test
+	public void emptyBudgetStopsRetries() throws Exception{
+		Sender sender = new Sender(new IOException("reset"), "ok");
+		RetryPolicy policy = policy(3).setBudgetRatio(0).setMinRetriesPerSecond(0);
+		assertFails(IOException.class, start(sender, new HttpGet("http://h/x"), policy, null));
+		assertEquals(1, sender.sent.size());
+	}
+	
+	@Test
+	public void slowGetIsHedgedAtTheQuantile() throws Exception{
+		LatencyWindow latencies = new LatencyWindow();
+		for(int i = 0; i < 100; i++){
+			latencies.record(50 * MS);
+		}
+		//The first copy never answers; the hedge does
+		Sender sender = new Sender(null, "hedged");
+		RetryPolicy policy = policy(1).setHedging(true).setHedgeQuantile(95);
+		long startNanos = System.nanoTime();
+		assertEquals("hedged", start(sender, new HttpGet("http://h/x"), policy, latencies).get(5, TimeUnit.SECONDS));
+		assertTrue(System.nanoTime() - startNanos >= 45 * MS);
+		assertEquals(2, sender.sent.size());
+		//The losing copy is cancelled just after the result is completed
+		for(int i = 0; i < 100 && !sender.sent.get(0).isCancelled(); i++){
+			Thread.sleep(10);
+		}
+		assertTrue(sender.sent.get(0).isCancelled());
+	}
+	
+	@Test
+	public void postIsNotHedged() throws Exception{
+		LatencyWindow latencies = new LatencyWindow();
+		for(int i = 0; i < 100; i++){
+			latencies.record(MS);
+		}
+		Sender sender = new Sender(null, "hedged");
+		RetryPolicy policy = policy(1).setHedging(true);
+		CompletableFuture<String> result = start(sender, new HttpPost("http://h/x"), policy, latencies);
+		Thread.sleep(50);
+		assertEquals(1, sender.sent.size());
+		result.cancel(false);
+	}
+	
+	//A budget large enough that it never limits the test
+	private static RetryPolicy policy(int maxAttempts){
+		return new RetryPolicy().setMaxAttempts(maxAttempts).setBaseBackoffMS(1).setBudgetRatio(10);
+	}
+	private static CompletableFuture<String> start(Sender sender, HttpRequestBase request, RetryPolicy policy,
+			LatencyWindow latencies){
+		return new RetryingRequest<String>(sender, request, ResponseDecoders.STRING, policy, latencies).start();
+	}
+	private static void assertFails(Class<? extends Throwable> expected, CompletableFuture<String> f) 
+			throws Exception{
+		try{
+			f.get(5, TimeUnit.SECONDS);
+			fail("Expected " + expected.getSimpleName());
+		}catch(ExecutionException e){
+			assertTrue(e.getCause().toString(), expected.isInstance(e.getCause()));
+		}
+	}
+	
+	/**
+	 * Answers each copy sent with the next outcome: a value, an exception, or null for a copy
+	 * that is never answered.
+	 */
+	private static class Sender implements BiFunction<HttpRequestBase, ResponseDecoder<String>, CompletableFuture<String>>{
+		private final Object[] outcomes;
+		final List<CompletableFuture<String>> sent = new CopyOnWriteArrayList<CompletableFuture<String>>();
+		
+		Sender(Object... outcomes){
+			this.outcomes = outcomes;
+		}
+		@Override
+		public CompletableFuture<String> apply(HttpRequestBase request, ResponseDecoder<String> decoder){
+			CompletableFuture<String> f = new CompletableFuture<String>();
+			Object outcome = outcomes[Math.min(sent.size(), outcomes.length - 1)];
+			sent.add(f);
+			if(outcome instanceof Throwable){
+				f.completeExceptionally((Throwable) outcome);
+			}else if(outcome != null){
+				f.complete((String) outcome);
+			}
+			return f;
+		}
+	}
+}
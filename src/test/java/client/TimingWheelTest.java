@@ -0,0 +1,99 @@
+/*   
+  	This file is part of JSON Web Framework.
+
+    JSON Web Framework is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    JSON Web Framework is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with JSON Web Framework.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * @author Yiqi (Eric) Hou
+ */
+public class TimingWheelTest {
+	private static final long TICK_MS = 10;
+	
+	@Test
+	public void itemExpiresNoEarlierThanItsDeadline(){
+		TimingWheel<String> wheel = new TimingWheel<String>(TICK_MS);
+		long now = System.currentTimeMillis();
+		wheel.schedule("a", now + 25);
+		assertNull(wheel.advance(now + 24));
+		assertEquals(Collections.singletonList("a"), wheel.advance(now + 25 + TICK_MS));
+		assertEquals(0, wheel.size());
+	}
+	
+	@Test
+	public void cancelledItemNeverExpires(){
+		TimingWheel<String> wheel = new TimingWheel<String>(TICK_MS);
+		long now = System.currentTimeMillis();
+		TimingWheel.Timeout<String> t = wheel.schedule("a", now + 50);
+		wheel.schedule("b", now + 50);
+		assertTrue(wheel.cancel(t));
+		assertFalse(wheel.cancel(t));
+		assertEquals(Collections.singletonList("b"), wheel.advance(now + 100));
+	}
+	
+	@Test
+	public void pastDeadlineExpiresOnNextTick(){
+		TimingWheel<String> wheel = new TimingWheel<String>(TICK_MS);
+		long now = System.currentTimeMillis();
+		wheel.schedule("late", now - 1000);
+		assertEquals(Collections.singletonList("late"), wheel.advance(now + 2 * TICK_MS));
+	}
+	
+	@Test
+	public void deadlinesOnHigherLevelsCascadeDown(){
+		TimingWheel<Long> wheel = new TimingWheel<Long>(TICK_MS);
+		long now = System.currentTimeMillis();
+		//One deadline on each level of the wheel
+		long[] offsets = {30, 64 * 5 * TICK_MS, 64 * 64 * 3 * TICK_MS, 64 * 64 * 64 * 2 * TICK_MS};
+		for(long offset: offsets){
+			wheel.schedule(offset, now + offset);
+		}
+		List<Long> expired = new ArrayList<Long>();
+		for(long offset: offsets){
+			List<Long> early = wheel.advance(now + offset - TICK_MS - 1);
+			if(early != null){
+				expired.addAll(early);
+			}
+			assertFalse("expired before its deadline: " + offset, expired.contains(offset));
+			List<Long> due = wheel.advance(now + offset + TICK_MS);
+			assertTrue("not expired: " + offset, due != null && due.contains(offset));
+			expired.addAll(due);
+		}
+		assertEquals(0, wheel.size());
+	}
+	
+	@Test
+	public void nextWakeFollowsTheNextOccupiedSlot(){
+		TimingWheel<String> wheel = new TimingWheel<String>(TICK_MS);
+		assertEquals(-1, wheel.nextWakeMS());
+		long now = System.currentTimeMillis();
+		wheel.schedule("a", now + 5 * TICK_MS);
+		long wake = wheel.nextWakeMS();
+		assertTrue(wake > now);
+		assertTrue(wake <= now + 6 * TICK_MS);
+	}
+}
@@ -0,0 +1,153 @@
+/*   
+  	This file is part of JSON Web Framework.
+
+    JSON Web Framework is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    JSON Web Framework is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with JSON Web Framework.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package functions;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * @author Yiqi (Eric) Hou
+ */
+public class ClassCodecTest {
+	
+	public static class Inner {
+		private String name;
+		private int count;
+		
+		public Inner(){
+		}
+	}
+	
+	@SuppressWarnings("rawtypes")
+	public static class Outer {
+		private int i;
+		private double d;
+		private boolean b;
+		private long l;
+		private float f;
+		private short s;
+		private byte by;
+		private char c;
+		private String str;
+		private List<Integer> ints;
+		private List<Inner> inners;
+		private List raw;
+		private Inner inner;
+		
+		public Outer(){
+		}
+	}
+	
+	public static class NoDefaultConstructor {
+		private int value;
+		
+		public NoDefaultConstructor(int value){
+			this.value = value;
+		}
+	}
+	
+	@Test
+	public void codecIsResolvedOncePerClass(){
+		assertSame(ClassCodec.of(Outer.class), ClassCodec.of(Outer.class));
+	}
+	
+	@Test
+	public void fieldsAreGivenTheirKind(){
+		Map<String, ClassCodec.Kind> kinds = new HashMap<String, ClassCodec.Kind>();
+		for(ClassCodec.FieldDescriptor d: ClassCodec.of(Outer.class).fields){
+			kinds.put(d.name, d.kind);
+		}
+		assertEquals(ClassCodec.Kind.INT, kinds.get("i"));
+		assertEquals(ClassCodec.Kind.CHAR, kinds.get("c"));
+		assertEquals(ClassCodec.Kind.STRING, kinds.get("str"));
+		assertEquals(ClassCodec.Kind.VALUE_LIST, kinds.get("ints"));
+		assertEquals(ClassCodec.Kind.OBJECT_LIST, kinds.get("inners"));
+		assertEquals(ClassCodec.Kind.UNKNOWN_LIST, kinds.get("raw"));
+		assertEquals(ClassCodec.Kind.OBJECT, kinds.get("inner"));
+	}
+	
+	@Test
+	public void privateFieldsRoundTripThroughJson(){
+		Outer o = new Outer();
+		o.i = 3;
+		o.d = 2.5;
+		o.b = true;
+		o.l = 1234567890123L;
+		o.f = 1.5f;
+		o.s = 7;
+		o.by = 8;
+		o.str = "hi";
+		o.ints = new ArrayList<Integer>(Arrays.asList(1, 2));
+		Inner inner = new Inner();
+		inner.name = "a";
+		inner.count = 5;
+		o.inners = new ArrayList<Inner>(Arrays.asList(inner));
+		o.inner = inner;
+		
+		String json = JsonFunctions.objectToJson(new JsonBuilder(o).build());
+		Outer back = new JsonInterpreter(Outer.class, json).build();
+		assertEquals(3, back.i);
+		assertEquals(2.5, back.d, 0);
+		assertEquals(true, back.b);
+		assertEquals(1234567890123L, back.l);
+		assertEquals(1.5f, back.f, 0);
+		assertEquals(7, back.s);
+		assertEquals(8, back.by);
+		assertEquals("hi", back.str);
+		assertEquals(1, back.inners.size());
+		assertEquals("a", back.inners.get(0).name);
+		assertEquals(5, back.inners.get(0).count);
+		assertEquals("a", back.inner.name);
+		assertEquals(2, back.ints.size());
+	}
+	
+	@Test
+	public void fieldsMissingFromTheJsonKeepTheirDefault(){
+		Outer back = new JsonInterpreter(Outer.class, "{\"i\":4}").build();
+		assertEquals(4, back.i);
+		assertEquals(0, back.l);
+		assertNull(back.str);
+	}
+	
+	@Test
+	public void classWithoutNoArgConstructorCannotBeBuilt(){
+		assertNull(ClassCodec.of(NoDefaultConstructor.class).constructor);
+		assertNull(new JsonInterpreter(NoDefaultConstructor.class, "{\"value\":1}").build());
+		assertEquals(1.0, ((Number) new JsonBuilder(new NoDefaultConstructor(1)).build().get("value")).doubleValue(), 0);
+	}
+	
+	@Test
+	public void listOfUnknownElementsIsLeftOut(){
+		Outer o = new Outer();
+		o.raw = new ArrayList<Object>(Arrays.asList("a"));
+		Map<String, Object> json = new JsonBuilder(o).build();
+		assertFalse(json.containsKey("raw"));
+		assertTrue(json.containsKey("i"));
+	}
+}